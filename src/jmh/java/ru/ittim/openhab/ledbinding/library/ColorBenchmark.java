@@ -0,0 +1,79 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Color conversion with double math and {@link Math#pow(double, double)} gamma against {@link ColorEngine} tables.
+ * Run with {@code -prof gc}: engine benchmarks must show gc.alloc.rate.norm about 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorBenchmark {
+    private static final double GAMMA = 2.2;
+    private final ColorEngine engine = ColorEngine.DEFAULT;
+    private final int[] rgb = new int[3];
+    private int step;
+
+    @Benchmark
+    public long hsvDouble() {
+        step++;
+        Effects.hsvToRgb((double) (step % ColorEngine.HUE_RANGE) / ColorEngine.HUE_RANGE, 0.8, 0.9, rgb);
+        return ControllerChannels.pack(gamma(rgb[0]), gamma(rgb[1]), gamma(rgb[2]), 0, 0);
+    }
+
+    @Benchmark
+    public long hsvEngine() {
+        step++;
+        return engine.hsv(step, 204, 230);
+    }
+
+    @Benchmark
+    public long rgbDouble() {
+        step++;
+        int value = step & 0xFF;
+        return ControllerChannels.pack(gamma(value), gamma(255 - value), gamma(value >> 1), 0, 0);
+    }
+
+    @Benchmark
+    public long rgbEngine() {
+        step++;
+        int value = step & 0xFF;
+        return engine.rgb(value, 255 - value, value >> 1);
+    }
+
+    @Benchmark
+    public long cctEngine() {
+        step++;
+        return engine.cct(2700 + step % 3800, 200);
+    }
+
+    @Benchmark
+    public int percentDouble() {
+        step++;
+        return (int) (step % 101 / 100.0 * 255);
+    }
+
+    @Benchmark
+    public int percentTable() {
+        step++;
+        return ControllerChannels.toValue(step % 101);
+    }
+
+    private static int gamma(int value) {
+        return (int) Math.round(Math.pow(value / 255.0, GAMMA) * 255);
+    }
+}
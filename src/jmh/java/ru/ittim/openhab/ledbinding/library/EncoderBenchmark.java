@@ -0,0 +1,74 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command encoding into new arrays against encoding into reused buffer.
+ * Run with {@code -prof gc}: buffer benchmarks must show gc.alloc.rate.norm about 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+    private final ControllerChannels channels = ControllerChannels.fromPercents(10, 20, 30, 40, 50);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(ControllerChannels.COMMAND_LENGTH);
+    private byte value;
+
+    @Benchmark
+    public byte[] channelCommandArray() {
+        return channels.getChannelCommand();
+    }
+
+    @Benchmark
+    public ByteBuffer channelCommandBuffer() {
+        buffer.clear();
+        channels.encode(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer rawChannelCommandBuffer() {
+        buffer.clear();
+        value++;
+        ControllerChannels.encode(buffer, value, value, value, (byte) 0, (byte) 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] powerCommandArray() {
+        return PowerState.ON.getCommand();
+    }
+
+    @Benchmark
+    public ByteBuffer powerCommandBuffer() {
+        buffer.clear();
+        PowerState.ON.encode(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] modeCommandArray() {
+        return FunctionalModeRgb.SEVEN_COLOR.getCommand();
+    }
+
+    @Benchmark
+    public ByteBuffer modeCommandBuffer() {
+        buffer.clear();
+        FunctionalModeRgb.SEVEN_COLOR.encode(buffer, 0x10);
+        return buffer;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of instrumentation: controller commands over in-memory transport with metrics disabled and with
+ * {@link SimpleControllerMetrics}. Without network the difference is the whole cost of measurements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final String DEVICE = "127.0.0.1:5577";
+
+    @Param({"disabled", "simple"})
+    private String metrics;
+
+    private LedController controller;
+    private final ControllerChannels channels = ControllerChannels.fromPercents(10, 20, 30, 40, 50);
+
+    @Setup
+    public void setUp() {
+        ControllerMetrics receiver = "simple".equals(metrics) ? new SimpleControllerMetrics() : ControllerMetrics.NOOP;
+        ControllerTransport transport = new MemoryTransport();
+        if (receiver != ControllerMetrics.NOOP) {
+            transport = new MetricsTransport(transport, receiver, DEVICE);
+        }
+        controller = new LedController("127.0.0.1", "", "", transport,
+                new CommandQueue(transport, 0, null, receiver, DEVICE));
+    }
+
+    @Benchmark
+    public Object init() {
+        return controller.async().init().join();
+    }
+
+    @Benchmark
+    public Object setChannels() {
+        return controller.async().setChannels(channels).join();
+    }
+
+    @Benchmark
+    public Object turnOn() {
+        return controller.async().turnOn().join();
+    }
+
+    /**
+     * Transport, which answers at once without I/O.
+     */
+    private static final class MemoryTransport implements ControllerTransport {
+        private final byte[] stateResponse = Utils.withCheckSum(new byte[]{
+                (byte) 0x81, 0x25, 0x23, 0x61, 0x00, 0x1f, 0x10, 0x20, 0x30, 0x40, 0x01, 0x50, (byte) 0xf0});
+        private final CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+        @Override
+        public CompletableFuture<Void> send(byte[] frame) {
+            return written;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+            return CompletableFuture.completedFuture(frame[0] == FrameDecoder.STATE_HEADER ? stateResponse : frame);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
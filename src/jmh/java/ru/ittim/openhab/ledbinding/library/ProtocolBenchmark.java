@@ -0,0 +1,77 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of protocol messages without network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private final byte[] rgbCommand = {0x31, 0x10, 0x20, 0x30, 0, 0, (byte) 0xf0, 0x0f};
+    private final byte[] stateResponse = Utils.withCheckSum(new byte[]{
+            (byte) 0x81, 0x25, 0x23, 0x61, 0x00, 0x1f, 0x10, 0x20, 0x30, 0x40, 0x01, 0x50, (byte) 0xf0});
+    private final ByteBuffer stateBuffer = ByteBuffer.wrap(stateResponse);
+    private final ControllerChannels channels = ControllerChannels.fromPercents(10, 20, 30, 40, 50);
+    private int percent;
+
+    @Benchmark
+    public byte[] withCheckSum() {
+        return Utils.withCheckSum(rgbCommand);
+    }
+
+    @Benchmark
+    public ControllerChannels fromPercents() {
+        percent = (percent + 1) % 101;
+        return ControllerChannels.fromPercents(percent, percent, percent, percent, percent);
+    }
+
+    @Benchmark
+    public byte[] getChannelCommand() {
+        return channels.getChannelCommand();
+    }
+
+    @Benchmark
+    public PowerState powerStateGet() {
+        return PowerState.get(stateResponse[2]);
+    }
+
+    @Benchmark
+    public FunctionalModeRgb modeGet() {
+        return FunctionalModeRgb.get(stateResponse[3]);
+    }
+
+    @Benchmark
+    public ControllerType typeGet() {
+        return ControllerType.get(stateResponse[12]);
+    }
+
+    @Benchmark
+    public ControllerState parseState() throws ProtocolException {
+        return ControllerState.parse(stateResponse);
+    }
+
+    /**
+     * State decoding in receive buffer of transport.
+     */
+    @Benchmark
+    public ControllerState decodeState() throws ProtocolException {
+        return FrameDecoder.decodeState(stateBuffer, 0, stateResponse.length);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end commands of {@link LedController} against simulator on loopback,
+ * with blocking socket and with event loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+    private LedController socketController;
+    private LedController nioController;
+    private final ControllerChannels channels = ControllerChannels.fromPercents(10, 20, 30, 40, 50);
+
+    @Setup
+    public void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().build();
+        loop = new NioEventLoop("led-io");
+        socketController = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .build();
+        nioController = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socketController.close();
+        nioController.close();
+        loop.close();
+        simulator.close();
+    }
+
+    @Benchmark
+    public ControllerState socketInit() throws IOException {
+        socketController.init();
+        return socketController.getState();
+    }
+
+    @Benchmark
+    public ControllerState nioInit() throws IOException {
+        nioController.init();
+        return nioController.getState();
+    }
+
+    @Benchmark
+    public ControllerState socketTurnOn() throws IOException {
+        socketController.turnOn();
+        return socketController.getState();
+    }
+
+    @Benchmark
+    public ControllerState nioTurnOn() throws IOException {
+        nioController.turnOn();
+        return nioController.getState();
+    }
+
+    @Benchmark
+    public ControllerState nioAsyncInit() {
+        return nioController.async().init().join();
+    }
+
+    @Benchmark
+    public ControllerState nioSetChannels() throws IOException {
+        nioController.setChannels(channels);
+        return nioController.getState();
+    }
+}
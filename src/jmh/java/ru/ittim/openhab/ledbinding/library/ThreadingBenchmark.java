@@ -0,0 +1,95 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State request to every device of large fleet: blocking sockets on platform threads, blocking sockets on
+ * virtual threads (JDK 21+) and one selector thread. Run with {@code -prof gc} to compare allocations and
+ * with {@code -p devices=...} to change fleet size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadingBenchmark {
+    @Param({"platform", "virtual", "selector"})
+    private String threading;
+
+    @Param("1000")
+    private int devices;
+
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+    private ExecutorService executor;
+    private final List<LedController> controllers = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().devices(devices).build();
+        switch (threading) {
+            case "platform":
+                executor = ControllerExecutors.newPlatformThreadExecutor("led-io");
+                break;
+            case "virtual":
+                executor = ControllerExecutors.newVirtualThreadPerTaskExecutor();
+                break;
+            case "selector":
+                loop = new NioEventLoop("led-io");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown threading " + threading);
+        }
+        for (int i = 0; i < devices; i++) {
+            controllers.add(new LedController.LedControllerBuilder()
+                    .host(simulator.getHost())
+                    .port(simulator.getPort(i))
+                    .eventLoop(loop)
+                    .executor(executor)
+                    .build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (LedController controller : controllers) {
+            controller.close();
+        }
+        controllers.clear();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (loop != null) {
+            loop.close();
+        }
+        simulator.close();
+    }
+
+    @Benchmark
+    public Object initFleet() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[controllers.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = controllers.get(i).async().init();
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
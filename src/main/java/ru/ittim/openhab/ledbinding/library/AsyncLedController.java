@@ -0,0 +1,194 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * Non-blocking API of {@link LedController}. Every command returns future, which is completed with
+ * controller state after command is delivered (or answered, for commands with answer).
+ * Futures are completed in transport thread, so callbacks must not block.
+ * Mode and channel commands are sent through {@link CommandQueue}, so frequent updates are coalesced.
+ */
+public final class AsyncLedController {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncLedController.class);
+
+    private final LedController controller;
+    private final ControllerTransport transport;
+    private final CommandQueue queue;
+
+    AsyncLedController(LedController controller, ControllerTransport transport, CommandQueue queue) {
+        this.controller = controller;
+        this.transport = transport;
+        this.queue = queue;
+    }
+
+    /**
+     * @return blocking view of the same controller.
+     */
+    public LedController sync() {
+        return controller;
+    }
+
+    /**
+     * Request state from controller.
+     *
+     * @return state received from controller.
+     * @see LedController#init()
+     */
+    public CompletableFuture<ControllerState> init() {
+        return transport.request(LedController.REQUEST_STATE_MSG, ControllerState.RESPONSE_LENGTH,
+                FrameDecoder::decodeState)
+                .thenApply(state -> controller.updateState(it -> state));
+    }
+
+    public CompletableFuture<ControllerState> setPowerState(PowerState power) {
+        return setPowerState(power, power.getCommand());
+    }
+
+    /**
+     * @param command encoded command for given power state, can be shared between controllers.
+     */
+    CompletableFuture<ControllerState> setPowerState(PowerState power, byte[] command) {
+        return transport.request(command, command.length)
+                .thenApply(response -> controller.updateState(it -> it.withPower(power)));
+    }
+
+    public CompletableFuture<ControllerState> turnOn() {
+        return setPowerState(PowerState.ON);
+    }
+
+    public CompletableFuture<ControllerState> turnOff() {
+        return setPowerState(PowerState.OFF);
+    }
+
+    /**
+     * Set mode with current speed.
+     */
+    public CompletableFuture<ControllerState> setMode(FunctionalModeRgb mode) {
+        return setMode(mode, controller.getState().getSpeed());
+    }
+
+    /**
+     * @param speed speed 31 (min speed) - 1(max speed)
+     */
+    public CompletableFuture<ControllerState> setMode(FunctionalModeRgb mode, int speed) {
+        return setMode(mode, speed, mode.getCommand(speed));
+    }
+
+    /**
+     * @param command encoded command for given mode and speed, can be shared between controllers.
+     */
+    CompletableFuture<ControllerState> setMode(FunctionalModeRgb mode, int speed, byte[] command) {
+        return queue.offer(CommandQueue.Kind.MODE, command)
+                .thenApply(ignored -> controller.updateState(it -> it.withMode(mode, speed)));
+    }
+
+    /**
+     * Upload program of custom mode, controller runs it without further commands. Program replaces mode command,
+     * which is waiting in queue, and vice versa.
+     */
+    public CompletableFuture<ControllerState> setCustomProgram(CustomProgram program) {
+        return setCustomProgram(program, program.getCommand());
+    }
+
+    /**
+     * @param command encoded program, can be shared between controllers.
+     */
+    CompletableFuture<ControllerState> setCustomProgram(CustomProgram program, byte[] command) {
+        return queue.offer(CommandQueue.Kind.MODE, command)
+                .thenApply(ignored -> controller.updateState(it -> it.withMode(FunctionalModeRgb.CUSTOM,
+                        program.getSpeed())));
+    }
+
+    public CompletableFuture<ControllerState> setChannels(ControllerChannels channels) {
+        return updateChannels(it -> channels);
+    }
+
+    /**
+     * Known state is updated at once as by {@link #setRGB(int, int, int)}, so newer command, which replaces this
+     * one in queue, isn't overwritten by this state after write.
+     *
+     * @param command encoded command for given channels, can be shared between controllers.
+     */
+    CompletableFuture<ControllerState> setChannels(ControllerChannels channels, byte[] command) {
+        logger.debug("Setup new channels: {}", channels);
+        controller.updateState(it -> it.withChannels(channels));
+        return queue.offer(CommandQueue.Kind.CHANNELS, command)
+                .thenApply(ignored -> controller.getState());
+    }
+
+    /**
+     * Change rgb channels, white channels are kept. Concurrent changes of different channels are merged:
+     * known state is updated at once and command is encoded from known state when it's sent.
+     */
+    public CompletableFuture<ControllerState> setRGB(int r, int g, int b) {
+        return setRGBValues(ControllerChannels.toValue(r), ControllerChannels.toValue(g), ControllerChannels.toValue(b));
+    }
+
+    /**
+     * Change rgb channels by values from 0 to 255 without conversion from percents.
+     *
+     * @see #setRGB(int, int, int)
+     */
+    public CompletableFuture<ControllerState> setRGBValues(int r, int g, int b) {
+        ControllerChannels.checkValue(r);
+        ControllerChannels.checkValue(g);
+        ControllerChannels.checkValue(b);
+        return updateChannels(it -> it.withRgb(r, g, b));
+    }
+
+    /**
+     * Change warm white channel, other channels are kept.
+     *
+     * @see #setRGB(int, int, int)
+     */
+    public CompletableFuture<ControllerState> setWw(int percent) {
+        return setWwValue(ControllerChannels.toValue(percent));
+    }
+
+    /**
+     * Change warm white channel by value from 0 to 255.
+     *
+     * @see #setRGBValues(int, int, int)
+     */
+    public CompletableFuture<ControllerState> setWwValue(int value) {
+        ControllerChannels.checkValue(value);
+        return updateChannels(it -> it.withWw(value));
+    }
+
+    /**
+     * Change cold white channel, other channels are kept.
+     *
+     * @see #setRGB(int, int, int)
+     */
+    public CompletableFuture<ControllerState> setCw(int percent) {
+        return setCwValue(ControllerChannels.toValue(percent));
+    }
+
+    /**
+     * Change cold white channel by value from 0 to 255.
+     *
+     * @see #setRGBValues(int, int, int)
+     */
+    public CompletableFuture<ControllerState> setCwValue(int value) {
+        ControllerChannels.checkValue(value);
+        return updateChannels(it -> it.withCw(value));
+    }
+
+    /**
+     * @return new empty batch of commands, which are written with one write.
+     */
+    public CommandBatch batch() {
+        return new CommandBatch(controller, transport, queue);
+    }
+
+    private CompletableFuture<ControllerState> updateChannels(UnaryOperator<ControllerChannels> update) {
+        ControllerState state = controller.updateState(it -> it.withChannels(update.apply(it.getChannels())));
+        logger.debug("Setup new channels: {}", state.getChannels());
+        return queue.offer(CommandQueue.Kind.CHANNELS, () -> controller.getChannels().getChannelCommand())
+                .thenApply(ignored -> controller.getState());
+    }
+}
@@ -0,0 +1,109 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of one device. After several failures in a row device is considered offline and commands fail
+ * at once without network operations. When open interval is passed, one command is let through as probe: its
+ * success closes breaker, its failure opens breaker again for doubled interval.
+ */
+final class CircuitBreaker {
+    enum State {
+        /**
+         * Device is online, all commands are sent.
+         */
+        CLOSED,
+        /**
+         * Device is offline, commands are rejected.
+         */
+        OPEN,
+        /**
+         * Probe command is in flight, other commands are rejected.
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long minOpenInterval;
+    private final long maxOpenInterval;
+
+    /**
+     * Changed under monitor, read without it on fast path.
+     */
+    private volatile State state = State.CLOSED;
+    private volatile int failures;
+    /**
+     * Number of openings since breaker was closed, guarded by this.
+     */
+    private int trips;
+    private long openUntil;
+
+    /**
+     * @param failureThreshold number of failures in a row, which opens breaker.
+     * @param minOpenInterval  first open interval in milliseconds.
+     * @param maxOpenInterval  maximum open interval in milliseconds.
+     */
+    CircuitBreaker(int failureThreshold, long minOpenInterval, long maxOpenInterval) {
+        this.failureThreshold = failureThreshold;
+        this.minOpenInterval = TimeUnit.MILLISECONDS.toNanos(minOpenInterval);
+        this.maxOpenInterval = TimeUnit.MILLISECONDS.toNanos(maxOpenInterval);
+    }
+
+    /**
+     * @return true, if command can be sent. Caller must report result by {@link #onSuccess()} or
+     * {@link #onFailure()}.
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    void onSuccess() {
+        if (state == State.CLOSED && failures == 0) {
+            return;
+        }
+        synchronized (this) {
+            state = State.CLOSED;
+            failures = 0;
+            trips = 0;
+        }
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && failures >= failureThreshold) {
+            long interval = Math.min(maxOpenInterval, minOpenInterval << Math.min(trips, 20));
+            trips++;
+            openUntil = System.nanoTime() + interval;
+            state = State.OPEN;
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * @return milliseconds until the next probe, 0 if commands are sent.
+     */
+    synchronized long getRetryDelay() {
+        return state == State.OPEN ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime())) : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", failures=" + failures +
+                ", trips=" + trips +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Transport, which fails commands to offline device at once (see {@link CircuitBreaker}), so bulk operation
+ * over fleet isn't delayed by timeouts of dead devices.
+ */
+class CircuitBreakerTransport implements ControllerTransport {
+    private final ControllerTransport delegate;
+    private final CircuitBreaker breaker;
+    private final String device;
+
+    CircuitBreakerTransport(ControllerTransport delegate, CircuitBreaker breaker, String device) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.device = device;
+    }
+
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(byte[] frame) {
+        return guard(() -> delegate.send(frame));
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ByteBuffer[] frames) {
+        return guard(() -> delegate.send(frames));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+        return guard(() -> delegate.request(frame, responseLength));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+        return guard(() -> delegate.request(frame, responseLength, decoder));
+    }
+
+    private <T> CompletableFuture<T> guard(Supplier<CompletableFuture<T>> command) {
+        if (!breaker.tryAcquire()) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            result.completeExceptionally(new ConnectException("Device " + device + " is offline, next attempt in "
+                    + breaker.getRetryDelay() + " ms"));
+            return result;
+        }
+        CompletableFuture<T> result;
+        try {
+            result = command.get();
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        }
+        // callers see result after breaker is updated
+        return result.whenComplete((value, e) -> {
+            if (e == null) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,260 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.B;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.CW;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.G;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.R;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.WW;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.checkValue;
+
+/**
+ * Conversion of colors into channels of RGBWW fixture through precomputed integer tables: gamma correction
+ * and calibration of every channel, HSV, color temperature mixed from warm and cold white and extraction of white
+ * from RGB. Result is packed channels (see {@link ControllerChannels#pack(int, int, int, int, int)}), so conversion
+ * doesn't allocate and can be used for every frame of effect or for every member of scene.
+ * <p>
+ * Engine is immutable calibration profile of one fixture type and can be shared between threads.
+ */
+public final class ColorEngine {
+    /**
+     * Number of hue steps: 256 steps in each of 6 sectors of color wheel.
+     */
+    public static final int HUE_RANGE = 6 * 256;
+    /**
+     * Resolution of color temperature table in kelvins.
+     */
+    private static final int KELVIN_STEP = 10;
+    /**
+     * Gamma 2.2, default calibration.
+     */
+    public static final ColorEngine DEFAULT = new ColorEngineBuilder().build();
+
+    /**
+     * Output value by channel and input value: {@code table[channel << 8 | value]}.
+     */
+    private final int[] table = new int[5 * 256];
+    /**
+     * Part of cold white from 0 to 255 by {@code (kelvin - warmKelvin) / KELVIN_STEP}.
+     */
+    private final int[] coldMix;
+    private final int warmKelvin;
+    private final int coldKelvin;
+    /**
+     * Part of cold white in white extracted from RGB, -1 - extraction is disabled.
+     */
+    private final int whiteMix;
+
+    private ColorEngine(ColorEngineBuilder builder) {
+        for (int channel = R; channel <= CW; channel++) {
+            for (int value = 0; value < 256; value++) {
+                double linear = Math.pow(value / 255.0, builder.gamma);
+                table[channel << 8 | value] = (int) Math.round(linear * builder.scales[channel]);
+            }
+        }
+        this.warmKelvin = builder.warmKelvin;
+        this.coldKelvin = builder.coldKelvin;
+        // white channels are mixed linearly in mireds, which is close to perceived change of temperature
+        double warmMired = 1e6 / warmKelvin;
+        double coldMired = 1e6 / coldKelvin;
+        this.coldMix = new int[(coldKelvin - warmKelvin) / KELVIN_STEP + 1];
+        for (int i = 0; i < coldMix.length; i++) {
+            double mired = 1e6 / (warmKelvin + i * KELVIN_STEP);
+            coldMix[i] = (int) Math.round((warmMired - mired) / (warmMired - coldMired) * 255);
+        }
+        this.whiteMix = builder.whiteKelvin > 0 ? coldMix(builder.whiteKelvin) : -1;
+    }
+
+    /**
+     * @param channel index of channel from {@link ControllerChannels#R} to {@link ControllerChannels#CW}.
+     * @param value   requested value from 0 to 255.
+     * @return value with gamma correction and calibration of channel.
+     * @throws IllegalArgumentException if channel or value is out of range.
+     */
+    public int correct(int channel, int value) {
+        if (channel < R || channel > CW) {
+            throw new IllegalArgumentException("Unknown channel " + channel);
+        }
+        return table[channel << 8 | checkValue(value)];
+    }
+
+    /**
+     * Convert RGB color. If white extraction is enabled, common part of rgb channels is moved to white channels.
+     *
+     * @return packed channels.
+     * @throws IllegalArgumentException if channel value isn't in interval [0, 255].
+     */
+    public long rgb(int r, int g, int b) {
+        checkValue(r);
+        checkValue(g);
+        checkValue(b);
+        if (whiteMix < 0) {
+            return pack(r, g, b, 0, 0);
+        }
+        int white = Math.min(r, Math.min(g, b));
+        int cold = white * whiteMix / 255;
+        return pack(r - white, g - white, b - white, white - cold, cold);
+    }
+
+    /**
+     * Convert RGB color with brightness.
+     *
+     * @param brightness brightness from 0 to 255.
+     * @return packed channels.
+     */
+    public long rgb(int r, int g, int b, int brightness) {
+        checkValue(brightness);
+        return rgb(scale(r, brightness), scale(g, brightness), scale(b, brightness));
+    }
+
+    /**
+     * Convert HSV color with integer arithmetic.
+     *
+     * @param hue        hue from 0 to {@link #HUE_RANGE} exclusive, larger values are wrapped.
+     * @param saturation saturation from 0 to 255.
+     * @param value      value (brightness) from 0 to 255.
+     * @return packed channels.
+     */
+    public long hsv(int hue, int saturation, int value) {
+        checkValue(saturation);
+        checkValue(value);
+        int h = Math.floorMod(hue, HUE_RANGE);
+        int sector = h >> 8;
+        int f = h & 0xFF;
+        int p = value * (255 - saturation) / 255;
+        int q = value * (255 * 255 - saturation * f) / (255 * 255);
+        int t = value * (255 * 255 - saturation * (255 - f)) / (255 * 255);
+        switch (sector) {
+            case 0:
+                return rgb(value, t, p);
+            case 1:
+                return rgb(q, value, p);
+            case 2:
+                return rgb(p, value, t);
+            case 3:
+                return rgb(p, q, value);
+            case 4:
+                return rgb(t, p, value);
+            default:
+                return rgb(value, p, q);
+        }
+    }
+
+    /**
+     * Convert color temperature into mix of warm and cold white, rgb channels are off.
+     *
+     * @param kelvin     temperature, it is clamped to range of white channels.
+     * @param brightness brightness from 0 to 255.
+     * @return packed channels.
+     */
+    public long cct(int kelvin, int brightness) {
+        checkValue(brightness);
+        int cold = brightness * coldMix(kelvin) / 255;
+        return pack(0, 0, 0, brightness - cold, cold);
+    }
+
+    /**
+     * Write packed channels into array of effect frame.
+     *
+     * @param packed   packed channels.
+     * @param channels output array in order r, g, b, ww, cw.
+     */
+    public static void unpack(long packed, int[] channels) {
+        for (int i = R; i <= CW; i++) {
+            channels[i] = ControllerChannels.channel(packed, i);
+        }
+    }
+
+    private int coldMix(int kelvin) {
+        int clamped = Math.max(warmKelvin, Math.min(coldKelvin, kelvin));
+        return coldMix[(clamped - warmKelvin) / KELVIN_STEP];
+    }
+
+    /**
+     * Values must be checked by caller: value out of range reads table of another channel.
+     */
+    private long pack(int r, int g, int b, int ww, int cw) {
+        return (long) table[R << 8 | r] << 32 | (long) table[G << 8 | g] << 24 | table[B << 8 | b] << 16
+                | table[WW << 8 | ww] << 8 | table[CW << 8 | cw];
+    }
+
+    private static int scale(int value, int brightness) {
+        return (value * brightness + 127) / 255;
+    }
+
+    @Override
+    public String toString() {
+        return "ColorEngine{" +
+                "warmKelvin=" + warmKelvin +
+                ", coldKelvin=" + coldKelvin +
+                ", whiteExtraction=" + (whiteMix >= 0) +
+                '}';
+    }
+
+    public static final class ColorEngineBuilder {
+        /**
+         * Exponent of gamma correction, 1 - linear output.
+         */
+        private double gamma = 2.2;
+        /**
+         * Maximum output of every channel, for balance of LEDs with different efficiency.
+         */
+        private final int[] scales = {255, 255, 255, 255, 255};
+        /**
+         * Temperature of warm white LEDs.
+         */
+        private int warmKelvin = 2700;
+        /**
+         * Temperature of cold white LEDs.
+         */
+        private int coldKelvin = 6500;
+        /**
+         * Temperature of white, which replaces common part of rgb channels, 0 - don't extract white.
+         */
+        private int whiteKelvin;
+
+        public ColorEngineBuilder() {
+        }
+
+        public static ColorEngineBuilder aColorEngine() {
+            return new ColorEngineBuilder();
+        }
+
+        public ColorEngineBuilder gamma(double gamma) {
+            this.gamma = gamma;
+            return this;
+        }
+
+        /**
+         * @param channel index of channel from {@link ControllerChannels#R} to {@link ControllerChannels#CW}.
+         * @param max     output value for full input from 0 to 255.
+         */
+        public ColorEngineBuilder scale(int channel, int max) {
+            this.scales[channel] = checkValue(max);
+            return this;
+        }
+
+        public ColorEngineBuilder whiteRange(int warmKelvin, int coldKelvin) {
+            this.warmKelvin = warmKelvin;
+            this.coldKelvin = coldKelvin;
+            return this;
+        }
+
+        public ColorEngineBuilder whiteExtraction(int whiteKelvin) {
+            this.whiteKelvin = whiteKelvin;
+            return this;
+        }
+
+        public ColorEngine build() {
+            if (!(gamma > 0 && gamma <= 5)) {
+                throw new IllegalStateException("Gamma must be in interval (0, 5]");
+            }
+            if (warmKelvin < 1000 || coldKelvin > 20000 || warmKelvin >= coldKelvin) {
+                throw new IllegalStateException("White range must be increasing range in [1000, 20000] K");
+            }
+            if (whiteKelvin != 0 && (whiteKelvin < warmKelvin || whiteKelvin > coldKelvin)) {
+                throw new IllegalStateException("White of extraction must be in white range");
+            }
+            return new ColorEngine(this);
+        }
+    }
+}
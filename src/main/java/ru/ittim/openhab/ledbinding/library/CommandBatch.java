@@ -0,0 +1,119 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * Several commands for one controller, which are written to network with one gathering write, so scene change
+ * (for example power, mode and channels) costs one system call and usually one TCP segment.
+ * Enable {@code tcpNoDelay} of controller or pool to send segment at once.
+ * <p>
+ * Batch is written directly to transport without {@link CommandQueue}: commands aren't coalesced or throttled.
+ * Mode, program or channels command, which is waiting in queue, is replaced by batch, so it can't override batch
+ * after write; its future is completed with the batch. Echoes of power commands aren't waited.
+ * Batch isn't thread safe; it can be reused after {@link #send()}.
+ *
+ * @see AsyncLedController#batch()
+ */
+public final class CommandBatch {
+    private final LedController controller;
+    private final ControllerTransport transport;
+    private final CommandQueue queue;
+    private final List<byte[]> frames = new ArrayList<>();
+    private final List<UnaryOperator<ControllerState>> updates = new ArrayList<>();
+    /**
+     * Kinds of queued commands replaced by this batch.
+     */
+    private final EnumSet<CommandQueue.Kind> kinds = EnumSet.noneOf(CommandQueue.Kind.class);
+
+    CommandBatch(LedController controller, ControllerTransport transport, CommandQueue queue) {
+        this.controller = controller;
+        this.transport = transport;
+        this.queue = queue;
+    }
+
+    public CommandBatch power(PowerState power) {
+        if (power == PowerState.UNKNOWN) {
+            throw new IllegalArgumentException("Unknown power state can't be sent");
+        }
+        return add(power.getCommand(), it -> it.withPower(power));
+    }
+
+    public CommandBatch turnOn() {
+        return power(PowerState.ON);
+    }
+
+    public CommandBatch turnOff() {
+        return power(PowerState.OFF);
+    }
+
+    /**
+     * @param speed speed 31 (min speed) - 1(max speed)
+     */
+    public CommandBatch mode(FunctionalModeRgb mode, int speed) {
+        kinds.add(CommandQueue.Kind.MODE);
+        return add(mode.getCommand(speed), it -> it.withMode(mode, speed));
+    }
+
+    public CommandBatch program(CustomProgram program) {
+        kinds.add(CommandQueue.Kind.MODE);
+        return add(program.getCommand(), it -> it.withMode(FunctionalModeRgb.CUSTOM, program.getSpeed()));
+    }
+
+    public CommandBatch channels(ControllerChannels channels) {
+        kinds.add(CommandQueue.Kind.CHANNELS);
+        return add(channels.getChannelCommand(), it -> it.withChannels(channels));
+    }
+
+    private CommandBatch add(byte[] frame, UnaryOperator<ControllerState> update) {
+        frames.add(frame);
+        updates.add(update);
+        return this;
+    }
+
+    /**
+     * @return number of collected commands.
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * Write collected commands in order of adding and clear batch.
+     *
+     * @return state after all commands are written, known state is updated in the same order.
+     */
+    public CompletableFuture<ControllerState> send() {
+        if (frames.isEmpty()) {
+            return CompletableFuture.completedFuture(controller.getState());
+        }
+        ByteBuffer[] buffers = new ByteBuffer[frames.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(frames.get(i));
+        }
+        List<UnaryOperator<ControllerState>> applied = new ArrayList<>(updates);
+        // queued commands are removed before write, so they can't be written after batch
+        List<CompletableFuture<Void>> superseded = queue.supersede(kinds);
+        frames.clear();
+        updates.clear();
+        kinds.clear();
+        // replaced commands are completed first, so their callbacks don't override state of batch
+        return transport.send(buffers).whenComplete((ignored, e) -> {
+            if (e == null) {
+                superseded.forEach(it -> it.complete(null));
+            } else {
+                superseded.forEach(it -> it.completeExceptionally(e));
+            }
+        }).thenApply(ignored -> controller.updateState(it -> {
+            ControllerState state = it;
+            for (UnaryOperator<ControllerState> update : applied) {
+                state = update.apply(state);
+            }
+            return state;
+        }));
+    }
+}
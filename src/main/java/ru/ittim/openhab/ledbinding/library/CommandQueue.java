@@ -0,0 +1,251 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Outbound queue of one controller with last-write-wins semantic.
+ * Queue holds at most one not sent command of each {@link Kind}: new command replaces pending one,
+ * so when module is slower than UI, only the newest state is sent. Next command is sent only after previous
+ * one is written and not earlier than allowed by maximum send rate.
+ */
+public final class CommandQueue {
+    /**
+     * Commands of the same kind replace each other.
+     */
+    public enum Kind {
+        CHANNELS,
+        MODE
+    }
+
+    private final ControllerTransport transport;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Minimal interval between sends in nanoseconds, 0 - without limit.
+     */
+    private final long interval;
+    private final ControllerMetrics metrics;
+    /**
+     * {@code host:port} of controller for metrics.
+     */
+    private final String device;
+
+    private final Object lock = new Object();
+    /**
+     * Not sent commands in order of last update, guarded by {@link #lock}.
+     */
+    private final LinkedHashMap<Kind, Pending> pending = new LinkedHashMap<>();
+    private boolean inFlight;
+    private boolean scheduled;
+    private long lastSend;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param transport   transport of controller.
+     * @param maxSendRate maximum number of commands per second, 0 - without limit.
+     * @param scheduler   scheduler for delayed sends, if null - shared daemon scheduler is used.
+     */
+    CommandQueue(ControllerTransport transport, int maxSendRate, ScheduledExecutorService scheduler) {
+        this(transport, maxSendRate, scheduler, ControllerMetrics.NOOP, "");
+    }
+
+    /**
+     * @param metrics receiver of queue depth.
+     * @param device  {@code host:port} of controller.
+     */
+    CommandQueue(ControllerTransport transport, int maxSendRate, ScheduledExecutorService scheduler,
+                 ControllerMetrics metrics, String device) {
+        if (maxSendRate < 0) {
+            throw new IllegalArgumentException("Send rate can't be negative");
+        }
+        this.transport = transport;
+        this.scheduler = scheduler != null ? scheduler : Utils.SCHEDULER;
+        this.interval = maxSendRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxSendRate;
+        this.lastSend = System.nanoTime() - interval;
+        this.metrics = metrics;
+        this.device = device;
+    }
+
+    /**
+     * Queue command for sending.
+     *
+     * @param kind  kind of command, pending command of the same kind is replaced.
+     * @param frame command with checksum.
+     * @return future completed when this command or command, which replaced it, is written to network.
+     */
+    public CompletableFuture<Void> offer(Kind kind, byte[] frame) {
+        return offer(kind, () -> frame);
+    }
+
+    /**
+     * Queue command, which is encoded just before sending. So command, which is replaced by newer one or waits
+     * for rate limit, is encoded from the newest state.
+     *
+     * @param kind    kind of command, pending command of the same kind is replaced.
+     * @param encoder supplier of command with checksum, called once when command is sent.
+     * @return future completed when this command or command, which replaced it, is written to network.
+     */
+    public CompletableFuture<Void> offer(Kind kind, Supplier<byte[]> encoder) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        int depth;
+        submitted.incrementAndGet();
+        synchronized (lock) {
+            Pending command = new Pending(encoder);
+            Pending previous = pending.remove(kind);
+            if (previous != null) {
+                coalesced.incrementAndGet();
+                command.futures.addAll(previous.futures);
+            }
+            // the newest future is completed last, so its callbacks see the newest state
+            command.futures.add(future);
+            pending.put(kind, command);
+            depth = pending.size();
+        }
+        metrics.queueDepth(device, depth);
+        drain();
+        return future;
+    }
+
+    /**
+     * Remove not sent commands of given kinds, because newer commands of these kinds are written past the queue,
+     * for example by {@link CommandBatch}. Removed commands are counted as coalesced.
+     *
+     * @return futures of removed commands in order of offering, caller completes them with its write.
+     */
+    List<CompletableFuture<Void>> supersede(Set<Kind> kinds) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int depth;
+        synchronized (lock) {
+            for (Kind kind : kinds) {
+                Pending previous = pending.remove(kind);
+                if (previous != null) {
+                    coalesced.incrementAndGet();
+                    futures.addAll(previous.futures);
+                }
+            }
+            depth = pending.size();
+        }
+        if (!futures.isEmpty()) {
+            metrics.queueDepth(device, depth);
+        }
+        return futures;
+    }
+
+    private void drain() {
+        Pending command;
+        int depth;
+        synchronized (lock) {
+            if (inFlight || scheduled || pending.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            long wait = lastSend + interval - now;
+            if (wait > 0) {
+                scheduled = true;
+                scheduler.schedule(() -> {
+                    synchronized (lock) {
+                        scheduled = false;
+                    }
+                    drain();
+                }, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            Iterator<Pending> iterator = pending.values().iterator();
+            command = iterator.next();
+            iterator.remove();
+            inFlight = true;
+            lastSend = now;
+            depth = pending.size();
+        }
+        metrics.queueDepth(device, depth);
+        CompletableFuture<Void> written;
+        try {
+            written = transport.send(command.encoder.get());
+        } catch (RuntimeException e) {
+            // command, which can't be encoded, is dropped and queue goes on
+            written = new CompletableFuture<>();
+            written.completeExceptionally(e);
+        }
+        written.whenComplete((ignored, e) -> {
+            synchronized (lock) {
+                inFlight = false;
+            }
+            if (e == null) {
+                sent.incrementAndGet();
+                command.futures.forEach(it -> it.complete(null));
+            } else {
+                dropped.addAndGet(command.futures.size());
+                command.futures.forEach(it -> it.completeExceptionally(e));
+            }
+            drain();
+        });
+    }
+
+    /**
+     * @return number of offered commands.
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return number of commands written to network.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of commands replaced by newer command of the same kind before sending.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of commands lost because of transport or encoding error.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of commands waiting for send.
+     */
+    public int getDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CommandQueue{" +
+                "submitted=" + submitted +
+                ", sent=" + sent +
+                ", coalesced=" + coalesced +
+                ", dropped=" + dropped +
+                '}';
+    }
+
+    private static final class Pending {
+        private final Supplier<byte[]> encoder;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+
+        private Pending(Supplier<byte[]> encoder) {
+            this.encoder = encoder;
+        }
+    }
+}
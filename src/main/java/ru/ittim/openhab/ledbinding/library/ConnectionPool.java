@@ -0,0 +1,680 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Managed connections to controllers. Connection is opened on first command, closed when it is not used
+ * for a long time, kept warm by state requests and reopened with exponential backoff after failure.
+ * All controllers with the same address share one connection, because modules accept only few connections.
+ * <p>
+ * Maintenance runs on shared scheduler and only decides what to do: keep-alive probes of blocking connections
+ * are run by own executor of pool, so slow device doesn't delay other scheduled tasks.
+ */
+public final class ConnectionPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * Loop for non-blocking connections. If null - blocking sockets are used.
+     */
+    private final NioEventLoop eventLoop;
+    private final Deadlines deadlines;
+    private final int maxIdle;
+    private final long minIdleTime;
+    private final long idleTimeout;
+    private final long keepAliveInterval;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final ControllerMetrics metrics;
+    private final boolean tcpNoDelay;
+    private final int failureThreshold;
+    private final long minOpenInterval;
+    private final long maxOpenInterval;
+
+    private final ConcurrentMap<String, PooledTransport> transports = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> maintenance;
+    /**
+     * Executor of keep-alive probes of blocking connections, null for non-blocking connections.
+     */
+    private final ExecutorService probeExecutor;
+    private volatile boolean closed;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ConnectionPool(ConnectionPoolBuilder builder) {
+        this.eventLoop = builder.eventLoop;
+        this.deadlines = Deadlines.of(builder.connectTimeout, builder.writeTimeout, builder.responseTimeout);
+        this.maxIdle = builder.maxIdle;
+        this.minIdleTime = TimeUnit.MILLISECONDS.toNanos(builder.minIdleTime);
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(builder.idleTimeout);
+        this.keepAliveInterval = TimeUnit.MILLISECONDS.toNanos(builder.keepAliveInterval);
+        this.minBackoff = TimeUnit.MILLISECONDS.toNanos(builder.minBackoff);
+        this.maxBackoff = TimeUnit.MILLISECONDS.toNanos(builder.maxBackoff);
+        this.metrics = builder.metrics;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.failureThreshold = builder.failureThreshold;
+        this.minOpenInterval = builder.minOpenInterval;
+        this.maxOpenInterval = builder.maxOpenInterval;
+        this.probeExecutor = eventLoop == null && keepAliveInterval > 0
+                ? ControllerExecutors.newBlockingIoExecutor("led-pool-probe") : null;
+        this.maintenance = Utils.SCHEDULER.scheduleWithFixedDelay(this::maintain,
+                builder.maintenanceInterval, builder.maintenanceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Transport to controller, connection is opened on first command. Commands to offline controller fail at once
+     * while its circuit breaker is open.
+     *
+     * @param host controller address.
+     * @param port controller port.
+     * @return shared transport for given address.
+     */
+    public ControllerTransport transport(String host, int port) {
+        return transports.computeIfAbsent(host + ":" + port, it -> new PooledTransport(host, port)).guarded;
+    }
+
+    /**
+     * @return true, if pooled connections are blocking sockets.
+     */
+    boolean isBlocking() {
+        return eventLoop == null;
+    }
+
+    /**
+     * @return deadlines of pooled connections.
+     */
+    Deadlines getDeadlines() {
+        return deadlines;
+    }
+
+    /**
+     * @return metrics of pooled controllers and their connections.
+     */
+    ControllerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Create controller, which uses connection from this pool.
+     *
+     * @param host  controller address.
+     * @param mac   controller mac.
+     * @param model controller model.
+     * @return controller without opened connection.
+     */
+    public LedController controller(String host, String mac, String model) {
+        return controller(host, LedController.DEFAULT_CONTROLLER_PORT, mac, model);
+    }
+
+    /**
+     * Create controller with non-standard port, which uses connection from this pool.
+     *
+     * @return controller without opened connection.
+     */
+    public LedController controller(String host, int port, String mac, String model) {
+        ControllerTransport transport = transport(host, port);
+        String device = host + ":" + port;
+        if (metrics != ControllerMetrics.NOOP) {
+            transport = new MetricsTransport(transport, metrics, device);
+        }
+        return new LedController(host, mac, model, transport, new CommandQueue(transport, 0, null, metrics, device),
+                deadlines);
+    }
+
+    /**
+     * Close idle connections, probe warm connections and limit number of idle connections. Connection is idle,
+     * when it isn't used at least minimal idle time and has no commands in flight, so busy connections of large
+     * fleet aren't closed.
+     */
+    private void maintain() {
+        try {
+            long now = System.nanoTime();
+            List<PooledTransport> idle = new ArrayList<>();
+            for (PooledTransport transport : transports.values()) {
+                if (!transport.isOpen()) {
+                    continue;
+                }
+                long unused = now - transport.lastUsed;
+                if (unused > idleTimeout) {
+                    transport.evict();
+                } else {
+                    if (unused >= minIdleTime && transport.inFlight.get() == 0) {
+                        idle.add(transport);
+                    }
+                    if (keepAliveInterval > 0 && now - transport.lastActivity > keepAliveInterval) {
+                        transport.probe();
+                    }
+                }
+            }
+            if (idle.size() > maxIdle) {
+                idle.sort(Comparator.comparingLong(it -> it.lastUsed));
+                for (PooledTransport transport : idle.subList(0, idle.size() - maxIdle)) {
+                    transport.evict();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Connection pool maintenance is failed", e);
+        }
+    }
+
+    /**
+     * @return number of opened connections.
+     */
+    public int getOpenConnections() {
+        return (int) transports.values().stream().filter(PooledTransport::isOpen).count();
+    }
+
+    /**
+     * @return number of known addresses.
+     */
+    public int getSize() {
+        return transports.size();
+    }
+
+    /**
+     * @return number of opened connections since start.
+     */
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * @return number of failed connections and commands, which closed connection.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of commands rejected without connect, because address is in backoff after failure.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of addresses, which are considered offline by circuit breaker.
+     */
+    public int getOfflineDevices() {
+        return (int) transports.values().stream().filter(PooledTransport::isCircuitOpen).count();
+    }
+
+    /**
+     * @return number of keep-alive state requests.
+     */
+    public long getProbes() {
+        return probes.get();
+    }
+
+    /**
+     * @return number of connections closed because of idle.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "size=" + getSize() +
+                ", open=" + getOpenConnections() +
+                ", connects=" + connects +
+                ", failures=" + failures +
+                ", rejected=" + rejected +
+                ", probes=" + probes +
+                ", evictions=" + evictions +
+                ", offline=" + getOfflineDevices() +
+                '}';
+    }
+
+    /**
+     * Close all connections and stop maintenance.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+        if (probeExecutor != null) {
+            probeExecutor.shutdown();
+        }
+        transports.values().forEach(PooledTransport::close);
+        transports.clear();
+    }
+
+    /**
+     * Transport with lazy connection to one address.
+     */
+    private final class PooledTransport implements ControllerTransport {
+        private final String host;
+        private final int port;
+        /**
+         * This transport behind circuit breaker of address, or this transport, when breakers are disabled.
+         */
+        private final ControllerTransport guarded;
+        /**
+         * Current connection, guarded by this.
+         */
+        private ControllerTransport connection;
+        /**
+         * Connect in progress, guarded by this. Connect itself runs without lock, other callers wait for it.
+         */
+        private CompletableFuture<ControllerTransport> connecting;
+        /**
+         * Keep-alive probe is running, next probe isn't started until it's over.
+         */
+        private final AtomicBoolean probing = new AtomicBoolean();
+        /**
+         * Number of commands and probes, which aren't completed yet.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private int attempts;
+        private long nextAttempt;
+        /**
+         * Connection was opened at least once, so next connect is reconnect.
+         */
+        private boolean opened;
+        /**
+         * {@link System#nanoTime()} of last command of user.
+         */
+        private volatile long lastUsed = System.nanoTime();
+        /**
+         * {@link System#nanoTime()} of last command or probe.
+         */
+        private volatile long lastActivity = System.nanoTime();
+
+        private PooledTransport(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.guarded = failureThreshold > 0
+                    ? new CircuitBreakerTransport(this,
+                    new CircuitBreaker(failureThreshold, minOpenInterval, maxOpenInterval), host + ":" + port)
+                    : this;
+        }
+
+        private boolean isCircuitOpen() {
+            return guarded instanceof CircuitBreakerTransport
+                    && ((CircuitBreakerTransport) guarded).getBreaker().getState() != CircuitBreaker.State.CLOSED;
+        }
+
+        @Override
+        public CompletableFuture<Void> send(byte[] frame) {
+            lastUsed = System.nanoTime();
+            return execute(connection -> connection.send(frame));
+        }
+
+        @Override
+        public CompletableFuture<Void> send(ByteBuffer[] frames) {
+            lastUsed = System.nanoTime();
+            return execute(connection -> connection.send(frames));
+        }
+
+        @Override
+        public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+            lastUsed = System.nanoTime();
+            return execute(connection -> connection.request(frame, responseLength));
+        }
+
+        @Override
+        public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+            lastUsed = System.nanoTime();
+            return execute(connection -> connection.request(frame, responseLength, decoder));
+        }
+
+        private void probe() {
+            if (!probing.compareAndSet(false, true)) {
+                return;
+            }
+            probes.incrementAndGet();
+            Runnable probe = () -> execute(connection -> connection.request(LedController.REQUEST_STATE_MSG,
+                    ControllerState.RESPONSE_LENGTH)).whenComplete((ignored, e) -> probing.set(false));
+            if (probeExecutor == null) {
+                probe.run();
+                return;
+            }
+            try {
+                probeExecutor.execute(probe);
+            } catch (RuntimeException e) {
+                // pool is closed
+                probing.set(false);
+            }
+        }
+
+        private <T> CompletableFuture<T> execute(Function<ControllerTransport, CompletableFuture<T>> command) {
+            lastActivity = System.nanoTime();
+            ControllerTransport current;
+            CompletableFuture<T> future;
+            inFlight.incrementAndGet();
+            try {
+                current = connection();
+                future = command.apply(current);
+            } catch (IOException | RuntimeException e) {
+                inFlight.decrementAndGet();
+                CompletableFuture<T> result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+                return result;
+            }
+            // callers see result after failed connection is closed
+            return future.whenComplete((value, e) -> {
+                inFlight.decrementAndGet();
+                if (e != null) {
+                    failed(current);
+                } else {
+                    succeeded();
+                }
+            });
+        }
+
+        private ControllerTransport connection() throws IOException {
+            CompletableFuture<ControllerTransport> pending;
+            boolean owner = false;
+            synchronized (this) {
+                if (connection != null) {
+                    return connection;
+                }
+                if (connecting == null) {
+                    long now = System.nanoTime();
+                    if (attempts > 0 && now - nextAttempt < 0) {
+                        rejected.incrementAndGet();
+                        throw new ConnectException("Connection to " + host + ":" + port
+                                + " is failed, next attempt in "
+                                + TimeUnit.NANOSECONDS.toMillis(nextAttempt - now) + " ms");
+                    }
+                    connecting = new CompletableFuture<>();
+                    owner = true;
+                }
+                pending = connecting;
+            }
+            if (owner) {
+                return connect(pending);
+            }
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting connection to " + host + ":" + port);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Open connection without lock, blocking connect takes up to connect deadline.
+         *
+         * @param pending connect, which other callers wait for.
+         */
+        private ControllerTransport connect(CompletableFuture<ControllerTransport> pending) throws IOException {
+            ControllerTransport opened;
+            try {
+                if (closed) {
+                    throw new ConnectException("Connection pool is closed");
+                }
+                opened = eventLoop != null
+                        ? eventLoop.connect(host, port, deadlines, tcpNoDelay)
+                        : new SocketTransport(host, port, deadlines, tcpNoDelay);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    connecting = null;
+                    backoff();
+                }
+                pending.completeExceptionally(e);
+                throw e;
+            }
+            synchronized (this) {
+                connecting = null;
+                connection = opened;
+                connects.incrementAndGet();
+                if (this.opened) {
+                    metrics.reconnect(host + ":" + port);
+                }
+                this.opened = true;
+            }
+            logger.debug("Connected to {}:{}", host, port);
+            pending.complete(opened);
+            if (closed) {
+                // pool was closed while connecting
+                close();
+            }
+            return opened;
+        }
+
+        private synchronized void succeeded() {
+            attempts = 0;
+        }
+
+        private synchronized void failed(ControllerTransport failed) {
+            if (connection == failed) {
+                closeQuietly(connection);
+                connection = null;
+                backoff();
+            }
+        }
+
+        /**
+         * Schedule next connect attempt: min backoff, doubled on every failure up to max backoff.
+         */
+        private void backoff() {
+            failures.incrementAndGet();
+            long delay = Math.min(maxBackoff, minBackoff << Math.min(attempts, 20));
+            attempts++;
+            nextAttempt = System.nanoTime() + delay;
+            logger.debug("Connection to {}:{} is failed, next attempt in {} ms", host, port,
+                    TimeUnit.NANOSECONDS.toMillis(delay));
+        }
+
+        private synchronized boolean isOpen() {
+            return connection != null;
+        }
+
+        private synchronized void evict() {
+            if (connection != null) {
+                evictions.incrementAndGet();
+                logger.debug("Close idle connection to {}:{}", host, port);
+                closeQuietly(connection);
+                connection = null;
+            }
+        }
+
+        /**
+         * Close current connection, next command opens new one.
+         */
+        @Override
+        public synchronized void close() {
+            if (connection != null) {
+                closeQuietly(connection);
+                connection = null;
+            }
+        }
+
+        private void closeQuietly(ControllerTransport transport) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close connection", e);
+            }
+        }
+    }
+
+    public static final class ConnectionPoolBuilder {
+        private NioEventLoop eventLoop;
+        /**
+         * Timeout for controller answer in milliseconds.
+         */
+        private int responseTimeout = LedController.TIMEOUT;
+        /**
+         * Timeout for opening connection in milliseconds.
+         */
+        private int connectTimeout = LedController.TIMEOUT;
+        /**
+         * Timeout for flush of command in milliseconds, non-blocking connections only.
+         */
+        private int writeTimeout = LedController.TIMEOUT;
+        /**
+         * Maximum number of idle connections, least recently used ones are closed. Busy connections aren't limited.
+         */
+        private int maxIdle = 256;
+        /**
+         * Connection without commands in flight is idle, if it isn't used at least this time in milliseconds.
+         */
+        private long minIdleTime = TimeUnit.SECONDS.toMillis(10);
+        /**
+         * Connection is closed, if it isn't used longer than this timeout in milliseconds.
+         */
+        private long idleTimeout = TimeUnit.MINUTES.toMillis(5);
+        /**
+         * Opened connection is probed with state request, if there were no commands longer than this interval
+         * in milliseconds. 0 - don't probe.
+         */
+        private long keepAliveInterval = TimeUnit.SECONDS.toMillis(30);
+        /**
+         * Delay before first reconnect in milliseconds, doubled after every failure.
+         */
+        private long minBackoff = 100;
+        /**
+         * Maximum delay between reconnects in milliseconds.
+         */
+        private long maxBackoff = TimeUnit.SECONDS.toMillis(30);
+        /**
+         * Interval of idle and keep-alive checks in milliseconds.
+         */
+        private long maintenanceInterval = 1_000;
+        /**
+         * Receiver of measurements of pooled controllers.
+         */
+        private ControllerMetrics metrics = ControllerMetrics.NOOP;
+        /**
+         * Disable Nagle's algorithm, so small commands aren't delayed by TCP stack.
+         */
+        private boolean tcpNoDelay;
+        /**
+         * Number of failed commands in a row, after which controller is offline, 0 - without circuit breaker.
+         */
+        private int failureThreshold = 3;
+        /**
+         * First interval in milliseconds, while commands to offline controller fail at once.
+         * Doubled after every failed probe.
+         */
+        private long minOpenInterval = 1_000;
+        /**
+         * Maximum interval in milliseconds between probes of offline controller.
+         */
+        private long maxOpenInterval = TimeUnit.MINUTES.toMillis(1);
+
+        public ConnectionPoolBuilder() {
+        }
+
+        public static ConnectionPoolBuilder aConnectionPool() {
+            return new ConnectionPoolBuilder();
+        }
+
+        public ConnectionPoolBuilder eventLoop(NioEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public ConnectionPoolBuilder responseTimeout(int responseTimeout) {
+            this.responseTimeout = responseTimeout;
+            return this;
+        }
+
+        public ConnectionPoolBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public ConnectionPoolBuilder writeTimeout(int writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        public ConnectionPoolBuilder maxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+            return this;
+        }
+
+        /**
+         * @param maxIdle     maximum number of idle connections.
+         * @param minIdleTime time in milliseconds without commands, after which connection is idle.
+         */
+        public ConnectionPoolBuilder maxIdle(int maxIdle, long minIdleTime) {
+            this.maxIdle = maxIdle;
+            this.minIdleTime = minIdleTime;
+            return this;
+        }
+
+        public ConnectionPoolBuilder idleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public ConnectionPoolBuilder keepAliveInterval(long keepAliveInterval) {
+            this.keepAliveInterval = keepAliveInterval;
+            return this;
+        }
+
+        public ConnectionPoolBuilder backoff(long minBackoff, long maxBackoff) {
+            this.minBackoff = minBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public ConnectionPoolBuilder maintenanceInterval(long maintenanceInterval) {
+            this.maintenanceInterval = maintenanceInterval;
+            return this;
+        }
+
+        public ConnectionPoolBuilder metrics(ControllerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ConnectionPoolBuilder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public ConnectionPoolBuilder circuitBreaker(int failureThreshold, long minOpenInterval, long maxOpenInterval) {
+            this.failureThreshold = failureThreshold;
+            this.minOpenInterval = minOpenInterval;
+            this.maxOpenInterval = maxOpenInterval;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            if (maxIdle < 0 || minIdleTime < 0) {
+                throw new IllegalStateException("Maximum number of idle connections and idle time can't be negative");
+            }
+            if (minBackoff <= 0 || maxBackoff < minBackoff) {
+                throw new IllegalStateException("Wrong backoff interval");
+            }
+            if (failureThreshold < 0 || failureThreshold > 0
+                    && (minOpenInterval <= 0 || maxOpenInterval < minOpenInterval)) {
+                throw new IllegalStateException("Wrong circuit breaker configuration");
+            }
+            return new ConnectionPool(this);
+        }
+    }
+}
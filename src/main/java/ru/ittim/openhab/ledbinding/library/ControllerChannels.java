@@ -1,36 +1,47 @@
 package ru.ittim.openhab.ledbinding.library;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Immutable channels state (r, g, b, cw, ww).
+ * Channels are packed in one long (r in the highest used byte, cw in the lowest), so state of many controllers
+ * can be kept in primitive array (see {@link FleetChannels}) and changed without precision loss.
  * Created by Timofey on 24.06.2016.
  */
 public class ControllerChannels {
     /**
-     * red value from 0 to 255.
+     * Length of command for set all channels: rgb command and ww-cw command, 9 bytes each.
      */
-    private final byte r;
+    public static final int COMMAND_LENGTH = 18;
 
     /**
-     * green value from 0 to 255.
+     * Channel indexes for {@link #channel(long, int)} and {@link #withChannel(long, int, int)}.
      */
-    private final byte g;
+    public static final int R = 0;
+    public static final int G = 1;
+    public static final int B = 2;
+    public static final int WW = 3;
+    public static final int CW = 4;
 
     /**
-     * blue value from 0 to 255.
+     * Percent conversions, computed once with the same rounding as before.
      */
-    private final byte b;
+    private static final int[] PERCENT_TO_VALUE = new int[101];
+    private static final int[] VALUE_TO_PERCENT = new int[256];
+
+    static {
+        for (int p = 0; p <= 100; p++) {
+            PERCENT_TO_VALUE[p] = (int) (p / 100.0 * 255);
+        }
+        for (int v = 0; v < 256; v++) {
+            VALUE_TO_PERCENT[v] = (int) (v / 255.0 * 100);
+        }
+    }
 
     /**
-     * warn white value from 0 to 255.
-     */
-    private final byte ww;
-    /**
-     * cold value value from 0 to 255.
+     * Values from 0 to 255 of r, g, b, ww, cw channels, 8 bits each.
      */
-    private final byte cw;
+    private final long packed;
 
     /**
      * Costructor for create full state.
@@ -41,11 +52,75 @@ public class ControllerChannels {
      * @param cw value of cold white channel power.
      */
     ControllerChannels(byte r, byte g, byte b, byte ww, byte cw) {
-        this.r = r;
-        this.g = g;
-        this.b = b;
-        this.ww = ww;
-        this.cw = cw;
+        this(pack(r & 0xFF, g & 0xFF, b & 0xFF, ww & 0xFF, cw & 0xFF));
+    }
+
+    private ControllerChannels(long packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Factory method for build channels from values without conversion.
+     * @param r red value from 0 to 255.
+     * @param g green value from 0 to 255.
+     * @param b blue value from 0 to 255.
+     * @param ww warn white value from 0 to 255.
+     * @param cw cold white value from 0 to 255.
+     * @return channels.
+     */
+    public static ControllerChannels of(int r, int g, int b, int ww, int cw) {
+        return new ControllerChannels(pack(checkValue(r), checkValue(g), checkValue(b), checkValue(ww), checkValue(cw)));
+    }
+
+    /**
+     * @param packed channels packed by {@link #pack(int, int, int, int, int)}.
+     * @return channels.
+     */
+    public static ControllerChannels fromPacked(long packed) {
+        return new ControllerChannels(packed & 0xFF_FF_FF_FF_FFL);
+    }
+
+    /**
+     * Pack channel values into long.
+     * @return packed channels, r in bits 32-39, cw in bits 0-7.
+     */
+    public static long pack(int r, int g, int b, int ww, int cw) {
+        return ((long) (r & 0xFF) << 32) | ((long) (g & 0xFF) << 24) | ((b & 0xFF) << 16) | ((ww & 0xFF) << 8)
+                | (cw & 0xFF);
+    }
+
+    /**
+     * @param packed packed channels.
+     * @param index  channel index: {@link #R}, {@link #G}, {@link #B}, {@link #WW} or {@link #CW}.
+     * @return channel value from 0 to 255.
+     */
+    public static int channel(long packed, int index) {
+        return (int) (packed >>> shift(index)) & 0xFF;
+    }
+
+    /**
+     * @param packed packed channels.
+     * @param index  channel index: {@link #R}, {@link #G}, {@link #B}, {@link #WW} or {@link #CW}.
+     * @param value  new channel value from 0 to 255.
+     * @return packed channels with new value of given channel.
+     */
+    public static long withChannel(long packed, int index, int value) {
+        int shift = shift(index);
+        return (packed & ~(0xFFL << shift)) | ((long) checkValue(value) << shift);
+    }
+
+    private static int shift(int index) {
+        if (index < R || index > CW) {
+            throw new IllegalArgumentException("Wrong channel index " + index);
+        }
+        return (CW - index) * 8;
+    }
+
+    static int checkValue(int value) {
+        if (value < 0 || value > 255) {
+            throw new IllegalArgumentException("Channel value must be in interval [0, 255]");
+        }
+        return value;
     }
 
     /**
@@ -72,14 +147,23 @@ public class ControllerChannels {
      * @param p percent value.
      * @return byte value: 0x00 from 0x00, 0xFF from 100%.
      */
-    private static byte fromPercent(int p) {
+    static byte fromPercent(int p) {
+        return (byte) toValue(p);
+    }
+
+    /**
+     * Convert percent value to channel value.
+     * @param p percent value.
+     * @return value from 0 to 255.
+     */
+    static int toValue(int p) {
         if (p < 0){
             throw new RuntimeException("Percent can't be lower than 0");
         }
         if (p > 100) {
             throw new RuntimeException("Percent can't be greater than 100");
         }
-        return (byte) (p / 100.0 * 255);
+        return PERCENT_TO_VALUE[p];
     }
 
     /**
@@ -87,53 +171,133 @@ public class ControllerChannels {
      * @param v byte values
      * @return percent: 0% from 0x00, 100% from 0xFF.
      */
-    private int toPercent(byte v){
-        return (int) ((v & 0XFF) / 255.0 * 100);
+    private static int toPercent(int v){
+        return VALUE_TO_PERCENT[v];
     }
 
     /**
      * @return red power in percents.
      */
     public int getR() {
-        return toPercent(r);
+        return toPercent(channel(packed, R));
     }
 
     /**
      * @return green power in percents.
      */
     public int getG() {
-        return toPercent(g);
+        return toPercent(channel(packed, G));
     }
 
     /**
      * @return blue power in percents.
      */
     public int getB() {
-        return toPercent(b);
+        return toPercent(channel(packed, B));
     }
 
     /**
      * @return warn white power in percents.
      */
     public int getWw() {
-        return toPercent(ww);
+        return toPercent(channel(packed, WW));
     }
 
     /**
      * @return cold white power in percents.
      */
     public int getCw() {
-        return toPercent(cw);
+        return toPercent(channel(packed, CW));
+    }
+
+    /**
+     * @return red value from 0 to 255.
+     */
+    public int getRawR() {
+        return channel(packed, R);
+    }
+
+    /**
+     * @return green value from 0 to 255.
+     */
+    public int getRawG() {
+        return channel(packed, G);
+    }
+
+    /**
+     * @return blue value from 0 to 255.
+     */
+    public int getRawB() {
+        return channel(packed, B);
+    }
+
+    /**
+     * @return warn white value from 0 to 255.
+     */
+    public int getRawWw() {
+        return channel(packed, WW);
+    }
+
+    /**
+     * @return cold white value from 0 to 255.
+     */
+    public int getRawCw() {
+        return channel(packed, CW);
+    }
+
+    /**
+     * @return channels packed by {@link #pack(int, int, int, int, int)}.
+     */
+    public long getPacked() {
+        return packed;
+    }
+
+    ControllerChannels withRgb(int r, int g, int b) {
+        return new ControllerChannels(withChannel(withChannel(withChannel(packed, R, r), G, g), B, b));
+    }
+
+    ControllerChannels withWw(int ww) {
+        return new ControllerChannels(withChannel(packed, WW, ww));
+    }
+
+    ControllerChannels withCw(int cw) {
+        return new ControllerChannels(withChannel(packed, CW, cw));
+    }
+
+    /**
+     * Copy channel values from 0 to 255 to array in order r, g, b, ww, cw.
+     *
+     * @param channels array with at least 5 elements.
+     */
+    void copyTo(int[] channels) {
+        for (int i = R; i <= CW; i++) {
+            channels[i] = channel(packed, i);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ControllerChannels that = (ControllerChannels) o;
+
+        return packed == that.packed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(packed);
     }
 
     @Override
     public String toString() {
         return "ControllerChannels{" +
-                "r=" + String.format("%02X ", r) +
-                ", g=" + String.format("%02X ", g) +
-                ", b=" + String.format("%02X ", b) +
-                ", ww=" + String.format("%02X ", ww) +
-                ", cw=" + String.format("%02X ", cw) +
+                "r=" + String.format("%02X ", getRawR()) +
+                ", g=" + String.format("%02X ", getRawG()) +
+                ", b=" + String.format("%02X ", getRawB()) +
+                ", ww=" + String.format("%02X ", getRawWw()) +
+                ", cw=" + String.format("%02X ", getRawCw()) +
                 "}";
     }
 
@@ -141,57 +305,88 @@ public class ControllerChannels {
      * Generate commands for rgb channels and ww-cw channels and aggregate its in one command.
      *
      * @return command for set rgb-ww-cw channels.
+     */
+    byte[] getChannelCommand() {
+        ByteBuffer buffer = ByteBuffer.allocate(COMMAND_LENGTH);
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Write command for set rgb-ww-cw channels ({@link #COMMAND_LENGTH} bytes) to buffer.
      *
-     * @throws IOException when error in interaction with {@link ByteArrayOutputStream}.
+     * @param buffer buffer with enough remaining space.
      */
-    byte[] getChannelCommand() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(rgbCommand(r, g, b));
-        baos.write(wwcwCommand(ww, cw));
-        return baos.toByteArray();
+    public void encode(ByteBuffer buffer) {
+        encode(buffer, packed);
+    }
+
+    /**
+     * Write command for set rgb-ww-cw channels ({@link #COMMAND_LENGTH} bytes) to buffer from packed channels.
+     *
+     * @param buffer buffer with enough remaining space.
+     * @param packed channels packed by {@link #pack(int, int, int, int, int)}.
+     */
+    public static void encode(ByteBuffer buffer, long packed) {
+        encode(buffer, (byte) channel(packed, R), (byte) channel(packed, G), (byte) channel(packed, B),
+                (byte) channel(packed, WW), (byte) channel(packed, CW));
+    }
+
+    /**
+     * Write command for set rgb-ww-cw channels ({@link #COMMAND_LENGTH} bytes) to buffer without creating
+     * channels object. Useful for effects, which compute many frames per second.
+     *
+     * @param buffer buffer with enough remaining space.
+     * @param r      red value from 0 to 255.
+     * @param g      green value from 0 to 255.
+     * @param b      blue value from 0 to 255.
+     * @param ww     warn white value from 0 to 255.
+     * @param cw     cold white value from 0 to 255.
+     */
+    public static void encode(ByteBuffer buffer, byte r, byte g, byte b, byte ww, byte cw) {
+        rgbCommand(buffer, r, g, b);
+        wwcwCommand(buffer, ww, cw);
     }
 
     /**
      * Prepare command to set rgb channels.
      *
+     * @param buffer - buffer for command.
      * @param r - red color (1 channel).
      * @param g - green color (2 channel).
      * @param b - blue color (3 channel).
-     *
-     * @return rgb command.
      */
-    private static byte[] rgbCommand(byte r, byte g, byte b) {
-        byte[] command = new byte[8];
-        command[0] = (byte) 0x31;
-        command[1] = r;
-        command[2] = g;
-        command[3] = b;
-        command[4] = 0;
-        command[5] = 0;
-        command[6] = (byte) 0xf0;
-        command[7] = (byte) 0x0f;
-        return Utils.withCheckSum(command);
+    private static void rgbCommand(ByteBuffer buffer, byte r, byte g, byte b) {
+        int start = buffer.position();
+        buffer.put((byte) 0x31)
+                .put(r)
+                .put(g)
+                .put(b)
+                .put((byte) 0)
+                .put((byte) 0)
+                .put((byte) 0xf0)
+                .put((byte) 0x0f);
+        Utils.putCheckSum(buffer, start);
     }
 
     /**
      * Prepare command to set rgb channels.
      *
+     * @param buffer - buffer for command.
      * @param ww - warn white (4 channel).
      * @param cw - cold  white (5 channel).
-     *
-     * @return ww-cw command.
-     */
-    private static byte[] wwcwCommand(byte ww, byte cw) {
-        byte[] command = new byte[8];
-        command[0] = (byte) 0x31;
-        command[1] = 0;
-        command[2] = 0;
-        command[3] = 0;
-        command[4] = ww;
-        command[5] = cw;
-        command[6] = (byte) 0x0f;
-        command[7] = (byte) 0x0f;
-        return Utils.withCheckSum(command);
+     */
+    private static void wwcwCommand(ByteBuffer buffer, byte ww, byte cw) {
+        int start = buffer.position();
+        buffer.put((byte) 0x31)
+                .put((byte) 0)
+                .put((byte) 0)
+                .put((byte) 0)
+                .put(ww)
+                .put(cw)
+                .put((byte) 0x0f)
+                .put((byte) 0x0f);
+        Utils.putCheckSum(buffer, start);
     }
 
 }
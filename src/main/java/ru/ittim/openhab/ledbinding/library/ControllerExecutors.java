@@ -0,0 +1,91 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking controller I/O. Library is compiled for Java 8, so virtual threads are used
+ * through reflection, when library runs on JDK with virtual threads (21+).
+ *
+ * @see LedController.LedControllerBuilder#executor(java.util.concurrent.Executor)
+ */
+public final class ControllerExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(ControllerExecutors.class);
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} or null, if JDK has no virtual threads.
+     */
+    private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    private ControllerExecutors() {
+    }
+
+    /**
+     * @return true, if JDK supports virtual threads.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Executor, which starts new virtual thread for every task.
+     *
+     * @return virtual thread executor.
+     * @throws UnsupportedOperationException when JDK has no virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (VIRTUAL_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer, current is "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Executor of daemon platform threads, which are created on demand and reused.
+     *
+     * @param name prefix of thread names.
+     * @return platform thread executor.
+     */
+    public static ExecutorService newPlatformThreadExecutor(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Virtual thread executor, if it's supported, otherwise platform thread executor.
+     *
+     * @param name prefix of platform thread names.
+     * @return executor for blocking I/O.
+     */
+    public static ExecutorService newBlockingIoExecutor(String name) {
+        return isVirtualThreadsSupported() ? newVirtualThreadPerTaskExecutor() : newPlatformThreadExecutor(name);
+    }
+
+    /**
+     * Factory is called once: on JDK 19 and 20 the method exists, but fails without {@code --enable-preview}.
+     */
+    private static Method virtualExecutorFactory() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ((ExecutorService) factory.invoke(null)).shutdown();
+            return factory;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            logger.debug("Virtual threads aren't supported by JDK {}", System.getProperty("java.version"), e);
+            return null;
+        }
+    }
+}
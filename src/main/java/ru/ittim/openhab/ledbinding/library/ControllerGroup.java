@@ -0,0 +1,209 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Group of controllers, which are changed together (for example, all lights of room).
+ * Command is encoded once and sent to members in parallel: not more than {@code maxConcurrency} members
+ * are waited at the same time, and every member has own deadline, so one dead controller doesn't delay others.
+ */
+public final class ControllerGroup {
+    private final List<LedController> members;
+    private final int maxConcurrency;
+    /**
+     * Deadline for one member in milliseconds.
+     */
+    private final int deadline;
+    /**
+     * Executor for start commands. Direct executor is enough for non-blocking transports.
+     */
+    private final Executor executor;
+
+    private ControllerGroup(List<LedController> members, int maxConcurrency, int deadline, Executor executor) {
+        this.members = Collections.unmodifiableList(members);
+        this.maxConcurrency = maxConcurrency;
+        this.deadline = deadline;
+        this.executor = executor;
+    }
+
+    public List<LedController> getMembers() {
+        return members;
+    }
+
+    public CompletableFuture<GroupReport> setChannels(ControllerChannels channels) {
+        byte[] command = channels.getChannelCommand();
+        return broadcast(it -> it.setChannels(channels, command));
+    }
+
+    public CompletableFuture<GroupReport> setPowerState(PowerState power) {
+        byte[] command = power.getCommand();
+        return broadcast(it -> it.setPowerState(power, command));
+    }
+
+    public CompletableFuture<GroupReport> turnOn() {
+        return setPowerState(PowerState.ON);
+    }
+
+    public CompletableFuture<GroupReport> turnOff() {
+        return setPowerState(PowerState.OFF);
+    }
+
+    /**
+     * Set mode with current speed of every member, as {@link AsyncLedController#setMode(FunctionalModeRgb)}.
+     * Members with different speeds get own commands, use {@link #setMode(FunctionalModeRgb, int)} for one speed.
+     */
+    public CompletableFuture<GroupReport> setMode(FunctionalModeRgb mode) {
+        return broadcast(it -> it.setMode(mode));
+    }
+
+    /**
+     * @param speed speed 31 (min speed) - 1(max speed)
+     */
+    public CompletableFuture<GroupReport> setMode(FunctionalModeRgb mode, int speed) {
+        byte[] command = mode.getCommand(speed);
+        return broadcast(it -> it.setMode(mode, speed, command));
+    }
+
+    /**
+     * Upload the same custom program to all members, so they run it on device.
+     */
+    public CompletableFuture<GroupReport> setCustomProgram(CustomProgram program) {
+        byte[] command = program.getCommand();
+        return broadcast(it -> it.setCustomProgram(program, command));
+    }
+
+    /**
+     * Request state of all members.
+     *
+     * @return report with received states.
+     */
+    public CompletableFuture<GroupReport> init() {
+        return broadcast(AsyncLedController::init);
+    }
+
+    private CompletableFuture<GroupReport> broadcast(Function<AsyncLedController, CompletableFuture<ControllerState>> command) {
+        Broadcast broadcast = new Broadcast(command);
+        if (members.isEmpty()) {
+            broadcast.report.complete(new GroupReport(Collections.emptyList()));
+        }
+        for (int i = 0; i < Math.min(maxConcurrency, members.size()); i++) {
+            executor.execute(broadcast::drain);
+        }
+        return broadcast.report;
+    }
+
+    /**
+     * State of one command for all members.
+     */
+    private final class Broadcast {
+        private final Function<AsyncLedController, CompletableFuture<ControllerState>> command;
+        private final GroupReport.MemberResult[] results = new GroupReport.MemberResult[members.size()];
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining = new AtomicInteger(members.size());
+        private final CompletableFuture<GroupReport> report = new CompletableFuture<>();
+
+        private Broadcast(Function<AsyncLedController, CompletableFuture<ControllerState>> command) {
+            this.command = command;
+        }
+
+        /**
+         * Start commands for next members while they are completed synchronously,
+         * continue from callback when member is waited.
+         */
+        private void drain() {
+            int index;
+            while ((index = next.getAndIncrement()) < results.length) {
+                LedController controller = members.get(index);
+                long started = System.nanoTime();
+                CompletableFuture<ControllerState> future;
+                try {
+                    future = Utils.withTimeout(command.apply(controller.async()), deadline);
+                } catch (RuntimeException e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                int member = index;
+                if (!future.isDone()) {
+                    future.whenComplete((state, e) -> {
+                        complete(member, controller, state, e, started);
+                        executor.execute(this::drain);
+                    });
+                    return;
+                }
+                future.whenComplete((state, e) -> complete(member, controller, state, e, started));
+            }
+        }
+
+        private void complete(int index, LedController controller, ControllerState state, Throwable e, long started) {
+            Throwable error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            results[index] = new GroupReport.MemberResult(controller, state, error, started, System.nanoTime());
+            if (remaining.decrementAndGet() == 0) {
+                report.complete(new GroupReport(Arrays.asList(results)));
+            }
+        }
+    }
+
+    public static final class ControllerGroupBuilder {
+        private final List<LedController> members = new ArrayList<>();
+        /**
+         * Maximum number of members, which are waited at the same time.
+         */
+        private int maxConcurrency = 64;
+        /**
+         * Deadline for one member in milliseconds.
+         */
+        private int deadline = LedController.TIMEOUT;
+        private Executor executor = Runnable::run;
+
+        public ControllerGroupBuilder() {
+        }
+
+        public static ControllerGroupBuilder aControllerGroup() {
+            return new ControllerGroupBuilder();
+        }
+
+        public ControllerGroupBuilder add(LedController controller) {
+            this.members.add(controller);
+            return this;
+        }
+
+        public ControllerGroupBuilder addAll(Collection<LedController> controllers) {
+            this.members.addAll(controllers);
+            return this;
+        }
+
+        public ControllerGroupBuilder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public ControllerGroupBuilder deadline(int deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * @param executor executor for start commands, required for parallel work of blocking transports.
+         */
+        public ControllerGroupBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ControllerGroup build() {
+            if (maxConcurrency < 1) {
+                throw new IllegalStateException("Concurrency must be positive");
+            }
+            return new ControllerGroup(new ArrayList<>(members), maxConcurrency, deadline, executor);
+        }
+    }
+}
@@ -0,0 +1,725 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hub, which owns connections to controllers and shares them between many clients: openHAB, dashboards, scripts.
+ * Every controller is served on own local TCP port with the same protocol as real controller, so client is
+ * usual {@link LedController} with host and port of hub.
+ * <ul>
+ * <li>Commands of clients are sent through controller, so mode and channel commands of all clients are
+ * coalesced by its {@link CommandQueue}. Power commands are echoed after controller echoes them.</li>
+ * <li>State requests are coalesced: state, which is younger than {@code stateMaxAge}, is answered at once from
+ * known state, concurrent requests wait for one request to controller and its answer is sent to all of them.</li>
+ * <li>Changes of state made by clients or received from controller are fanned out to {@link StateListener}s.
+ * Hub is {@link StateListener} itself: add it to {@link StatePoller} to refresh known state by polls.</li>
+ * </ul>
+ * All clients are served by one selector thread. Calls of controller are made by executor (own blocking I/O
+ * executor by default), one by one for every controller in order of client frames, so controller with blocking
+ * transport (for example {@link ConnectionPool} without event loop) doesn't stop other clients. Direct executor
+ * can be passed to builder, if all controllers use {@link NioEventLoop}. Hub doesn't close controllers.
+ */
+public final class ControllerHub implements StateListener, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ControllerHub.class);
+    /**
+     * Answers waiting for slow client, then client is disconnected.
+     */
+    private static final int MAX_PENDING_ANSWERS = 64;
+
+    private final String host;
+    private final long stateMaxAge;
+    private final Selector selector;
+    private final Executor executor;
+    /**
+     * Executor created by hub, it is shut down on close. Null, when executor is passed to builder.
+     */
+    private final ExecutorService ownExecutor;
+    private final Thread thread;
+    private final List<HubDevice> devices = new ArrayList<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong deviceRequests = new AtomicLong();
+    private final AtomicLong sharedAnswers = new AtomicLong();
+
+    private ControllerHub(HubBuilder builder) throws IOException {
+        this.host = builder.host;
+        this.stateMaxAge = TimeUnit.MILLISECONDS.toNanos(builder.stateMaxAge);
+        this.selector = Selector.open();
+        this.ownExecutor = builder.executor == null ? ControllerExecutors.newBlockingIoExecutor("led-hub-io") : null;
+        this.executor = builder.executor != null ? builder.executor : ownExecutor;
+        try {
+            for (int i = 0; i < builder.controllers.size(); i++) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(host, builder.ports.get(i)), 50);
+                server.configureBlocking(false);
+                HubDevice device = new HubDevice(builder.controllers.get(i), server);
+                server.register(selector, SelectionKey.OP_ACCEPT, device);
+                devices.add(device);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+            throw e;
+        }
+        listeners.addAll(builder.listeners);
+        thread = new Thread(this::run, "led-hub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param device index of controller in order of adding.
+     * @return local TCP port of controller.
+     */
+    public int getPort(int device) {
+        return devices.get(device).server.socket().getLocalPort();
+    }
+
+    /**
+     * @return controllers in order of adding.
+     */
+    public List<LedController> getControllers() {
+        List<LedController> controllers = new ArrayList<>(devices.size());
+        for (HubDevice device : devices) {
+            controllers.add(device.controller);
+        }
+        return controllers;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return statistics of connected clients.
+     */
+    public List<ClientStats> getClients() {
+        List<ClientStats> stats = new ArrayList<>(clients.size());
+        for (Client client : clients) {
+            stats.add(client.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * @return number of accepted client connections.
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return number of state requests sent to controllers.
+     */
+    public long getDeviceRequests() {
+        return deviceRequests.get();
+    }
+
+    /**
+     * @return number of state requests of clients, which didn't cause own request to controller.
+     */
+    public long getSharedAnswers() {
+        return sharedAnswers.get();
+    }
+
+    public void addListener(StateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Known state of controller is refreshed by poll, so next state requests of clients are answered from it.
+     */
+    @Override
+    public void stateChanged(LedController controller, ControllerState previous, ControllerState current) {
+        execute(() -> {
+            for (HubDevice device : devices) {
+                if (device.controller == controller) {
+                    device.stateTime = System.nanoTime();
+                }
+            }
+        });
+        fireChanged(controller, previous, current);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        handle(key);
+                    } catch (IOException e) {
+                        logger.debug("Client connection is closed", e);
+                        if (key.attachment() instanceof Client) {
+                            ((Client) key.attachment()).close();
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                if (running) {
+                    logger.error("Unexpected error in hub", e);
+                }
+            }
+        }
+        closeChannels();
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            HubDevice device = (HubDevice) key.attachment();
+            SocketChannel channel = device.server.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                Client client = new Client(device, channel);
+                client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+                accepted.incrementAndGet();
+            }
+        } else {
+            Client client = (Client) key.attachment();
+            if (key.isWritable()) {
+                client.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                client.read();
+            }
+        }
+    }
+
+    /**
+     * Run task in hub thread.
+     */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void fireChanged(LedController controller, ControllerState previous, ControllerState current) {
+        if (previous.equals(current)) {
+            return;
+        }
+        for (StateListener listener : listeners) {
+            try {
+                listener.stateChanged(controller, previous, current);
+            } catch (RuntimeException e) {
+                logger.warn("State listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Send command of client through controller, called by executor.
+     *
+     * @param frame command with valid checksum.
+     */
+    private void command(Client client, byte[] frame) {
+        AsyncLedController controller = client.device.controller.async();
+        ControllerState previous = client.device.controller.getState();
+        CompletableFuture<ControllerState> result;
+        switch (frame[0]) {
+            case FrameDecoder.POWER_HEADER:
+                PowerState power = PowerState.get(frame[1]);
+                if (power == PowerState.UNKNOWN) {
+                    return;
+                }
+                result = controller.setPowerState(power);
+                result.thenRun(() -> execute(() -> client.answer(frame)));
+                break;
+            case 0x31:
+                if (frame[6] == (byte) 0xf0) {
+                    result = controller.setRGBValues(frame[1] & 0xFF, frame[2] & 0xFF, frame[3] & 0xFF);
+                } else {
+                    controller.setWwValue(frame[4] & 0xFF);
+                    result = controller.setCwValue(frame[5] & 0xFF);
+                }
+                break;
+            case 0x61:
+                FunctionalModeRgb mode = FunctionalModeRgb.get(frame[1]);
+                if (mode == FunctionalModeRgb.UNKNOWN) {
+                    return;
+                }
+                result = controller.setMode(mode, frame[2] & 0xFF);
+                break;
+            case CustomProgram.HEADER:
+                try {
+                    result = controller.setCustomProgram(CustomProgram.decode(ByteBuffer.wrap(frame), 0,
+                            frame.length));
+                } catch (ProtocolException e) {
+                    logger.warn("Custom program of client {} is rejected: {}", client, e.getMessage());
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        result.whenComplete((state, error) -> {
+            if (error != null) {
+                logger.debug("Command of client {} failed", client, error);
+            } else {
+                fireChanged(client.device.controller, previous, state);
+            }
+        });
+    }
+
+    private void closeChannels() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                logger.debug("Unable to close channel", e);
+            }
+        }
+        for (HubDevice device : devices) {
+            try {
+                device.server.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close channel", e);
+            }
+        }
+        clients.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close selector", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ControllerHub{" +
+                "host='" + host + '\'' +
+                ", devices=" + devices.size() +
+                ", clients=" + clients.size() +
+                ", deviceRequests=" + deviceRequests +
+                ", sharedAnswers=" + sharedAnswers +
+                '}';
+    }
+
+    /**
+     * Throughput of one client.
+     */
+    public static final class ClientStats {
+        private final String address;
+        private final LedController controller;
+        private final long frames;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long connectedMillis;
+
+        ClientStats(String address, LedController controller, long frames, long bytesIn, long bytesOut,
+                    long connectedMillis) {
+            this.address = address;
+            this.controller = controller;
+            this.frames = frames;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.connectedMillis = connectedMillis;
+        }
+
+        /**
+         * @return remote address of client.
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return controller, which client is connected to.
+         */
+        public LedController getController() {
+            return controller;
+        }
+
+        /**
+         * @return number of received commands and state requests.
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getConnectedMillis() {
+            return connectedMillis;
+        }
+
+        /**
+         * @return average number of received frames per second since connect.
+         */
+        public double getFramesPerSecond() {
+            return frames * 1000.0 / Math.max(1, connectedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return "ClientStats{" +
+                    "address='" + address + '\'' +
+                    ", controller=" + controller.getHost() +
+                    ", frames=" + frames +
+                    ", bytesIn=" + bytesIn +
+                    ", bytesOut=" + bytesOut +
+                    ", connectedMillis=" + connectedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * Controller with its local port. Fields are changed only by hub thread.
+     */
+    private final class HubDevice {
+        private final LedController controller;
+        private final ServerSocketChannel server;
+        /**
+         * Time of last state received from controller, 0 - state is unknown.
+         */
+        private long stateTime;
+        /**
+         * Clients waiting for state request in flight.
+         */
+        private final List<Client> waiting = new ArrayList<>();
+        /**
+         * Calls of controller in order of client frames, guarded by itself. Drained by one task of executor.
+         */
+        private final ArrayDeque<Runnable> calls = new ArrayDeque<>();
+        private boolean calling;
+
+        private HubDevice(LedController controller, ServerSocketChannel server) {
+            this.controller = controller;
+            this.server = server;
+        }
+
+        private void requestState(Client client) {
+            if (stateTime != 0 && System.nanoTime() - stateTime < stateMaxAge) {
+                sharedAnswers.incrementAndGet();
+                // known state is read after commands, which were received before request
+                call(() -> {
+                    ControllerState state = controller.getState();
+                    execute(() -> client.answer(state));
+                });
+                return;
+            }
+            waiting.add(client);
+            if (waiting.size() > 1) {
+                sharedAnswers.incrementAndGet();
+                return;
+            }
+            deviceRequests.incrementAndGet();
+            call(() -> {
+                ControllerState previous = controller.getState();
+                controller.async().init().whenComplete((state, error) -> {
+                    if (error == null) {
+                        fireChanged(controller, previous, state);
+                    }
+                    execute(() -> stateReceived(state, error));
+                });
+            });
+        }
+
+        /**
+         * Call controller by executor after previous calls.
+         */
+        private void call(Runnable call) {
+            synchronized (calls) {
+                calls.add(call);
+                if (calling) {
+                    return;
+                }
+                calling = true;
+            }
+            try {
+                executor.execute(this::drainCalls);
+            } catch (RejectedExecutionException e) {
+                // hub is closed
+                logger.debug("Call of {} is rejected", controller.getHost(), e);
+                synchronized (calls) {
+                    calls.clear();
+                    calling = false;
+                }
+            }
+        }
+
+        private void drainCalls() {
+            while (true) {
+                Runnable call;
+                synchronized (calls) {
+                    call = calls.poll();
+                    if (call == null) {
+                        calling = false;
+                        return;
+                    }
+                }
+                try {
+                    call.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Call of {} failed", controller.getHost(), e);
+                }
+            }
+        }
+
+        private void stateReceived(ControllerState state, Throwable error) {
+            if (error != null) {
+                // clients time out as with controller, which doesn't answer
+                logger.debug("State request to {} failed", controller.getHost(), error);
+            } else {
+                stateTime = System.nanoTime();
+                for (Client client : waiting) {
+                    client.answer(state);
+                }
+            }
+            waiting.clear();
+        }
+    }
+
+    /**
+     * Connection of one client. Fields are changed only by hub thread.
+     */
+    private final class Client {
+        private final HubDevice device;
+        private final SocketChannel channel;
+        private final String address;
+        private final long connected = System.nanoTime();
+        private final FrameDecoder decoder = new FrameDecoder(1024);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+        private volatile long frames;
+        private volatile long bytesIn;
+        private volatile long bytesOut;
+
+        private Client(HubDevice device, SocketChannel channel) throws IOException {
+            this.device = device;
+            this.channel = channel;
+            this.address = String.valueOf(channel.getRemoteAddress());
+        }
+
+        private ClientStats stats() {
+            return new ClientStats(address, device.controller, frames, bytesIn, bytesOut,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connected));
+        }
+
+        private void read() throws IOException {
+            int len = channel.read(decoder.inbound());
+            if (len < 0) {
+                close();
+                return;
+            }
+            bytesIn += len;
+            int length;
+            while ((length = decoder.next(FrameDecoder::commandLength)) > 0) {
+                byte[] frame = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    frame[i] = decoder.buffer().get(decoder.position() + i);
+                }
+                decoder.consume(length);
+                frames++;
+                if (frame[0] == FrameDecoder.STATE_HEADER) {
+                    device.requestState(this);
+                } else {
+                    device.call(() -> command(this, frame));
+                }
+            }
+            decoder.compact();
+        }
+
+        private void answer(ControllerState state) {
+            ByteBuffer buffer = ByteBuffer.allocate(ControllerState.RESPONSE_LENGTH);
+            state.encode(buffer);
+            buffer.flip();
+            answer(buffer);
+        }
+
+        private void answer(byte[] frame) {
+            answer(ByteBuffer.wrap(frame));
+        }
+
+        private void answer(ByteBuffer buffer) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (out.size() == MAX_PENDING_ANSWERS) {
+                logger.warn("Client {} doesn't read answers and is disconnected", address);
+                close();
+                return;
+            }
+            out.add(buffer);
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.debug("Client connection is closed", e);
+                close();
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = out.peek()) != null) {
+                bytesOut += channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        private void close() {
+            clients.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close channel", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return address;
+        }
+    }
+
+    public static final class HubBuilder {
+        /**
+         * Address of local ports, loopback by default, so hub is reachable only by local clients.
+         */
+        private String host = "127.0.0.1";
+        private final List<LedController> controllers = new ArrayList<>();
+        private final List<Integer> ports = new ArrayList<>();
+        private final List<StateListener> listeners = new ArrayList<>();
+        /**
+         * Maximum age of known state in milliseconds, which is answered without request to controller.
+         */
+        private long stateMaxAge = 500;
+        /**
+         * Executor for calls of controllers. If not provided - blocking I/O executor is created and shut down
+         * with hub. Direct executor {@code Runnable::run} is enough for controllers with event loop.
+         */
+        private Executor executor;
+
+        public HubBuilder() {
+        }
+
+        public static HubBuilder aHub() {
+            return new HubBuilder();
+        }
+
+        public HubBuilder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Serve controller on random free port.
+         */
+        public HubBuilder controller(LedController controller) {
+            return controller(controller, 0);
+        }
+
+        /**
+         * @param port local port of controller, 0 - random free port.
+         */
+        public HubBuilder controller(LedController controller, int port) {
+            controllers.add(controller);
+            ports.add(port);
+            return this;
+        }
+
+        /**
+         * @param stateMaxAge maximum age of known state in milliseconds, 0 - every state request of client,
+         *                    which doesn't join request in flight, is sent to controller.
+         */
+        public HubBuilder stateMaxAge(long stateMaxAge) {
+            this.stateMaxAge = stateMaxAge;
+            return this;
+        }
+
+        public HubBuilder listener(StateListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        public HubBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ControllerHub build() throws IOException {
+            if (controllers.isEmpty()) {
+                throw new IllegalStateException("At least one controller is required");
+            }
+            if (controllers.contains(null)) {
+                throw new IllegalStateException("Controller can't be null");
+            }
+            if (stateMaxAge < 0) {
+                throw new IllegalStateException("State max age can't be negative");
+            }
+            return new ControllerHub(this);
+        }
+    }
+}
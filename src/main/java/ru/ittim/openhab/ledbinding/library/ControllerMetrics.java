@@ -0,0 +1,78 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * Receiver of measurements of controller operations. Device is identified by {@code host:port}.
+ * Methods are called from transport threads, so implementation must be thread safe and must not block.
+ * {@link #NOOP} is default: controllers without metrics aren't instrumented at all.
+ *
+ * @see SimpleControllerMetrics
+ */
+public interface ControllerMetrics {
+    /**
+     * Metrics are disabled.
+     */
+    ControllerMetrics NOOP = new ControllerMetrics() {
+    };
+
+    /**
+     * Command without answer is written to network.
+     *
+     * @param nanos time from send to flush.
+     * @param bytes length of command.
+     */
+    default void commandWritten(String device, long nanos, int bytes) {
+    }
+
+    /**
+     * Several commands are written to network with one write (see {@link CommandBatch}).
+     *
+     * @param nanos  time from send to flush of all commands.
+     * @param frames number of commands.
+     * @param bytes  total length of commands.
+     */
+    default void batchWritten(String device, long nanos, int frames, int bytes) {
+    }
+
+    /**
+     * Answer for request (for example state or power) is received.
+     *
+     * @param nanos         time from request to answer.
+     * @param bytesSent     length of request.
+     * @param bytesReceived length of answer.
+     */
+    default void responseReceived(String device, long nanos, int bytesSent, int bytesReceived) {
+    }
+
+    /**
+     * Controller didn't answer in time.
+     */
+    default void timeout(String device) {
+    }
+
+    /**
+     * Command or request is failed by other reason than timeout.
+     */
+    default void failure(String device, Throwable error) {
+    }
+
+    /**
+     * Connection is opened again after it was closed or failed.
+     */
+    default void reconnect(String device) {
+    }
+
+    /**
+     * Number of commands waiting in {@link CommandQueue} is changed.
+     */
+    default void queueDepth(String device, int depth) {
+    }
+
+    /**
+     * Discovery is finished.
+     *
+     * @param nanos   duration of all attempts.
+     * @param devices number of found devices.
+     */
+    default void discoveryRound(long nanos, int devices) {
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * JMX view of {@link SimpleControllerMetrics}: totals of all devices and description of one device.
+ */
+public interface ControllerMetricsMXBean {
+
+    String[] getDevices();
+
+    long getCommands();
+
+    long getResponses();
+
+    long getTimeouts();
+
+    long getFailures();
+
+    long getReconnects();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    /**
+     * @return number of commands waiting in queues of all devices.
+     */
+    long getQueueDepth();
+
+    long getWriteLatencyP50Micros();
+
+    long getWriteLatencyP99Micros();
+
+    /**
+     * @return number of {@link CommandBatch}es written with one write.
+     */
+    long getBatches();
+
+    long getBatchLatencyP99Micros();
+
+    long getResponseLatencyP50Micros();
+
+    long getResponseLatencyP99Micros();
+
+    long getResponseLatencyMaxMicros();
+
+    long getDiscoveryRounds();
+
+    long getLastDiscoveryMillis();
+
+    /**
+     * @param device {@code host:port} of device.
+     * @return counters and latencies of device or null for unknown device.
+     */
+    String describe(String device);
+}
@@ -0,0 +1,650 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulator of MagicHome controllers for load and latency testing.
+ * Every virtual device listens own TCP port and answers like real controller: state request,
+ * power commands (echo), channel and mode commands (without answer). Optional UDP responder answers discovery
+ * requests for all devices. All devices are served by one selector thread.
+ * Network problems can be simulated: answer latency with jitter, lost answers and slow reading.
+ */
+public final class ControllerSimulator implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ControllerSimulator.class);
+    private static final String MODEL = "HF-LPB100-ZJ200";
+
+    private final String host;
+    private final long latency;
+    private final long jitter;
+    private final double loss;
+    private final int readLimit;
+    private final long readDelay;
+    private final Random random;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final List<SimulatedDevice> devices = new ArrayList<>();
+    private final PriorityQueue<Delayed> delayed = new PriorityQueue<>();
+    private long delayedSequence;
+    private volatile boolean running = true;
+    private DatagramChannel discovery;
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong stateRequests = new AtomicLong();
+    private final AtomicLong powerCommands = new AtomicLong();
+    private final AtomicLong channelCommands = new AtomicLong();
+    private final AtomicLong modeCommands = new AtomicLong();
+    private final AtomicLong lostAnswers = new AtomicLong();
+    private final AtomicLong discoveryRequests = new AtomicLong();
+
+    private ControllerSimulator(SimulatorBuilder builder) throws IOException {
+        this.host = builder.host;
+        this.latency = TimeUnit.MILLISECONDS.toNanos(builder.latency);
+        this.jitter = TimeUnit.MILLISECONDS.toNanos(builder.jitter);
+        this.loss = builder.loss;
+        this.readLimit = builder.readLimit;
+        this.readDelay = TimeUnit.MILLISECONDS.toNanos(builder.readDelay);
+        this.random = new Random(builder.seed);
+        this.selector = Selector.open();
+        try {
+            for (int i = 0; i < builder.devices; i++) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(host, builder.basePort == 0 ? 0 : builder.basePort + i), 1024);
+                server.configureBlocking(false);
+                SimulatedDevice device = new SimulatedDevice(server, String.format("ACCF23%06X", i));
+                server.register(selector, SelectionKey.OP_ACCEPT, device);
+                devices.add(device);
+            }
+            if (builder.discoveryPort >= 0) {
+                discovery = DatagramChannel.open();
+                discovery.bind(new InetSocketAddress(host, builder.discoveryPort));
+                discovery.configureBlocking(false);
+                discovery.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        thread = new Thread(this::run, "controller-simulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Start simulator and work until process is killed.
+     *
+     * @param args number of devices (1 by default), first TCP port (5577 by default),
+     *             discovery UDP port (48899 by default)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ControllerSimulator simulator = new SimulatorBuilder()
+                .devices(args.length > 0 ? Integer.parseInt(args[0]) : 1)
+                .basePort(args.length > 1 ? Integer.parseInt(args[1]) : 5577)
+                .discoveryPort(args.length > 2 ? Integer.parseInt(args[2]) : 48899)
+                .build();
+        logger.info("Simulator is started: {}", simulator);
+        simulator.thread.join();
+    }
+
+    public List<SimulatedDevice> getDevices() {
+        return Collections.unmodifiableList(devices);
+    }
+
+    /**
+     * @param device index of device.
+     * @return TCP port of device.
+     */
+    public int getPort(int device) {
+        return devices.get(device).getPort();
+    }
+
+    /**
+     * @return UDP port of discovery responder or -1, if responder is disabled.
+     */
+    public int getDiscoveryPort() {
+        return discovery != null ? discovery.socket().getLocalPort() : -1;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getStateRequests() {
+        return stateRequests.get();
+    }
+
+    public long getPowerCommands() {
+        return powerCommands.get();
+    }
+
+    /**
+     * @return number of received 0x31 frames (two frames for every {@link LedController#setChannels}).
+     */
+    public long getChannelCommands() {
+        return channelCommands.get();
+    }
+
+    public long getModeCommands() {
+        return modeCommands.get();
+    }
+
+    /**
+     * @return number of answers, which were not sent because of simulated loss.
+     */
+    public long getLostAnswers() {
+        return lostAnswers.get();
+    }
+
+    public long getDiscoveryRequests() {
+        return discoveryRequests.get();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long timeout = runDelayed();
+                if (timeout > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+                } else {
+                    selector.select();
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        handle(key);
+                    } catch (IOException e) {
+                        logger.debug("Simulated connection is closed", e);
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            } catch (Throwable e) {
+                if (running) {
+                    logger.error("Unexpected error in simulator", e);
+                }
+            }
+        }
+        closeChannels();
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.channel() == discovery) {
+            answerDiscovery();
+        } else if (key.isAcceptable()) {
+            SimulatedDevice device = (SimulatedDevice) key.attachment();
+            SocketChannel channel = device.server.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(device, channel));
+                connections.incrementAndGet();
+            }
+        } else {
+            Connection connection = (Connection) key.attachment();
+            if (key.isWritable()) {
+                connection.flush(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.read(key);
+            }
+        }
+    }
+
+    private void answerDiscovery() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        SocketAddress sender;
+        while ((sender = discovery.receive(buffer)) != null) {
+            buffer.flip();
+            String request = StandardCharsets.US_ASCII.decode(buffer).toString();
+            buffer.clear();
+            if (!DiscoveryFinder.DISCOVERY_DATA.equals(request)) {
+                continue;
+            }
+            discoveryRequests.incrementAndGet();
+            for (SimulatedDevice device : devices) {
+                byte[] answer = (host + "," + device.mac + "," + MODEL).getBytes(StandardCharsets.US_ASCII);
+                discovery.send(ByteBuffer.wrap(answer), sender);
+            }
+        }
+    }
+
+    /**
+     * Run expired delayed tasks.
+     *
+     * @return nanoseconds until next task or 0 if there are no tasks.
+     */
+    private long runDelayed() {
+        long now = System.nanoTime();
+        Delayed task;
+        while ((task = delayed.peek()) != null) {
+            if (task.time - now > 0) {
+                return task.time - now;
+            }
+            delayed.poll();
+            task.task.run();
+        }
+        return 0;
+    }
+
+    private void schedule(long time, Runnable task) {
+        delayed.add(new Delayed(time, delayedSequence++, task));
+    }
+
+    /**
+     * @return time of answer, which is sent now, with latency and jitter.
+     */
+    private long answerTime() {
+        long delay = latency;
+        if (jitter > 0) {
+            delay += (long) ((random.nextDouble() * 2 - 1) * jitter);
+        }
+        return System.nanoTime() + Math.max(0, delay);
+    }
+
+    private void closeChannels() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                logger.debug("Unable to close channel", e);
+            }
+        }
+        for (SimulatedDevice device : devices) {
+            try {
+                device.server.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close channel", e);
+            }
+        }
+        try {
+            if (discovery != null) {
+                discovery.close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close selector", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ControllerSimulator{" +
+                "host='" + host + '\'' +
+                ", devices=" + devices.size() +
+                ", ports=" + (devices.isEmpty() ? "none" : getPort(0) + ".." + getPort(devices.size() - 1)) +
+                ", discoveryPort=" + getDiscoveryPort() +
+                '}';
+    }
+
+    /**
+     * Length of incoming frame by its first byte.
+     *
+     * @param header first byte of frame.
+     * @return length of frame with checksum or 1 for unknown byte, which is skipped.
+     */
+    static int frameLength(byte header) {
+        int length = FrameDecoder.commandLength(header);
+        return length > 0 ? length : 1;
+    }
+
+    /**
+     * Virtual device. State is changed only by simulator thread.
+     */
+    public final class SimulatedDevice {
+        private final ServerSocketChannel server;
+        private final String mac;
+        private volatile byte power = 0x24;
+        private volatile byte mode = 0x61;
+        private volatile byte speed = 0x1f;
+        private volatile byte r, g, b, ww, cw;
+        private volatile CustomProgram program;
+
+        private SimulatedDevice(ServerSocketChannel server, String mac) {
+            this.server = server;
+            this.mac = mac;
+        }
+
+        public int getPort() {
+            return server.socket().getLocalPort();
+        }
+
+        public String getMac() {
+            return mac;
+        }
+
+        public String getModel() {
+            return MODEL;
+        }
+
+        /**
+         * @return last accepted custom program or null.
+         */
+        public CustomProgram getProgram() {
+            return program;
+        }
+
+        /**
+         * @return current state of device.
+         */
+        public ControllerState getState() {
+            try {
+                return ControllerState.parse(stateResponse());
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] stateResponse() {
+            return Utils.withCheckSum(new byte[]{
+                    (byte) 0x81, 0x25, power, mode, 0x00, speed, r, g, b, ww, 0x01, cw, (byte) 0xf0});
+        }
+
+        /**
+         * Apply frame to state.
+         *
+         * @param frame frame with checksum.
+         * @return answer or null, if frame doesn't need answer.
+         */
+        private byte[] handle(byte[] frame) {
+            switch (frame[0]) {
+                case (byte) 0x81:
+                    stateRequests.incrementAndGet();
+                    return stateResponse();
+                case 0x71:
+                    powerCommands.incrementAndGet();
+                    power = frame[1];
+                    return frame;
+                case 0x31:
+                    channelCommands.incrementAndGet();
+                    if (frame[6] == (byte) 0xf0) {
+                        r = frame[1];
+                        g = frame[2];
+                        b = frame[3];
+                    } else {
+                        ww = frame[4];
+                        cw = frame[5];
+                    }
+                    mode = 0x61;
+                    return null;
+                case 0x61:
+                    modeCommands.incrementAndGet();
+                    mode = frame[1];
+                    speed = frame[2];
+                    return null;
+                case CustomProgram.HEADER:
+                    modeCommands.incrementAndGet();
+                    try {
+                        program = CustomProgram.decode(ByteBuffer.wrap(frame), 0, frame.length);
+                    } catch (ProtocolException e) {
+                        // device ignores broken program
+                        logger.warn("Custom program is rejected: {}", e.getMessage());
+                        return null;
+                    }
+                    mode = (byte) FunctionalModeRgb.CUSTOM.getId();
+                    speed = (byte) program.getSpeed();
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * One TCP connection to virtual device.
+     */
+    private final class Connection {
+        private final SimulatedDevice device;
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(1024);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        /**
+         * Answers are sent in order of requests even with jitter.
+         */
+        private long lastAnswerTime;
+
+        private Connection(SimulatedDevice device, SocketChannel channel) {
+            this.device = device;
+            this.channel = channel;
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            if (readLimit > 0) {
+                in.limit(Math.min(in.capacity(), in.position() + readLimit));
+            }
+            int len = channel.read(in);
+            in.limit(in.capacity());
+            if (len < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            in.flip();
+            while (in.hasRemaining()) {
+                int length = frameLength(in.get(in.position()));
+                if (in.remaining() < length) {
+                    break;
+                }
+                byte[] frame = new byte[length];
+                in.get(frame);
+                byte[] answer = device.handle(frame);
+                if (answer != null) {
+                    answer(key, answer);
+                }
+            }
+            in.compact();
+            if (readDelay > 0 && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                schedule(System.nanoTime() + readDelay, () -> {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                });
+            }
+        }
+
+        private void answer(SelectionKey key, byte[] answer) throws IOException {
+            if (loss > 0 && random.nextDouble() < loss) {
+                lostAnswers.incrementAndGet();
+                return;
+            }
+            if (latency == 0 && jitter == 0) {
+                out.add(ByteBuffer.wrap(answer));
+                flush(key);
+                return;
+            }
+            lastAnswerTime = Math.max(answerTime(), lastAnswerTime);
+            schedule(lastAnswerTime, () -> {
+                if (key.isValid()) {
+                    out.add(ByteBuffer.wrap(answer));
+                    try {
+                        flush(key);
+                    } catch (IOException e) {
+                        key.cancel();
+                    }
+                }
+            });
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = out.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private static final class Delayed implements Comparable<Delayed> {
+        private final long time;
+        private final long sequence;
+        private final Runnable task;
+
+        private Delayed(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            long diff = time - o.time;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    public static final class SimulatorBuilder {
+        private String host = "127.0.0.1";
+        /**
+         * Number of virtual devices.
+         */
+        private int devices = 1;
+        /**
+         * Port of first device, next devices use next ports. 0 - random free ports.
+         */
+        private int basePort;
+        /**
+         * UDP port for discovery requests, -1 - don't answer discovery.
+         */
+        private int discoveryPort = -1;
+        /**
+         * Answer latency in milliseconds.
+         */
+        private long latency;
+        /**
+         * Maximum random deviation of latency in milliseconds.
+         */
+        private long jitter;
+        /**
+         * Probability of lost answer from 0 to 1.
+         */
+        private double loss;
+        /**
+         * Maximum number of bytes read at once, 0 - without limit.
+         */
+        private int readLimit;
+        /**
+         * Pause between reads in milliseconds.
+         */
+        private long readDelay;
+        private long seed = 42;
+
+        public SimulatorBuilder() {
+        }
+
+        public static SimulatorBuilder aSimulator() {
+            return new SimulatorBuilder();
+        }
+
+        public SimulatorBuilder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public SimulatorBuilder devices(int devices) {
+            this.devices = devices;
+            return this;
+        }
+
+        public SimulatorBuilder basePort(int basePort) {
+            this.basePort = basePort;
+            return this;
+        }
+
+        public SimulatorBuilder discoveryPort(int discoveryPort) {
+            this.discoveryPort = discoveryPort;
+            return this;
+        }
+
+        public SimulatorBuilder latency(long latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public SimulatorBuilder jitter(long jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        public SimulatorBuilder loss(double loss) {
+            this.loss = loss;
+            return this;
+        }
+
+        /**
+         * Simulate device, which reads commands slower than they are sent.
+         *
+         * @param readLimit maximum number of bytes read at once.
+         * @param readDelay pause between reads in milliseconds.
+         */
+        public SimulatorBuilder slowReader(int readLimit, long readDelay) {
+            this.readLimit = readLimit;
+            this.readDelay = readDelay;
+            return this;
+        }
+
+        public SimulatorBuilder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public ControllerSimulator build() throws IOException {
+            if (devices < 1) {
+                throw new IllegalStateException("At least one device is required");
+            }
+            if (loss < 0 || loss > 1) {
+                throw new IllegalStateException("Loss must be in interval [0, 1]");
+            }
+            return new ControllerSimulator(this);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable snapshot of controller state. Controller publishes new snapshot on every change,
+ * so reader always sees consistent type, power, mode with speed and channels.
+ */
+public final class ControllerState {
+    /**
+     * Length of controller answer for state request.
+     */
+    static final int RESPONSE_LENGTH = 14;
+
+    private final ControllerType type;
+    private final PowerState power;
+    private final FunctionalModeRgb mode;
+    /**
+     * speed 31 (min speed) - 1(max speed)
+     */
+    private final int speed;
+    private final ControllerChannels channels;
+
+    public ControllerState(ControllerType type, PowerState power, FunctionalModeRgb mode, int speed,
+                           ControllerChannels channels) {
+        this.type = type;
+        this.power = power;
+        this.mode = mode;
+        this.speed = speed;
+        this.channels = channels;
+    }
+
+    /**
+     * Parse controller answer for state request.
+     *
+     * @param response answer (14 bytes).
+     * @return state.
+     * @throws ProtocolException when answer has wrong length, header or checksum.
+     * @see LedController#init()
+     */
+    static ControllerState parse(byte[] response) throws ProtocolException {
+        return FrameDecoder.decodeState(ByteBuffer.wrap(response), 0, response.length);
+    }
+
+    /**
+     * Write answer for state request ({@link #RESPONSE_LENGTH} bytes) to buffer, as controller does.
+     *
+     * @param buffer buffer with enough remaining space.
+     * @see FrameDecoder#decodeState(ByteBuffer, int, int)
+     */
+    void encode(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put(FrameDecoder.STATE_HEADER)
+                .put((byte) 0x25)
+                .put((byte) power.getId())
+                .put((byte) mode.getId())
+                .put((byte) 0x00)
+                .put((byte) speed)
+                .put((byte) channels.getRawR())
+                .put((byte) channels.getRawG())
+                .put((byte) channels.getRawB())
+                .put((byte) channels.getRawWw())
+                .put((byte) 0x01)
+                .put((byte) channels.getRawCw())
+                .put((byte) type.getId());
+        Utils.putCheckSum(buffer, start);
+    }
+
+    public ControllerType getType() {
+        return type;
+    }
+
+    public PowerState getPower() {
+        return power;
+    }
+
+    public FunctionalModeRgb getMode() {
+        return mode;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    public ControllerChannels getChannels() {
+        return channels;
+    }
+
+    /**
+     * transform speed to percents(f: [31 - 1] -> [0 100]
+     * @return speed in percent
+     */
+    public int getPercentSpeed() {
+        return FunctionalModeRgb.toPercentSpeed(speed);
+    }
+
+    ControllerState withPower(PowerState power) {
+        return new ControllerState(type, power, mode, speed, channels);
+    }
+
+    ControllerState withMode(FunctionalModeRgb mode, int speed) {
+        return new ControllerState(type, power, mode, speed, channels);
+    }
+
+    ControllerState withChannels(ControllerChannels channels) {
+        return new ControllerState(type, power, FunctionalModeRgb.NONE, speed, channels);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ControllerState that = (ControllerState) o;
+
+        return speed == that.speed && type == that.type && power == that.power && mode == that.mode
+                && channels.equals(that.channels);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + power.hashCode();
+        result = 31 * result + mode.hashCode();
+        result = 31 * result + speed;
+        result = 31 * result + channels.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ControllerState{" +
+                "type=" + type +
+                ", power=" + power +
+                ", mode=" + mode +
+                ", speed=" + speed +
+                ", channels=" + channels +
+                '}';
+    }
+}
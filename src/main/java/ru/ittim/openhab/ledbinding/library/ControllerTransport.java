@@ -0,0 +1,71 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.io.Closeable;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Byte level message exchange with one controller.
+ * {@link LedController} builds commands and parses responses, transport only delivers bytes.
+ */
+public interface ControllerTransport extends Closeable {
+
+    /**
+     * Send command without waiting answer from controller.
+     *
+     * @param frame command with checksum.
+     * @return future completed when command is written to network.
+     */
+    CompletableFuture<Void> send(byte[] frame);
+
+    /**
+     * Send several commands in one write without waiting answers. Non-blocking transport writes buffers with
+     * one gathering write, default implementation joins them into one frame.
+     *
+     * @param frames commands with checksum, every buffer is sent from its position to its limit. Transport may
+     *               advance positions, so buffers must not be reused.
+     * @return future completed when all commands are written to network.
+     */
+    default CompletableFuture<Void> send(ByteBuffer[] frames) {
+        int length = 0;
+        for (ByteBuffer frame : frames) {
+            length += frame.remaining();
+        }
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        for (ByteBuffer frame : frames) {
+            joined.put(frame.duplicate());
+        }
+        return send(joined.array());
+    }
+
+    /**
+     * Send command and wait answer with known length.
+     *
+     * @param frame          command with checksum.
+     * @param responseLength expected length of answer in bytes.
+     * @return future completed with answer.
+     */
+    CompletableFuture<byte[]> request(byte[] frame, int responseLength);
+
+    /**
+     * Send command and decode answer with known length. Transports with receive buffer decode answer in place,
+     * default implementation decodes copy of answer.
+     *
+     * @param frame          command with checksum.
+     * @param responseLength expected length of answer in bytes.
+     * @param decoder        decoder of answer.
+     * @return future completed with decoded answer or with {@link ProtocolException}.
+     */
+    default <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+        return request(frame, responseLength).thenCompose(response -> {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                result.complete(decoder.decode(ByteBuffer.wrap(response), 0, response.length));
+            } catch (ProtocolException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        });
+    }
+}
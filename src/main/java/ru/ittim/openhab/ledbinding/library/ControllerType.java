@@ -17,13 +17,29 @@ public enum ControllerType {
         this.id = id;
     }
 
-    public static ControllerType get(int id) {
+    /**
+     * Types by low byte of id, for lookup without copy and scan of {@link #values()}.
+     */
+    private static final ControllerType[] BY_ID = new ControllerType[256];
+
+    static {
         for (ControllerType type : values()) {
-            if (type.id == id) {
-                return type;
+            if (type != UNKNOWN) {
+                BY_ID[type.id & 0xFF] = type;
             }
         }
-        return UNKNOWN;
+    }
+
+    public static ControllerType get(int id) {
+        ControllerType type = BY_ID[id & 0xFF];
+        return type != null && type.id == id ? type : UNKNOWN;
+    }
+
+    /**
+     * @return id, which is sent in commands and state answer.
+     */
+    int getId() {
+        return id;
     }
 
 
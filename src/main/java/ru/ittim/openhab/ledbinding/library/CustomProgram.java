@@ -0,0 +1,252 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Program of custom mode: up to {@link #MAX_STEPS} colors, which are changed by controller itself with given
+ * transition and speed. Whole program is sent in one frame, so animation runs on device without network traffic.
+ * <pre>
+ * Command structure (reverse engineering with WireShark):
+ * command[00]     - always 0x51
+ * command[01-64]  - 16 steps: red, green, blue, 0x00. Unused steps are 0x01, 0x02, 0x03, 0x00
+ * command[65]     - speed 31 (min speed) - 1 (max speed)
+ * command[66]     - transition: 0x3a gradual, 0x3b jump, 0x3c strobe
+ * command[67]     - always 0xff
+ * command[68]     - always 0x0f
+ * command[69]     - checksum
+ * </pre>
+ * Controller reports running program as {@link FunctionalModeRgb#CUSTOM} mode.
+ */
+public final class CustomProgram {
+    /**
+     * Length of command with checksum.
+     */
+    public static final int COMMAND_LENGTH = 70;
+    /**
+     * Number of steps in command.
+     */
+    public static final int MAX_STEPS = 16;
+    static final byte HEADER = 0x51;
+    /**
+     * Color of unused step, so it can't be used as step color.
+     */
+    private static final int UNUSED_STEP = 0x010203;
+
+    /**
+     * Change of color between steps.
+     */
+    public enum Transition {
+        GRADUAL(0x3a),
+        JUMP(0x3b),
+        STROBE(0x3c);
+
+        private final int id;
+
+        Transition(int id) {
+            this.id = id;
+        }
+
+        /**
+         * @return transition or null for unknown id.
+         */
+        static Transition get(int id) {
+            for (Transition transition : values()) {
+                if (transition.id == id) {
+                    return transition;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Colors of steps packed as {@code 0xRRGGBB}.
+     */
+    private final int[] steps;
+    private final Transition transition;
+    private final int speed;
+
+    private CustomProgram(int[] steps, Transition transition, int speed) {
+        this.steps = steps;
+        this.transition = transition;
+        this.speed = speed;
+    }
+
+    public int getStepCount() {
+        return steps.length;
+    }
+
+    /**
+     * @return color of step packed as {@code 0xRRGGBB}.
+     */
+    public int getStep(int index) {
+        return steps[index];
+    }
+
+    public Transition getTransition() {
+        return transition;
+    }
+
+    /**
+     * @return speed 31 (min speed) - 1(max speed)
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    public byte[] getCommand() {
+        ByteBuffer buffer = ByteBuffer.allocate(COMMAND_LENGTH);
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Write command ({@link #COMMAND_LENGTH} bytes) to buffer.
+     *
+     * @param buffer buffer with enough remaining space.
+     */
+    public void encode(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put(HEADER);
+        for (int i = 0; i < MAX_STEPS; i++) {
+            int step = i < steps.length ? steps[i] : UNUSED_STEP;
+            buffer.put((byte) (step >> 16))
+                    .put((byte) (step >> 8))
+                    .put((byte) step)
+                    .put((byte) 0x00);
+        }
+        buffer.put((byte) speed)
+                .put((byte) transition.id)
+                .put((byte) 0xff)
+                .put((byte) 0x0f);
+        Utils.putCheckSum(buffer, start);
+    }
+
+    /**
+     * Decode and validate command, for example command received by simulator.
+     *
+     * @throws ProtocolException when command has wrong length, structure or checksum.
+     */
+    static CustomProgram decode(ByteBuffer buffer, int offset, int length) throws ProtocolException {
+        if (length != COMMAND_LENGTH) {
+            throw new ProtocolException("Custom program has incorrect length " + length);
+        }
+        if (buffer.get(offset) != HEADER || buffer.get(offset + 67) != (byte) 0xff
+                || buffer.get(offset + 68) != 0x0f) {
+            throw new ProtocolException("Wrong custom program structure");
+        }
+        if (!FrameDecoder.isChecksumValid(buffer, offset, length)) {
+            throw new ProtocolException("Wrong checksum of custom program");
+        }
+        Transition transition = Transition.get(buffer.get(offset + 66) & 0xFF);
+        int speed = buffer.get(offset + 65) & 0xFF;
+        if (transition == null || speed < 1 || speed > FunctionalModeRgb.DEFAULT_SPEED) {
+            throw new ProtocolException("Wrong transition or speed of custom program");
+        }
+        int[] steps = new int[MAX_STEPS];
+        int count = 0;
+        for (int i = 0; i < MAX_STEPS; i++) {
+            int at = offset + 1 + i * 4;
+            int step = (buffer.get(at) & 0xFF) << 16 | (buffer.get(at + 1) & 0xFF) << 8 | buffer.get(at + 2) & 0xFF;
+            if (step != UNUSED_STEP) {
+                steps[count++] = step;
+            }
+        }
+        if (count == 0) {
+            throw new ProtocolException("Custom program has no steps");
+        }
+        return new CustomProgram(Arrays.copyOf(steps, count), transition, speed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CustomProgram that = (CustomProgram) o;
+
+        return speed == that.speed && transition == that.transition && Arrays.equals(steps, that.steps);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(steps);
+        result = 31 * result + transition.hashCode();
+        result = 31 * result + speed;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder colors = new StringBuilder();
+        for (int step : steps) {
+            colors.append(colors.length() == 0 ? "" : ",").append(String.format("%06x", step));
+        }
+        return "CustomProgram{" +
+                "steps=[" + colors + "]" +
+                ", transition=" + transition +
+                ", speed=" + speed +
+                '}';
+    }
+
+    public static final class CustomProgramBuilder {
+        private final int[] steps = new int[MAX_STEPS];
+        private int count;
+        private Transition transition = Transition.GRADUAL;
+        /**
+         * Speed 31 (min speed) - 1(max speed)
+         */
+        private int speed = FunctionalModeRgb.DEFAULT_SPEED;
+
+        public CustomProgramBuilder() {
+        }
+
+        public static CustomProgramBuilder aCustomProgram() {
+            return new CustomProgramBuilder();
+        }
+
+        /**
+         * Add step with color by values from 0 to 255.
+         *
+         * @throws IllegalArgumentException when value is out of range or color is reserved for unused step.
+         * @throws IllegalStateException    when program has already {@link #MAX_STEPS} steps.
+         */
+        public CustomProgramBuilder step(int r, int g, int b) {
+            int step = ControllerChannels.checkValue(r) << 16 | ControllerChannels.checkValue(g) << 8
+                    | ControllerChannels.checkValue(b);
+            if (step == UNUSED_STEP) {
+                throw new IllegalArgumentException("Color 1, 2, 3 marks unused step");
+            }
+            if (count == MAX_STEPS) {
+                throw new IllegalStateException("Custom program has at most " + MAX_STEPS + " steps");
+            }
+            steps[count++] = step;
+            return this;
+        }
+
+        public CustomProgramBuilder transition(Transition transition) {
+            this.transition = transition;
+            return this;
+        }
+
+        public CustomProgramBuilder speed(int speed) {
+            this.speed = speed;
+            return this;
+        }
+
+        public CustomProgram build() {
+            if (count == 0) {
+                throw new IllegalStateException("At least one step is required");
+            }
+            if (transition == null) {
+                throw new IllegalStateException("Transition is mandatory field");
+            }
+            if (speed < 1 || speed > FunctionalModeRgb.DEFAULT_SPEED) {
+                throw new IllegalStateException("Speed must be in interval [1, 31]");
+            }
+            return new CustomProgram(Arrays.copyOf(steps, count), transition, speed);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * Time limits of one connection in milliseconds. Every phase is limited separately, so dead device fails
+ * in bounded time whatever phase it hangs in.
+ */
+final class Deadlines {
+    /**
+     * {@link LedController#TIMEOUT} for every phase.
+     */
+    static final Deadlines DEFAULT = of(LedController.TIMEOUT, LedController.TIMEOUT, LedController.TIMEOUT);
+
+    private final int connect;
+    private final int write;
+    private final int response;
+
+    private Deadlines(int connect, int write, int response) {
+        this.connect = connect;
+        this.write = write;
+        this.response = response;
+    }
+
+    /**
+     * @param connect  time to open connection.
+     * @param write    time to flush command to network, non-blocking transport only.
+     * @param response time from request to complete answer.
+     */
+    static Deadlines of(int connect, int write, int response) {
+        if (connect <= 0 || write <= 0 || response <= 0) {
+            throw new IllegalArgumentException("Deadlines must be positive: " + connect + ", " + write + ", " + response);
+        }
+        return new Deadlines(connect, write, response);
+    }
+
+    int getConnect() {
+        return connect;
+    }
+
+    int getWrite() {
+        return write;
+    }
+
+    int getResponse() {
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadlines{" +
+                "connect=" + connect +
+                ", write=" + write +
+                ", response=" + response +
+                '}';
+    }
+}
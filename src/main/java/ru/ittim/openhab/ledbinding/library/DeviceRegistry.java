@@ -0,0 +1,336 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Known devices, saved in local file. Controllers of saved devices are available at once after start, with
+ * last known type and state, without waiting for discovery. Background discovery reconciles devices by MAC:
+ * new devices are added and devices, which got new address from DHCP, are replaced by controllers with new host.
+ * <p>
+ * File is text, one device per line: {@code mac,host,model,type,power,mode,speed,channels}, where channels
+ * are packed channels in hex (see {@link ControllerChannels#getPacked()}).
+ */
+public final class DeviceRegistry implements ControllerFinder, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DeviceRegistry.class);
+    private static final String HEADER = "# mac,host,model,type,power,mode,speed,channels";
+
+    private final Path file;
+    private final DiscoveryFinder discovery;
+    private final ConnectionPool connectionPool;
+    private final Executor executor;
+    private final List<DeviceListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Controllers by MAC in order of registration, guarded by this.
+     */
+    private final Map<String, LedController> controllers = new LinkedHashMap<>();
+    /**
+     * Serializes saves, which share temporary file, for example background reconciliation and close.
+     */
+    private final Object saveLock = new Object();
+
+    private DeviceRegistry(DeviceRegistryBuilder builder) {
+        this.file = builder.file;
+        this.discovery = builder.discovery;
+        this.connectionPool = builder.connectionPool;
+        this.executor = builder.executor;
+        this.listeners.addAll(builder.listeners);
+    }
+
+    /**
+     * Listener of registry changes.
+     */
+    @FunctionalInterface
+    public interface DeviceListener {
+        /**
+         * Called when device is found first time or its address is changed.
+         *
+         * @param previous controller with old address or null for new device.
+         * @param current  controller, which is registered now.
+         */
+        void deviceChanged(LedController previous, LedController current);
+    }
+
+    /**
+     * @return known controllers, without network requests.
+     */
+    @Override
+    public synchronized Set<LedController> getControllers() {
+        return new HashSet<>(controllers.values());
+    }
+
+    /**
+     * @return current controller of device or null for unknown device.
+     */
+    public synchronized LedController getController(String mac) {
+        return controllers.get(mac);
+    }
+
+    public synchronized int size() {
+        return controllers.size();
+    }
+
+    public void addListener(DeviceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DeviceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Run discovery in background, reconcile found devices and save registry.
+     *
+     * @return future completed with found devices.
+     */
+    public CompletableFuture<Collection<DiscoveredDevice>> refresh() {
+        if (discovery == null) {
+            throw new IllegalStateException("Discovery isn't configured");
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Collection<DiscoveredDevice> devices = discovery.discover(this::register);
+            try {
+                save();
+            } catch (IOException e) {
+                logger.error("Unable to save devices to {}", file, e);
+            }
+            return devices;
+        }, executor);
+    }
+
+    /**
+     * Add new device or update address of known device with the same MAC.
+     *
+     * @return current controller of device.
+     */
+    public LedController register(DiscoveredDevice device) {
+        LedController previous;
+        LedController current;
+        synchronized (this) {
+            previous = controllers.get(device.getMac());
+            if (previous != null && previous.getHost().equals(device.getHost())
+                    && previous.getModel().equals(device.getModel())) {
+                return previous;
+            }
+            current = device.toController(connectionPool);
+            if (previous != null) {
+                ControllerState state = previous.getState();
+                current.updateState(it -> state);
+                logger.info("Device {} is moved from {} to {}", device.getMac(), previous.getHost(), device.getHost());
+            }
+            controllers.put(device.getMac(), current);
+        }
+        for (DeviceListener listener : listeners) {
+            try {
+                listener.deviceChanged(previous, current);
+            } catch (RuntimeException e) {
+                logger.error("Device listener is failed for {}", device, e);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Read devices from file. Missing file is empty registry, broken lines are skipped.
+     */
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    parse(line);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skip broken device line '{}' in {}", line, file);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            logger.debug("Device registry {} doesn't exist yet", file);
+        }
+        logger.info("Loaded {} devices from {}", controllers.size(), file);
+    }
+
+    private void parse(String line) {
+        String[] tokens = line.split(",", -1);
+        if (tokens.length != 8 || tokens[0].isEmpty() || tokens[1].isEmpty()) {
+            throw new IllegalArgumentException("Wrong number of fields");
+        }
+        ControllerState state = new ControllerState(
+                ControllerType.valueOf(tokens[3]),
+                PowerState.valueOf(tokens[4]),
+                FunctionalModeRgb.valueOf(tokens[5]),
+                Integer.parseInt(tokens[6]),
+                ControllerChannels.fromPacked(Long.parseLong(tokens[7], 16)));
+        LedController controller = connectionPool.controller(tokens[1], tokens[0], tokens[2]);
+        controller.updateState(it -> state);
+        synchronized (this) {
+            controllers.put(tokens[0], controller);
+        }
+    }
+
+    /**
+     * Write devices with their last known state to file. File is replaced atomically, so crash during save
+     * doesn't lose previous version.
+     *
+     * @throws IOException when unable to write file.
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        List<LedController> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(controllers.values());
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (LedController controller : snapshot) {
+                ControllerState state = controller.getState();
+                writer.write(controller.getMac() + ',' + controller.getHost() + ',' + controller.getModel() + ','
+                        + state.getType().name() + ',' + state.getPower().name() + ',' + state.getMode().name() + ','
+                        + state.getSpeed() + ',' + Long.toHexString(state.getChannels().getPacked()));
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Save devices with their last known state.
+     */
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeviceRegistry{" +
+                "file=" + file +
+                ", devices=" + controllers.size() +
+                '}';
+    }
+
+    public static final class DeviceRegistryBuilder {
+        private Path file;
+        /**
+         * Discovery for reconciliation. If not provided - registry has only saved and registered devices.
+         */
+        private DiscoveryFinder discovery;
+        /**
+         * Connections of controllers. If not provided - pool of discovery or new pool with blocking sockets.
+         */
+        private ConnectionPool connectionPool;
+        /**
+         * Executor of background discovery. If not provided - new daemon thread for every refresh.
+         */
+        private Executor executor;
+        /**
+         * Start discovery after load.
+         */
+        private boolean refreshOnStart = true;
+        private final List<DeviceListener> listeners = new ArrayList<>();
+
+        public DeviceRegistryBuilder() {
+        }
+
+        public static DeviceRegistryBuilder aDeviceRegistry() {
+            return new DeviceRegistryBuilder();
+        }
+
+        public DeviceRegistryBuilder file(Path file) {
+            this.file = file;
+            return this;
+        }
+
+        public DeviceRegistryBuilder discovery(DiscoveryFinder discovery) {
+            this.discovery = discovery;
+            return this;
+        }
+
+        public DeviceRegistryBuilder connectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        public DeviceRegistryBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public DeviceRegistryBuilder refreshOnStart(boolean refreshOnStart) {
+            this.refreshOnStart = refreshOnStart;
+            return this;
+        }
+
+        public DeviceRegistryBuilder listener(DeviceListener listener) {
+            this.listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Load saved devices and start background discovery, if it's configured.
+         *
+         * @throws IOException when file exists, but can't be read.
+         */
+        public DeviceRegistry build() throws IOException {
+            if (file == null) {
+                throw new IllegalStateException("File is mandatory field");
+            }
+            if (connectionPool == null) {
+                connectionPool = discovery != null
+                        ? discovery.getConnectionPool()
+                        : new ConnectionPool.ConnectionPoolBuilder().build();
+            }
+            if (executor == null) {
+                executor = task -> {
+                    Thread thread = new Thread(task, "led-discovery");
+                    thread.setDaemon(true);
+                    thread.start();
+                };
+            }
+            DeviceRegistry registry = new DeviceRegistry(this);
+            registry.load();
+            if (discovery != null && refreshOnStart) {
+                registry.refresh();
+            }
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Controller, which answered discovery request: "host,mac,model".
+ */
+public final class DiscoveredDevice {
+    private final String host;
+    private final String mac;
+    private final String model;
+
+    public DiscoveredDevice(String host, String mac, String model) {
+        this.host = host;
+        this.mac = mac;
+        this.model = model;
+    }
+
+    /**
+     * Parse discovery answer.
+     *
+     * @param data   datagram buffer.
+     * @param length length of received datagram, rest of buffer is ignored.
+     * @return device or null, if answer has wrong payload.
+     */
+    static DiscoveredDevice parse(byte[] data, int length) {
+        String[] tokens = new String(data, 0, length, StandardCharsets.US_ASCII).trim().split(",");
+        if (tokens.length != 3 || tokens[0].isEmpty() || tokens[1].isEmpty()) {
+            return null;
+        }
+        return new DiscoveredDevice(tokens[0], tokens[1], tokens[2]);
+    }
+
+    /**
+     * Create controller without opened connection.
+     *
+     * @param pool pool of connections.
+     * @return controller of this device.
+     */
+    public LedController toController(ConnectionPool pool) {
+        return pool.controller(host, mac, model);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getMac() {
+        return mac;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DiscoveredDevice that = (DiscoveredDevice) o;
+
+        return host.equals(that.host) && mac.equals(that.mac) && model.equals(that.model);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = host.hashCode();
+        result = 31 * result + mac.hashCode();
+        result = 31 * result + model.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return host + "," + mac + "," + model;
+    }
+}
@@ -3,34 +3,55 @@ package ru.ittim.openhab.ledbinding.library;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Discovery controllers in LAN
+ * Found controllers use connection pool of finder. Pool, which is created by finder, is closed with finder,
+ * so close finder when its controllers aren't needed anymore.
  * Created by Timofey on 21.06.2016.
  */
-public class DiscoveryFinder implements ControllerFinder {
+public class DiscoveryFinder implements ControllerFinder, Closeable {
     /**
      * From reverse-engineering
      */
-    private static final int DISCOVERY_PORT = 48899;
+    static final int DISCOVERY_PORT = 48899;
     /**
      * From reverse-engineering
      */
-    private static final String DISCOVERY_DATA = "HF-A11ASSISTHREAD";
+    static final String DISCOVERY_DATA = "HF-A11ASSISTHREAD";
 
     private static Logger logger = LoggerFactory.getLogger(DiscoveryFinder.class);
 
     /**
-     * Address for broadcast datagram. For example, for network 192.168.0.xxx (with netmask 255.255.255.0)
+     * Addresses for broadcast datagram. For example, for network 192.168.0.xxx (with netmask 255.255.255.0)
      * this address is 192.168.0.255
      */
-    private final String discoveryAddress;
+    private final List<String> discoveryAddresses;
+
+    /**
+     * UDP port of controllers
+     */
+    private final int discoveryPort;
 
     /**
      * Timeout for wait response from controllers
@@ -42,120 +63,158 @@ public class DiscoveryFinder implements ControllerFinder {
      */
     private final int attempts;
 
+    /**
+     * Connections of found controllers, they are opened on first command
+     */
+    private final ConnectionPool connectionPool;
+
+    /**
+     * Pool is created by finder and closed with it
+     */
+    private final boolean ownPool;
+
+    /**
+     * Receiver of discovery duration
+     */
+    private final ControllerMetrics metrics;
 
-    private DiscoveryFinder(String discoveryAddress, int scanTimeout, int attempts) {
-        this.discoveryAddress = discoveryAddress;
+    private DiscoveryFinder(List<String> discoveryAddresses, int discoveryPort, int scanTimeout, int attempts,
+                            ConnectionPool connectionPool, boolean ownPool, ControllerMetrics metrics) {
+        this.discoveryAddresses = discoveryAddresses;
+        this.discoveryPort = discoveryPort;
         this.scanTimeout = scanTimeout;
         this.attempts = attempts;
+        this.connectionPool = connectionPool;
+        this.ownPool = ownPool;
+        this.metrics = metrics;
     }
 
     /**
      * Discover all devices in provided broadcast group and log info
      *
-     * @param args broadcast address, if not provided - default value 192.168.1.255
+     * @param args broadcast addresses, if not provided - default value 192.168.1.255
      */
     public static void main(String[] args) {
-        if (args.length!=1){
-            logger.info("Provide discovery broadcast address as first argument. By default used 192.168.1.255");
-        }
-        DiscoveryFinder discovery = new DiscoveryFinderBuilder()
-                .discoveryAddress(args.length > 0 ? args[0] : "192.168.1.255")
-                .build();
-        Set<LedController> controllers = discovery.getControllers();
-        controllers.forEach(it->logger.info(it.toString()));
+        if (args.length == 0) {
+            logger.info("Provide discovery broadcast addresses as arguments. By default used 192.168.1.255");
+        }
+        try (DiscoveryFinder discovery = new DiscoveryFinderBuilder()
+                .discoveryAddresses(args.length > 0 ? args : new String[]{"192.168.1.255"})
+                .build()) {
+            long start = System.nanoTime();
+            discovery.discover(it -> logger.info("Found {} in {} ms", it,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
     }
 
     /**
-     * This method broadcast to broadcast address and listen answers (with given timeout), which contains information about detected
-     * devices. This process repeats for a given number of attempts
+     * This method broadcast to broadcast addresses and listen answers (with given timeout), which contains
+     * information about detected devices. This process repeats for a given number of attempts
      *
      * @return set of detected devices
      */
     @Override
     public Set<LedController> getControllers() {
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setBroadcast(true);
-            socket.setSoTimeout(scanTimeout);
-            final HashSet<LedController> result = new HashSet<>();
+        Set<LedController> result = new HashSet<>();
+        discover(it -> result.add(it.toController(connectionPool)));
+        return result;
+    }
+
+    /**
+     * @return connections of found controllers.
+     */
+    ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Close connection pool, if it was created by finder. Pool passed to builder is left open.
+     */
+    @Override
+    public void close() {
+        if (ownPool) {
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Broadcast discovery request to all addresses from one channel and pass every device to listener as soon as
+     * its answer is received. Device is passed once, even if it answered to several requests.
+     * Method returns after the last attempt.
+     *
+     * @param listener receiver of new devices, called in current thread.
+     * @return all detected devices.
+     */
+    public Collection<DiscoveredDevice> discover(Consumer<DiscoveredDevice> listener) {
+        Map<String, DiscoveredDevice> devices = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.bind(null);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            ByteBuffer request = ByteBuffer.wrap(DISCOVERY_DATA.getBytes(StandardCharsets.US_ASCII));
+            ByteBuffer answer = ByteBuffer.allocate(256);
             for (int i = 0; i < attempts; i++) {
                 logger.info("Discovery attempt {}", i);
-                if (sendDiscovery(socket)) {
-                    result.addAll(listenDiscovery(socket));
-                } else {
-                    String message = "Unable send broadcast. " +
-                            "Maybe error in socket creation";
-                    logger.error(message);
-                    throw new RuntimeException(message);
+                sendDiscovery(channel, request);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(scanTimeout);
+                long left;
+                while ((left = deadline - System.nanoTime()) > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                    selector.selectedKeys().clear();
+                    while (channel.receive(answer) != null) {
+                        DiscoveredDevice device = DiscoveredDevice.parse(answer.array(), answer.position());
+                        if (device == null) {
+                            logger.error("Discovery answer has wrong payload: {}",
+                                    new String(answer.array(), 0, answer.position(), StandardCharsets.US_ASCII));
+                        } else if (devices.putIfAbsent(device.getMac(), device) == null) {
+                            logger.info("Found {}", device);
+                            notify(listener, device);
+                        }
+                        answer.clear();
+                    }
                 }
             }
-            return result;
-        } catch (SocketException e) {
+        } catch (IOException e) {
             String message = "Unable send broadcast. " +
                     "Maybe error in socket creation";
             logger.error(message);
             throw new RuntimeException(message, e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        metrics.discoveryRound(System.nanoTime() - start, devices.size());
+        logger.info("Discovery is completed. Found {} devices", devices.size());
+        return Collections.unmodifiableCollection(devices.values());
     }
 
-    private Set<LedController> listenDiscovery(DatagramSocket socket) throws IOException {
-        ArrayList<DatagramPacket> datagramPackets = new ArrayList<>();
-        logger.debug("Listening discovery responses for {}", discoveryAddress);
-        while (true) {
-            byte[] buf = new byte[256];
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
-            try {
-                socket.receive(packet);
-                datagramPackets.add(packet);
-                logger.debug("Received discovery answer #{}", datagramPackets.size());
-            } catch (SocketTimeoutException e) {
-                logger.info("Discovery is completed. Received {} answers", datagramPackets.size());
-                break;
-            } catch (IOException e) {
-                logger.error("Discovery is failed", e);
-                break;
-            }
+    private void notify(Consumer<DiscoveredDevice> listener, DiscoveredDevice device) {
+        try {
+            listener.accept(device);
+        } catch (RuntimeException e) {
+            logger.error("Discovery listener is failed for {}", device, e);
         }
-        return parsePackets(datagramPackets);
     }
 
-    private Set<LedController> parsePackets(List<DatagramPacket> packets) throws IOException {
-        Set<LedController> controllers = new HashSet<>();
-        logger.debug("Parsing {} response(s)", packets.size());
-        for (DatagramPacket packet : packets) {
-            String str = new String(packet.getData());
-            String[] tokens = str.split(",");
-            if (tokens.length != 3) {
-                logger.error("Answer from {} has wrong payload: {}", packet.getSocketAddress(), str);
-            } else {
-                final LedController controller = new LedController(tokens[0], tokens[1], tokens[2]);
-                logger.info("Found {}", str);
-                controllers.add(controller);
-            }
+    private void sendDiscovery(DatagramChannel channel, ByteBuffer request) throws IOException {
+        for (String address : discoveryAddresses) {
+            logger.debug("Sending discovery message to {}", address);
+            request.rewind();
+            channel.send(request, new InetSocketAddress(address, discoveryPort));
         }
-        return controllers;
-    }
-
-    private boolean sendDiscovery(DatagramSocket socket) throws IOException {
-        if (socket != null && socket.isBound()) {
-            byte[] buf = DISCOVERY_DATA.getBytes();
-            DatagramPacket packet = new DatagramPacket(buf, buf.length,
-                    new InetSocketAddress(discoveryAddress, DISCOVERY_PORT));
-            logger.debug("Sending discovery message to {}", discoveryAddress);
-            socket.send(packet);
-            return true;
-        }
-        logger.debug("Datagram socket is null or not bound");
-        return false;
     }
 
     public static final class DiscoveryFinderBuilder {
         /**
-         * Address for broadcast datagram. For example, for network 192.168.0.xxx (with netmask 255.255.255.0)
+         * Addresses for broadcast datagram. For example, for network 192.168.0.xxx (with netmask 255.255.255.0)
          * this address is 192.168.0.255
          */
-        private String discoveryAddress;
+        private final List<String> discoveryAddresses = new ArrayList<>();
+
+        /**
+         * UDP port of controllers
+         */
+        private int discoveryPort = DISCOVERY_PORT;
 
         /**
          * Timeout for wait response from controllers
@@ -167,6 +226,17 @@ public class DiscoveryFinder implements ControllerFinder {
          */
         private int attempts = 2;
 
+        /**
+         * Connections of found controllers. If not provided - pool with blocking sockets is created and closed
+         * with finder
+         */
+        private ConnectionPool connectionPool;
+
+        /**
+         * Receiver of discovery duration. If not provided - metrics of connection pool
+         */
+        private ControllerMetrics metrics;
+
         public DiscoveryFinderBuilder() {
         }
 
@@ -175,7 +245,17 @@ public class DiscoveryFinder implements ControllerFinder {
         }
 
         public DiscoveryFinderBuilder discoveryAddress(String discoveryAddress) {
-            this.discoveryAddress = discoveryAddress;
+            this.discoveryAddresses.add(discoveryAddress);
+            return this;
+        }
+
+        public DiscoveryFinderBuilder discoveryAddresses(String... discoveryAddresses) {
+            this.discoveryAddresses.addAll(Arrays.asList(discoveryAddresses));
+            return this;
+        }
+
+        public DiscoveryFinderBuilder discoveryPort(int discoveryPort) {
+            this.discoveryPort = discoveryPort;
             return this;
         }
 
@@ -189,11 +269,25 @@ public class DiscoveryFinder implements ControllerFinder {
             return this;
         }
 
+        public DiscoveryFinderBuilder connectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        public DiscoveryFinderBuilder metrics(ControllerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public DiscoveryFinder build() {
-            if (discoveryAddress == null) {
+            if (discoveryAddresses.isEmpty()) {
                 throw new IllegalStateException("Discovery address is mandatory field");
             }
-            return new DiscoveryFinder(discoveryAddress, scanTimeout, attempts);
+            ConnectionPool pool = connectionPool != null ? connectionPool : new ConnectionPool.ConnectionPoolBuilder()
+                    .metrics(metrics != null ? metrics : ControllerMetrics.NOOP)
+                    .build();
+            return new DiscoveryFinder(new ArrayList<>(discoveryAddresses), discoveryPort, scanTimeout, attempts,
+                    pool, connectionPool == null, metrics != null ? metrics : pool.getMetrics());
         }
     }
 }
@@ -0,0 +1,42 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * Easing of transition: maps linear progress [0, 1] into eased progress [0, 1].
+ */
+public enum Easing {
+    LINEAR {
+        @Override
+        public double apply(double t) {
+            return t;
+        }
+    },
+    EASE_IN {
+        @Override
+        public double apply(double t) {
+            return t * t;
+        }
+    },
+    EASE_OUT {
+        @Override
+        public double apply(double t) {
+            return t * (2 - t);
+        }
+    },
+    EASE_IN_OUT {
+        @Override
+        public double apply(double t) {
+            return t < 0.5 ? 2 * t * t : -1 + (4 - 2 * t) * t;
+        }
+    },
+    /**
+     * Jump to target value at the end of transition.
+     */
+    STEP {
+        @Override
+        public double apply(double t) {
+            return t < 1 ? 0 : 1;
+        }
+    };
+
+    public abstract double apply(double t);
+}
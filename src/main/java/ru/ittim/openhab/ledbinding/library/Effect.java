@@ -0,0 +1,18 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * Animation computed on client side and played by {@link EffectEngine}.
+ *
+ * @see Effects
+ */
+@FunctionalInterface
+public interface Effect {
+    /**
+     * Compute frame for given moment.
+     *
+     * @param time     nanoseconds since start of effect.
+     * @param channels output: values from 0 to 255 in order r, g, b, ww, cw.
+     * @return false, when effect is finished and given frame is the last one.
+     */
+    boolean render(long time, int[] channels);
+}
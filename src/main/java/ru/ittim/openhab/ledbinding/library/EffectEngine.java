@@ -0,0 +1,364 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Player of client side effects. Frames of all effects are computed by one timer at fixed frame rate and sent
+ * as channel commands. Controller, which has not written previous frame yet, skips the frame, so slow
+ * controller gets fewer frames instead of growing queue. Every controller has own command buffer, which is
+ * reused for all frames. Failed frame is sent again after backoff, controller is left out of effect only after
+ * several failures in a row. Non-blocking transports ({@link NioEventLoop}) are expected, blocking transport
+ * delays the timer.
+ */
+public final class EffectEngine implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EffectEngine.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    /**
+     * Frame interval in nanoseconds.
+     */
+    private final long period;
+    /**
+     * Number of failed frames in a row, after which controller is left out of effect.
+     */
+    private final int failureThreshold;
+    private final long start;
+    /**
+     * Number of next frame, accessed only by timer.
+     */
+    private long frame;
+    private final ScheduledFuture<?> ticker;
+    private final List<Playback> playbacks = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong jitterSum = new AtomicLong();
+    private final AtomicLong jitterMax = new AtomicLong();
+
+    private EffectEngine(EffectEngineBuilder builder) {
+        this.ownScheduler = builder.scheduler == null;
+        this.scheduler = ownScheduler
+                ? Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "led-effects");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : builder.scheduler;
+        this.period = TimeUnit.SECONDS.toNanos(1) / builder.fps;
+        this.failureThreshold = builder.failureThreshold;
+        this.start = System.nanoTime();
+        this.ticker = scheduler.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Start effect on controllers. If controller plays other effect, the newest frame wins.
+     *
+     * @param effect      effect.
+     * @param controllers controllers, which show the same frames.
+     * @return playback, which is completed when the last frame of finite effect is written to all controllers.
+     */
+    public Playback play(Effect effect, Collection<LedController> controllers) {
+        Playback playback = new Playback(effect, controllers);
+        playbacks.add(playback);
+        return playback;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long expected = start + frame * period;
+        long jitter = now - expected;
+        if (jitter >= period) {
+            // timer was delayed: missed frames are skipped instead of sent in a burst
+            long skipped = jitter / period;
+            lateFrames.addAndGet(skipped);
+            frame += skipped;
+            jitter -= skipped * period;
+        }
+        frame++;
+        frames.incrementAndGet();
+        jitterSum.addAndGet(Math.abs(jitter));
+        jitterMax.accumulateAndGet(Math.abs(jitter), Math::max);
+        for (Playback playback : playbacks) {
+            try {
+                if (!playback.tick(now)) {
+                    playbacks.remove(playback);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Effect is failed", e);
+                playbacks.remove(playback);
+                playback.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return number of computed frames.
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * @return number of frames skipped, because timer was late more than frame interval.
+     */
+    public long getLateFrames() {
+        return lateFrames.get();
+    }
+
+    /**
+     * @return number of frames sent to controllers.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of frames not sent to controllers, because previous frame wasn't written yet.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of frames failed by transport.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return average deviation of frame start from schedule.
+     */
+    public long getAverageJitter(TimeUnit unit) {
+        long count = frames.get();
+        return count > 0 ? unit.convert(jitterSum.get() / count, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    /**
+     * @return maximum deviation of frame start from schedule.
+     */
+    public long getMaxJitter(TimeUnit unit) {
+        return unit.convert(jitterMax.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "EffectEngine{" +
+                "fps=" + TimeUnit.SECONDS.toNanos(1) / period +
+                ", playing=" + playbacks.size() +
+                ", frames=" + frames +
+                ", lateFrames=" + lateFrames +
+                ", sent=" + sent +
+                ", dropped=" + dropped +
+                ", failed=" + failed +
+                ", averageJitterUs=" + getAverageJitter(TimeUnit.MICROSECONDS) +
+                '}';
+    }
+
+    /**
+     * Stop all effects.
+     */
+    @Override
+    public void close() {
+        ticker.cancel(false);
+        playbacks.forEach(Playback::cancel);
+        playbacks.clear();
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Effect played on group of controllers.
+     */
+    public final class Playback {
+        private final Effect effect;
+        private final Target[] targets;
+        private final long start = System.nanoTime();
+        /**
+         * Current frame, accessed only by timer.
+         */
+        private final int[] channels = new int[5];
+        /**
+         * Current frame packed by {@link ControllerChannels#pack(int, int, int, int, int)}.
+         */
+        private long packed;
+        private boolean finished;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Playback(Effect effect, Collection<LedController> controllers) {
+            this.effect = effect;
+            this.targets = controllers.stream().map(Target::new).toArray(Target[]::new);
+        }
+
+        /**
+         * @return false, when playback is completed.
+         */
+        private boolean tick(long now) {
+            if (done.isCancelled()) {
+                return false;
+            }
+            if (!finished) {
+                finished = !effect.render(now - start, channels);
+                for (int i = 0; i < channels.length; i++) {
+                    channels[i] = Math.max(0, Math.min(255, channels[i]));
+                }
+                packed = ControllerChannels.pack(channels[0], channels[1], channels[2], channels[3], channels[4]);
+            }
+            boolean delivered = true;
+            for (Target target : targets) {
+                delivered &= target.push(packed, now);
+            }
+            if (finished && delivered) {
+                done.complete(null);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Stop effect, controllers keep the last sent frame.
+         */
+        public void cancel() {
+            done.cancel(false);
+        }
+
+        /**
+         * @return future completed when finite effect is shown or cancelled with effect.
+         */
+        public CompletableFuture<Void> getDone() {
+            return done;
+        }
+    }
+
+    /**
+     * Controller of playback with its reusable command buffer.
+     */
+    private final class Target {
+        private final LedController controller;
+        private final byte[] command = new byte[ControllerChannels.COMMAND_LENGTH];
+        private final ByteBuffer buffer = ByteBuffer.wrap(command);
+        /**
+         * Packed channels of last sent frame, -1 before the first frame. Accessed only by timer.
+         */
+        private long last = -1;
+        private volatile boolean inFlight;
+        /**
+         * Number of failed frames in a row, updated before {@link #inFlight} is reset.
+         */
+        private volatile int failures;
+        /**
+         * Time of the next attempt after failure.
+         */
+        private volatile long retryAt;
+
+        private Target(LedController controller) {
+            this.controller = controller;
+        }
+
+        /**
+         * Send frame, if it differs from last sent one and controller is ready.
+         *
+         * @return true, when given frame is already written or controller is failed too many times.
+         */
+        private boolean push(long packed, long now) {
+            if (failures >= failureThreshold) {
+                return true;
+            }
+            if (packed == last && failures == 0) {
+                return !inFlight;
+            }
+            if (inFlight) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (failures > 0 && now - retryAt < 0) {
+                return false;
+            }
+            last = packed;
+            // buffer isn't used by transport, because previous frame is already written
+            buffer.clear();
+            ControllerChannels.encode(buffer, packed);
+            inFlight = true;
+            sent.incrementAndGet();
+            controller.async().setChannels(ControllerChannels.fromPacked(packed), command)
+                    .whenComplete((state, e) -> {
+                        if (e != null) {
+                            EffectEngine.this.failed.incrementAndGet();
+                            logger.debug("Effect frame is failed for {}", controller, e);
+                            // frame is sent again after 1, 2, 4... frame intervals
+                            retryAt = System.nanoTime() + (period << Math.min(failures, 10));
+                            failures++;
+                        } else {
+                            failures = 0;
+                        }
+                        inFlight = false;
+                    });
+            return false;
+        }
+    }
+
+    public static final class EffectEngineBuilder {
+        /**
+         * Target frame rate.
+         */
+        private int fps = 30;
+        /**
+         * Number of failed frames in a row, after which controller is left out of effect.
+         */
+        private int failureThreshold = 5;
+        /**
+         * Timer for frames. If not provided - own daemon thread is used.
+         */
+        private ScheduledExecutorService scheduler;
+
+        public EffectEngineBuilder() {
+        }
+
+        public static EffectEngineBuilder anEffectEngine() {
+            return new EffectEngineBuilder();
+        }
+
+        public EffectEngineBuilder fps(int fps) {
+            this.fps = fps;
+            return this;
+        }
+
+        public EffectEngineBuilder failureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public EffectEngineBuilder scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public EffectEngine build() {
+            if (fps <= 0 || fps > 1_000) {
+                throw new IllegalStateException("Frame rate must be from 1 to 1000");
+            }
+            if (failureThreshold <= 0) {
+                throw new IllegalStateException("Failure threshold must be positive");
+            }
+            return new EffectEngine(this);
+        }
+    }
+}
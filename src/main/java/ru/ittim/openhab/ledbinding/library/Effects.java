@@ -0,0 +1,190 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of common effects for {@link EffectEngine}.
+ */
+public final class Effects {
+    private Effects() {
+    }
+
+    /**
+     * Transition from one state to another.
+     *
+     * @param from     start channels.
+     * @param to       end channels.
+     * @param duration duration in milliseconds.
+     * @param easing   easing of transition.
+     * @return finite effect.
+     */
+    public static Effect fade(ControllerChannels from, ControllerChannels to, long duration, Easing easing) {
+        return timeline(new Keyframe(0, from, Easing.LINEAR), new Keyframe(duration, to, easing));
+    }
+
+    /**
+     * Endless rotation of hue with given saturation and value, white channels are off.
+     *
+     * @param period     duration of one rotation in milliseconds.
+     * @param saturation saturation from 0 to 1.
+     * @param value      value (brightness) from 0 to 1.
+     * @return endless effect.
+     */
+    public static Effect hsvRotation(long period, double saturation, double value) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        return (time, channels) -> {
+            double hue = (double) (time % periodNanos) / periodNanos;
+            hsvToRgb(hue, saturation, value, channels);
+            channels[3] = 0;
+            channels[4] = 0;
+            return true;
+        };
+    }
+
+    /**
+     * Endless rotation of hue converted by color engine: integer arithmetic, gamma and calibration of fixture.
+     * White channels are used only if engine extracts white.
+     *
+     * @param period     duration of one rotation in milliseconds.
+     * @param saturation saturation from 0 to 255.
+     * @param value      value (brightness) from 0 to 255.
+     * @param engine     calibration of fixture.
+     * @return endless effect.
+     */
+    public static Effect hsvRotation(long period, int saturation, int value, ColorEngine engine) {
+        ControllerChannels.checkValue(saturation);
+        ControllerChannels.checkValue(value);
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        return (time, channels) -> {
+            int hue = (int) (time % periodNanos * ColorEngine.HUE_RANGE / periodNanos);
+            ColorEngine.unpack(engine.hsv(hue, saturation, value), channels);
+            return true;
+        };
+    }
+
+    /**
+     * Endless smooth change of brightness from zero to given channels and back.
+     *
+     * @param channels channels at maximum brightness.
+     * @param period   duration of one breath in milliseconds.
+     * @return endless effect.
+     */
+    public static Effect breathing(ControllerChannels channels, long period) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        int[] max = new int[5];
+        channels.copyTo(max);
+        return (time, out) -> {
+            double phase = (double) (time % periodNanos) / periodNanos;
+            double level = (1 - Math.cos(2 * Math.PI * phase)) / 2;
+            for (int i = 0; i < 5; i++) {
+                out[i] = (int) Math.round(max[i] * level);
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Transitions between keyframes. Before the first keyframe its channels are used,
+     * the effect is finished at the last keyframe.
+     *
+     * @param keyframes keyframes ordered by time.
+     * @return finite effect.
+     */
+    public static Effect timeline(Keyframe... keyframes) {
+        if (keyframes.length == 0) {
+            throw new IllegalArgumentException("Timeline without keyframes");
+        }
+        Keyframe[] frames = keyframes.clone();
+        for (int i = 1; i < frames.length; i++) {
+            if (frames[i].time < frames[i - 1].time) {
+                throw new IllegalArgumentException("Keyframes must be ordered by time");
+            }
+        }
+        return (time, channels) -> {
+            int next = 0;
+            while (next < frames.length && frames[next].time <= time) {
+                next++;
+            }
+            if (next == 0) {
+                System.arraycopy(frames[0].channels, 0, channels, 0, 5);
+                return true;
+            }
+            if (next == frames.length) {
+                System.arraycopy(frames[next - 1].channels, 0, channels, 0, 5);
+                return false;
+            }
+            Keyframe from = frames[next - 1];
+            Keyframe to = frames[next];
+            double t = to.easing.apply((double) (time - from.time) / (to.time - from.time));
+            for (int i = 0; i < 5; i++) {
+                channels[i] = (int) Math.round(from.channels[i] + (to.channels[i] - from.channels[i]) * t);
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Convert HSV color into rgb values from 0 to 255.
+     *
+     * @param hue        hue from 0 to 1.
+     * @param saturation saturation from 0 to 1.
+     * @param value      value from 0 to 1.
+     * @param rgb        output array, first three elements are written.
+     */
+    static void hsvToRgb(double hue, double saturation, double value, int[] rgb) {
+        double h = (hue - Math.floor(hue)) * 6;
+        int sector = (int) h;
+        double f = h - sector;
+        double p = value * (1 - saturation);
+        double q = value * (1 - saturation * f);
+        double t = value * (1 - saturation * (1 - f));
+        double r, g, b;
+        switch (sector) {
+            case 0: r = value; g = t; b = p; break;
+            case 1: r = q; g = value; b = p; break;
+            case 2: r = p; g = value; b = t; break;
+            case 3: r = p; g = q; b = value; break;
+            case 4: r = t; g = p; b = value; break;
+            default: r = value; g = p; b = q; break;
+        }
+        rgb[0] = (int) Math.round(r * 255);
+        rgb[1] = (int) Math.round(g * 255);
+        rgb[2] = (int) Math.round(b * 255);
+    }
+
+    /**
+     * Channels at given moment of {@link #timeline(Keyframe...)}.
+     */
+    public static final class Keyframe {
+        /**
+         * Time since start in nanoseconds.
+         */
+        private final long time;
+        private final int[] channels = new int[5];
+        /**
+         * Easing of transition from previous keyframe to this one.
+         */
+        private final Easing easing;
+
+        /**
+         * @param time     time since start in milliseconds.
+         * @param channels channels at this moment.
+         * @param easing   easing of transition from previous keyframe.
+         */
+        public Keyframe(long time, ControllerChannels channels, Easing easing) {
+            this.time = TimeUnit.MILLISECONDS.toNanos(time);
+            this.easing = easing;
+            channels.copyTo(this.channels);
+        }
+
+        @Override
+        public String toString() {
+            return "Keyframe{" +
+                    "time=" + TimeUnit.NANOSECONDS.toMillis(time) +
+                    ", channels=" + Arrays.toString(channels) +
+                    ", easing=" + easing +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous view of blocking transport. Commands of one controller are executed one by one in order of
+ * submission by one task of executor, so the caller thread isn't blocked and commands aren't reordered.
+ * With virtual thread executor every controller gets cheap own thread only while it has commands.
+ */
+class ExecutorTransport implements ControllerTransport {
+    private final ControllerTransport delegate;
+    private final Executor executor;
+
+    private final Object lock = new Object();
+    /**
+     * Not started commands, guarded by {@link #lock}.
+     */
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    /**
+     * @param delegate blocking transport.
+     * @param executor executor for commands.
+     */
+    ExecutorTransport(ControllerTransport delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(byte[] frame) {
+        return submit(() -> delegate.send(frame));
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ByteBuffer[] frames) {
+        return submit(() -> delegate.send(frames));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+        return submit(() -> delegate.request(frame, responseLength));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+        return submit(() -> delegate.request(frame, responseLength, decoder));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = command.get();
+            } catch (Throwable e) {
+                // failed command doesn't stop drain of next commands
+                result.completeExceptionally(e);
+                return;
+            }
+            future.whenComplete((value, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        boolean start;
+        synchronized (lock) {
+            tasks.add(task);
+            start = !running;
+            running = true;
+        }
+        if (start) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // executor is stopped, commands are executed in caller thread
+                drain();
+            }
+        }
+        return result;
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (lock) {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            task.run();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,150 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Channels of many controllers in one primitive array, indexed by controller id.
+ * Every controller state is one packed long (see {@link ControllerChannels#pack(int, int, int, int, int)}), so
+ * channels are read and changed without allocation. Table is {@link StateListener}: add it to
+ * {@link StatePoller} to keep polled channels.
+ */
+public final class FleetChannels implements StateListener {
+    private final AtomicLongArray channels;
+    private final LedController[] controllers;
+    /**
+     * Ids of controllers, guarded by this.
+     */
+    private final Map<LedController, Integer> ids = new IdentityHashMap<>();
+    /**
+     * Number of added controllers. Controller is written before size, so id less than size is safe to read.
+     */
+    private volatile int size;
+
+    /**
+     * @param capacity maximum number of controllers.
+     */
+    public FleetChannels(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.channels = new AtomicLongArray(capacity);
+        this.controllers = new LedController[capacity];
+    }
+
+    /**
+     * Add controller with its known channels.
+     *
+     * @return id of controller. Controller added twice keeps its id.
+     */
+    public synchronized int add(LedController controller) {
+        Integer id = ids.get(controller);
+        if (id != null) {
+            return id;
+        }
+        int next = size;
+        if (next == controllers.length) {
+            throw new IllegalStateException("Fleet is full: " + next + " controllers");
+        }
+        controllers[next] = controller;
+        channels.set(next, controller.getChannels().getPacked());
+        ids.put(controller, next);
+        size = next + 1;
+        return next;
+    }
+
+    /**
+     * @return id of controller or -1, if it isn't added.
+     */
+    public synchronized int indexOf(LedController controller) {
+        Integer id = ids.get(controller);
+        return id != null ? id : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LedController getController(int id) {
+        return controllers[checkId(id)];
+    }
+
+    /**
+     * @return packed channels of controller.
+     */
+    public long get(int id) {
+        return channels.get(checkId(id));
+    }
+
+    /**
+     * @return channel value from 0 to 255.
+     */
+    public int getChannel(int id, int channel) {
+        return ControllerChannels.channel(get(id), channel);
+    }
+
+    public ControllerChannels getChannels(int id) {
+        return ControllerChannels.fromPacked(get(id));
+    }
+
+    /**
+     * @param packed channels packed by {@link ControllerChannels#pack(int, int, int, int, int)}.
+     */
+    public void set(int id, long packed) {
+        channels.set(checkId(id), packed & 0xFF_FF_FF_FF_FFL);
+    }
+
+    /**
+     * Change one channel, concurrent changes of other channels are kept.
+     *
+     * @param channel channel index, for example {@link ControllerChannels#R}.
+     * @param value   value from 0 to 255.
+     */
+    public void setChannel(int id, int channel, int value) {
+        checkId(id);
+        long previous;
+        do {
+            previous = channels.get(id);
+        } while (!channels.compareAndSet(id, previous, ControllerChannels.withChannel(previous, channel, value)));
+    }
+
+    /**
+     * Write channels command of controller ({@link ControllerChannels#COMMAND_LENGTH} bytes) to buffer.
+     */
+    public void encode(int id, ByteBuffer buffer) {
+        ControllerChannels.encode(buffer, get(id));
+    }
+
+    /**
+     * Send channels from table to controller.
+     */
+    public CompletableFuture<ControllerState> send(int id) {
+        return getController(id).async().setChannels(getChannels(id));
+    }
+
+    @Override
+    public void stateChanged(LedController controller, ControllerState previous, ControllerState current) {
+        int id = indexOf(controller);
+        if (id >= 0) {
+            channels.set(id, current.getChannels().getPacked());
+        }
+    }
+
+    private int checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown controller id " + id);
+        }
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "FleetChannels{" +
+                "size=" + size +
+                ", capacity=" + controllers.length +
+                '}';
+    }
+}
@@ -0,0 +1,436 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Long-running discovery of fleet. Unlike {@link DiscoveryFinder}, tracker keeps one UDP channel open, repeats
+ * discovery request with jittered interval and applies only membership changes: new devices are added, devices with
+ * new address are replaced by controllers with new host and devices, which didn't answer several rounds in a row,
+ * are removed. Controllers of known devices are kept between rounds, so their connections aren't reopened.
+ * <p>
+ * Channel is served by own daemon thread, listeners are called in this thread and must not block.
+ */
+public final class FleetTracker implements ControllerFinder, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FleetTracker.class);
+
+    private final List<InetSocketAddress> discoveryAddresses;
+    private final long interval;
+    private final long jitter;
+    private final int missedRounds;
+    private final ConnectionPool connectionPool;
+    /**
+     * Pool is created by tracker and closed with it.
+     */
+    private final boolean ownPool;
+    private final ControllerMetrics metrics;
+    private final List<FleetListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Members by MAC, changed only by tracker thread.
+     */
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile boolean probeRequested;
+    /**
+     * Number of started rounds, changed only by tracker thread.
+     */
+    private volatile long round;
+
+    private FleetTracker(FleetTrackerBuilder builder, ConnectionPool connectionPool, boolean ownPool,
+                         ControllerMetrics metrics) throws IOException {
+        this.discoveryAddresses = new ArrayList<>();
+        for (String address : builder.discoveryAddresses) {
+            discoveryAddresses.add(new InetSocketAddress(address, builder.discoveryPort));
+        }
+        this.interval = TimeUnit.MILLISECONDS.toNanos(builder.interval);
+        this.jitter = TimeUnit.MILLISECONDS.toNanos(builder.jitter);
+        this.missedRounds = builder.missedRounds;
+        this.connectionPool = connectionPool;
+        this.ownPool = ownPool;
+        this.metrics = metrics;
+        this.listeners.addAll(builder.listeners);
+        this.selector = Selector.open();
+        try {
+            this.channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.bind(null);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "led-fleet-tracker");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Receiver of membership changes.
+     */
+    public interface FleetListener {
+        /**
+         * Device answered first time.
+         */
+        default void added(LedController controller) {
+        }
+
+        /**
+         * Device answered from other address or with other model.
+         *
+         * @param previous controller with old address, it isn't used by tracker anymore.
+         * @param current  controller with new address and state of previous controller.
+         */
+        default void moved(LedController previous, LedController current) {
+        }
+
+        /**
+         * Device didn't answer several rounds in a row.
+         */
+        default void removed(LedController controller) {
+        }
+    }
+
+    /**
+     * @return current members without network requests.
+     */
+    @Override
+    public Set<LedController> getControllers() {
+        Set<LedController> result = new HashSet<>();
+        for (Member member : members.values()) {
+            result.add(member.controller);
+        }
+        return result;
+    }
+
+    /**
+     * @return controller of device or null for unknown device.
+     */
+    public LedController getController(String mac) {
+        Member member = members.get(mac);
+        return member != null ? member.controller : null;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return number of sent discovery rounds.
+     */
+    public long getRounds() {
+        return round;
+    }
+
+    public void addListener(FleetListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(FleetListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Repeat discovery request at once, for example after network change, so new and moved devices are found
+     * without waiting for interval. Current round isn't closed, devices have the whole round to answer and
+     * frequent refreshes don't count as missed rounds.
+     */
+    public void refresh() {
+        probeRequested = true;
+        selector.wakeup();
+    }
+
+    private void run() {
+        ByteBuffer request = ByteBuffer.wrap(DiscoveryFinder.DISCOVERY_DATA.getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer answer = ByteBuffer.allocate(256);
+        long roundStart = 0;
+        long nextProbe = System.nanoTime();
+        while (!closed) {
+            try {
+                long now = System.nanoTime();
+                if (probeRequested && now - nextProbe < 0) {
+                    probeRequested = false;
+                    sendDiscovery(request);
+                }
+                if (now - nextProbe >= 0) {
+                    probeRequested = false;
+                    if (round > 0) {
+                        finishRound(now - roundStart);
+                    }
+                    round++;
+                    roundStart = now;
+                    nextProbe = now + interval + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+                    sendDiscovery(request);
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextProbe - now)));
+                selector.selectedKeys().clear();
+                while (channel.receive(answer) != null) {
+                    DiscoveredDevice device = DiscoveredDevice.parse(answer.array(), answer.position());
+                    if (device == null) {
+                        logger.error("Discovery answer has wrong payload: {}",
+                                new String(answer.array(), 0, answer.position(), StandardCharsets.US_ASCII));
+                    } else {
+                        seen(device);
+                    }
+                    answer.clear();
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                logger.error("Fleet discovery is failed", e);
+                LockSupport.parkNanos(Math.max(0, nextProbe - System.nanoTime()));
+            }
+        }
+    }
+
+    private void sendDiscovery(ByteBuffer request) throws IOException {
+        for (InetSocketAddress address : discoveryAddresses) {
+            request.rewind();
+            channel.send(request, address);
+        }
+    }
+
+    private void seen(DiscoveredDevice device) {
+        Member member = members.get(device.getMac());
+        if (member == null) {
+            LedController controller = device.toController(connectionPool);
+            members.put(device.getMac(), new Member(controller, round));
+            logger.info("Device {} is added", device);
+            for (FleetListener listener : listeners) {
+                try {
+                    listener.added(controller);
+                } catch (RuntimeException e) {
+                    logger.error("Fleet listener is failed for {}", device, e);
+                }
+            }
+        } else if (member.controller.getHost().equals(device.getHost())
+                && member.controller.getModel().equals(device.getModel())) {
+            member.lastSeen = round;
+        } else {
+            LedController previous = member.controller;
+            LedController current = device.toController(connectionPool);
+            ControllerState state = previous.getState();
+            current.updateState(it -> state);
+            members.put(device.getMac(), new Member(current, round));
+            logger.info("Device {} is moved from {} to {}", device.getMac(), previous.getHost(), device.getHost());
+            for (FleetListener listener : listeners) {
+                try {
+                    listener.moved(previous, current);
+                } catch (RuntimeException e) {
+                    logger.error("Fleet listener is failed for {}", device, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report duration of finished round and remove devices, which missed too many rounds.
+     */
+    private void finishRound(long nanos) {
+        int answered = 0;
+        Iterator<Member> iterator = members.values().iterator();
+        while (iterator.hasNext()) {
+            Member member = iterator.next();
+            if (member.lastSeen == round) {
+                answered++;
+            } else if (round - member.lastSeen >= missedRounds) {
+                iterator.remove();
+                logger.info("Device {} is removed after {} rounds without answer",
+                        member.controller.getMac(), missedRounds);
+                for (FleetListener listener : listeners) {
+                    try {
+                        listener.removed(member.controller);
+                    } catch (RuntimeException e) {
+                        logger.error("Fleet listener is failed for {}", member.controller, e);
+                    }
+                }
+            }
+        }
+        metrics.discoveryRound(nanos, answered);
+    }
+
+    /**
+     * Stop tracking and close channel. Connection pool is closed, if it was created by tracker,
+     * pool passed to builder is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(interval) + 1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } finally {
+            selector.close();
+            if (ownPool) {
+                connectionPool.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FleetTracker{" +
+                "addresses=" + discoveryAddresses +
+                ", members=" + members.size() +
+                ", rounds=" + round +
+                '}';
+    }
+
+    private static final class Member {
+        private final LedController controller;
+        /**
+         * Last round with answer of device.
+         */
+        private volatile long lastSeen;
+
+        private Member(LedController controller, long lastSeen) {
+            this.controller = controller;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    public static final class FleetTrackerBuilder {
+        /**
+         * Addresses for broadcast datagram, for example 192.168.0.255.
+         */
+        private final List<String> discoveryAddresses = new ArrayList<>();
+        private int discoveryPort = DiscoveryFinder.DISCOVERY_PORT;
+        /**
+         * Mean pause between rounds in milliseconds.
+         */
+        private long interval = 60_000;
+        /**
+         * Maximum random deviation of interval in milliseconds, so trackers of several hosts don't probe at once.
+         */
+        private long jitter = 5_000;
+        /**
+         * Number of rounds in a row without answer, after which device is removed.
+         */
+        private int missedRounds = 3;
+        /**
+         * Connections of tracked controllers. If not provided - pool with blocking sockets is created and closed
+         * with tracker.
+         */
+        private ConnectionPool connectionPool;
+        /**
+         * Receiver of round durations. If not provided - metrics of connection pool.
+         */
+        private ControllerMetrics metrics;
+        private final List<FleetListener> listeners = new ArrayList<>();
+
+        public FleetTrackerBuilder() {
+        }
+
+        public static FleetTrackerBuilder aFleetTracker() {
+            return new FleetTrackerBuilder();
+        }
+
+        public FleetTrackerBuilder discoveryAddress(String discoveryAddress) {
+            this.discoveryAddresses.add(discoveryAddress);
+            return this;
+        }
+
+        public FleetTrackerBuilder discoveryAddresses(String... discoveryAddresses) {
+            this.discoveryAddresses.addAll(Arrays.asList(discoveryAddresses));
+            return this;
+        }
+
+        public FleetTrackerBuilder discoveryPort(int discoveryPort) {
+            this.discoveryPort = discoveryPort;
+            return this;
+        }
+
+        public FleetTrackerBuilder interval(long interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        public FleetTrackerBuilder jitter(long jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        public FleetTrackerBuilder missedRounds(int missedRounds) {
+            this.missedRounds = missedRounds;
+            return this;
+        }
+
+        public FleetTrackerBuilder connectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        public FleetTrackerBuilder metrics(ControllerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public FleetTrackerBuilder listener(FleetListener listener) {
+            this.listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Open channel and start the first round.
+         *
+         * @throws IOException when channel can't be opened.
+         */
+        public FleetTracker build() throws IOException {
+            if (discoveryAddresses.isEmpty()) {
+                throw new IllegalStateException("Discovery address is mandatory field");
+            }
+            if (interval <= 0 || jitter < 0 || jitter >= interval) {
+                throw new IllegalStateException("Jitter must be less than positive interval");
+            }
+            if (missedRounds < 1) {
+                throw new IllegalStateException("At least one missed round is required");
+            }
+            ConnectionPool pool = connectionPool != null ? connectionPool : new ConnectionPool.ConnectionPoolBuilder()
+                    .metrics(metrics != null ? metrics : ControllerMetrics.NOOP)
+                    .build();
+            FleetTracker tracker;
+            try {
+                tracker = new FleetTracker(this, pool, connectionPool == null,
+                        metrics != null ? metrics : pool.getMetrics());
+            } catch (IOException e) {
+                if (connectionPool == null) {
+                    pool.close();
+                }
+                throw e;
+            }
+            tracker.thread.start();
+            return tracker;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Framing of controller answers. Answer is recognized by its first byte, so several requests can be in flight
+ * on one connection and every answer is matched with request of the same type.
+ * Decoder keeps one receive buffer for whole connection: frames are found and decoded in this buffer without
+ * copies. Unknown bytes and frames with wrong checksum are skipped byte by byte, so decoder resynchronizes
+ * on the next valid frame after garbage.
+ */
+final class FrameDecoder {
+    /**
+     * First byte of state answer, the same as first byte of state request.
+     */
+    static final byte STATE_HEADER = (byte) 0x81;
+    /**
+     * First byte of power answer: controller echoes power command.
+     */
+    static final byte POWER_HEADER = 0x71;
+    /**
+     * Second byte of state answer.
+     */
+    private static final byte STATE_MARKER = 0x25;
+
+    /**
+     * Copy of answer for {@link ControllerTransport#request(byte[], int)}.
+     */
+    static final ResponseDecoder<byte[]> BYTES = (buffer, offset, length) -> {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    };
+
+    /**
+     * Received and not consumed bytes: in write mode while bytes are received, in read mode while frames
+     * are handled.
+     */
+    private final ByteBuffer inbound;
+    private boolean reading;
+
+    /**
+     * @param capacity size of receive buffer, must be greater than the longest frame.
+     */
+    FrameDecoder(int capacity) {
+        this.inbound = ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Length of frame by its first byte.
+     */
+    @FunctionalInterface
+    interface FrameLength {
+        /**
+         * @return length of frame with checksum or -1 for byte, which doesn't start frame.
+         */
+        int length(byte header);
+    }
+
+    /**
+     * @return buffer for received bytes in write mode.
+     */
+    ByteBuffer inbound() {
+        return inbound;
+    }
+
+    /**
+     * Find the next complete frame with valid checksum. Call {@link #consume(int)} after frame is handled and
+     * {@link #compact()} when no more frames are found.
+     *
+     * @param lengths length of frame by first byte.
+     * @return length of frame, which starts at {@link #position()}, or 0, when more bytes are needed.
+     */
+    int next(FrameLength lengths) {
+        if (!reading) {
+            inbound.flip();
+            reading = true;
+        }
+        while (inbound.hasRemaining()) {
+            int start = inbound.position();
+            int length = lengths.length(inbound.get(start));
+            if (length <= 0) {
+                inbound.position(start + 1);
+                continue;
+            }
+            if (inbound.remaining() < length) {
+                return 0;
+            }
+            if (!isChecksumValid(inbound, start, length)) {
+                inbound.position(start + 1);
+                continue;
+            }
+            return length;
+        }
+        return 0;
+    }
+
+    /**
+     * @return index of current frame in {@link #buffer()}.
+     */
+    int position() {
+        return inbound.position();
+    }
+
+    /**
+     * @return buffer with current frame, read with absolute gets.
+     */
+    ByteBuffer buffer() {
+        return inbound;
+    }
+
+    /**
+     * Skip handled frame.
+     */
+    void consume(int length) {
+        inbound.position(inbound.position() + length);
+    }
+
+    /**
+     * Keep not handled bytes and switch buffer to write mode.
+     */
+    void compact() {
+        if (reading) {
+            inbound.compact();
+            reading = false;
+        }
+    }
+
+    /**
+     * Length of answer by its first byte.
+     *
+     * @param header first byte of answer.
+     * @return length of answer with checksum or -1 for unknown byte, which must be skipped.
+     */
+    static int responseLength(byte header) {
+        switch (header) {
+            case STATE_HEADER:
+                return ControllerState.RESPONSE_LENGTH;
+            case POWER_HEADER:
+                return PowerState.COMMAND_LENGTH;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Length of command, which is sent to controller, by its first byte.
+     *
+     * @param header first byte of command.
+     * @return length of command with checksum or -1 for unknown byte, which must be skipped.
+     */
+    static int commandLength(byte header) {
+        switch (header) {
+            case STATE_HEADER:
+                return LedController.REQUEST_STATE_MSG.length;
+            case POWER_HEADER:
+                return PowerState.COMMAND_LENGTH;
+            case 0x31:
+                return ControllerChannels.COMMAND_LENGTH / 2;
+            case 0x61:
+                return FunctionalModeRgb.COMMAND_LENGTH;
+            case CustomProgram.HEADER:
+                return CustomProgram.COMMAND_LENGTH;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return true, when the last byte of frame is sum of other bytes.
+     */
+    static boolean isChecksumValid(ByteBuffer buffer, int offset, int length) {
+        byte checkSum = 0;
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i++) {
+            checkSum += buffer.get(i);
+        }
+        return checkSum == buffer.get(end);
+    }
+
+    /**
+     * Decode state answer in place through constant-time lookups of type, power and mode.
+     *
+     * @throws ProtocolException when answer has wrong length, header or checksum.
+     */
+    static ControllerState decodeState(ByteBuffer buffer, int offset, int length) throws ProtocolException {
+        if (length != ControllerState.RESPONSE_LENGTH) {
+            throw new ProtocolException("Received response message with incorrect length " + length);
+        }
+        if (buffer.get(offset) != STATE_HEADER || buffer.get(offset + 1) != STATE_MARKER) {
+            throw new ProtocolException("Wrong response message structure");
+        }
+        if (!isChecksumValid(buffer, offset, length)) {
+            throw new ProtocolException("Wrong checksum of response message");
+        }
+        return new ControllerState(
+                ControllerType.get(buffer.get(offset + 12)),
+                PowerState.get(buffer.get(offset + 2)),
+                FunctionalModeRgb.get(buffer.get(offset + 3)),
+                buffer.get(offset + 5),
+                ControllerChannels.fromPacked(ControllerChannels.pack(buffer.get(offset + 6), buffer.get(offset + 7),
+                        buffer.get(offset + 8), buffer.get(offset + 9), buffer.get(offset + 11))));
+    }
+}
@@ -1,15 +1,19 @@
 package ru.ittim.openhab.ledbinding.library;
 
+import java.nio.ByteBuffer;
+
 /**
- * Functional modes for RGB, RGBW, RGBWW and speed for selected mode
+ * Functional modes for RGB, RGBW, RGBWW. Speed of mode is kept in {@link ControllerState}.
  * Created by Timofey on 23.06.2016.
- * // TODO: 04.07.2016 take out speed from enum!!! in bean, contains FunctionalModeRgb and speed
  */
 public enum FunctionalModeRgb {
     // TODO: 23.06.2016 Music, Microphone, Photo
-    // Todo Preset mode
     UNKNOWN(0xffff),
     NONE(0x61),
+    /**
+     * Program uploaded by {@link CustomProgram}, it has no own command. Device reports it as 0x60 in state answer.
+     */
+    CUSTOM(0x60),
     SEVEN_COLOR(0x25),
     RED_GRADUAL_CHAGE(0x26),
     GREEN_GRADUAL_CHAGE(0x27),
@@ -31,63 +35,100 @@ public enum FunctionalModeRgb {
     WHITE_STROBE_FADE(0x37),
     SEVEN_COLOR_CROSS_JUMP(0x38);
 
-    private final int id;
     /**
-     * speed 31 (min speed) - 1(max speed)
+     * Length of command with checksum.
      */
-    private int speed = 0x1f;
+    public static final int COMMAND_LENGTH = 5;
+
+    /**
+     * Minimal speed: 31 (min speed) - 1 (max speed).
+     */
+    public static final int DEFAULT_SPEED = 0x1f;
+
+    private final int id;
 
     FunctionalModeRgb(int id) {
         this.id = id;
     }
 
-    public static FunctionalModeRgb get(int id) {
+    /**
+     * Modes by low byte of id, for lookup without copy and scan of {@link #values()}.
+     */
+    private static final FunctionalModeRgb[] BY_ID = new FunctionalModeRgb[256];
+
+    static {
         for (FunctionalModeRgb mode : values()) {
-            if (id == mode.id) {
-                return mode;
+            if (mode != UNKNOWN) {
+                BY_ID[mode.id & 0xFF] = mode;
             }
         }
-        return UNKNOWN;
     }
 
-    public int getSpeed() {
-        return speed;
+    public static FunctionalModeRgb get(int id) {
+        FunctionalModeRgb mode = BY_ID[id & 0xFF];
+        return mode != null && mode.id == id ? mode : UNKNOWN;
+    }
+
+    /**
+     * @return id, which is sent in commands and state answer.
+     */
+    int getId() {
+        return id;
     }
 
     /**
      * transform speed to percents(f: [31 - 1] -> [0 100]
+     * @param speed speed 31 (min speed) - 1(max speed)
      * @return speed in percent
      */
-    public int getPercentSpeed() {
+    public static int toPercentSpeed(int speed) {
         return (-speed + 31) * 10 / 3;
     }
 
-    public FunctionalModeRgb setSpeed(int speed) {
-        this.speed = speed;
-        return this;
-    }
-
     /**
-     * set speed in percents(f: [0 100] -> ]31 - 1]
-     * @param speed in percents
-     * @return
+     * transform speed in percents(f: [0 100] -> ]31 - 1]
+     * @param percent speed in percents
+     * @return speed 31 (min speed) - 1(max speed)
      */
-    public FunctionalModeRgb setPercentSpeed(int speed) {
-        if ((speed < 0) || (speed > 100)) {
+    public static int fromPercentSpeed(int percent) {
+        if ((percent < 0) || (percent > 100)) {
             throw new IllegalArgumentException("Speed must be in interval [0, 100]");
         }
-        this.speed = -(speed * 3 / 10 - 31);
-        return this;
+        return -(percent * 3 / 10 - 31);
     }
 
+    /**
+     * @return command with {@link #DEFAULT_SPEED}.
+     */
     public byte[] getCommand() {
+        return getCommand(DEFAULT_SPEED);
+    }
+
+    /**
+     * @param speed speed 31 (min speed) - 1(max speed)
+     * @return command with given speed.
+     */
+    public byte[] getCommand(int speed) {
+        ByteBuffer buffer = ByteBuffer.allocate(COMMAND_LENGTH);
+        encode(buffer, speed);
+        return buffer.array();
+    }
+
+    /**
+     * Write command ({@link #COMMAND_LENGTH} bytes) to buffer. {@link #CUSTOM} mode is set by
+     * {@link CustomProgram#encode(ByteBuffer)}.
+     * @param buffer buffer with enough remaining space
+     * @param speed speed 31 (min speed) - 1(max speed)
+     */
+    public void encode(ByteBuffer buffer, int speed) {
         if ((this.id >= 0x25) && (this.id <= 0x38)) {
-            byte[] command = new byte[4];
-            command[0] = 0x61;
-            command[1] = (byte) this.id;
-            command[2] = (byte) this.speed;
-            command[3] = 0x0f;
-            return Utils.withCheckSum(command);
+            int start = buffer.position();
+            buffer.put((byte) 0x61)
+                    .put((byte) this.id)
+                    .put((byte) speed)
+                    .put((byte) 0x0f);
+            Utils.putCheckSum(buffer, start);
+            return;
         }
         throw new UnsupportedOperationException("Command doesn't exist for this mode");
     }
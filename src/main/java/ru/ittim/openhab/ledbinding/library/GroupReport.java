@@ -0,0 +1,130 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of one {@link ControllerGroup} command for every member.
+ */
+public final class GroupReport {
+    private final List<MemberResult> results;
+
+    GroupReport(List<MemberResult> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return results in order of group members.
+     */
+    public List<MemberResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @return number of members, which applied command.
+     */
+    public int getSucceeded() {
+        return (int) results.stream().filter(MemberResult::isSucceeded).count();
+    }
+
+    /**
+     * @return number of members, which failed or didn't complete command in time.
+     */
+    public int getFailed() {
+        return results.size() - getSucceeded();
+    }
+
+    /**
+     * Time between first and last member completion. It shows, how synchronously lights are changed.
+     *
+     * @param unit unit of result.
+     * @return spread between successful members or 0, if there are less than two successful members.
+     */
+    public long getSpread(TimeUnit unit) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (MemberResult result : results) {
+            if (result.isSucceeded()) {
+                first = Math.min(first, result.completed);
+                last = Math.max(last, result.completed);
+            }
+        }
+        return first < last ? unit.convert(last - first, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupReport{" +
+                "members=" + results.size() +
+                ", succeeded=" + getSucceeded() +
+                ", failed=" + getFailed() +
+                ", spread=" + getSpread(TimeUnit.MICROSECONDS) + "us" +
+                '}';
+    }
+
+    /**
+     * Result of command for one member.
+     */
+    public static final class MemberResult {
+        private final LedController controller;
+        private final ControllerState state;
+        private final Throwable error;
+        /**
+         * {@link System#nanoTime()} of command start.
+         */
+        private final long started;
+        /**
+         * {@link System#nanoTime()} of command completion.
+         */
+        private final long completed;
+
+        MemberResult(LedController controller, ControllerState state, Throwable error, long started, long completed) {
+            this.controller = controller;
+            this.state = state;
+            this.error = error;
+            this.started = started;
+            this.completed = completed;
+        }
+
+        public LedController getController() {
+            return controller;
+        }
+
+        public boolean isSucceeded() {
+            return error == null;
+        }
+
+        /**
+         * @return state after command or null, if command is failed.
+         */
+        public ControllerState getState() {
+            return state;
+        }
+
+        /**
+         * @return reason of fail or null, if command is succeeded.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @param unit unit of result.
+         * @return time between command start and completion.
+         */
+        public long getLatency(TimeUnit unit) {
+            return unit.convert(completed - started, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "MemberResult{" +
+                    "host='" + controller.getHost() + '\'' +
+                    ", succeeded=" + isSucceeded() +
+                    ", latency=" + getLatency(TimeUnit.MICROSECONDS) + "us" +
+                    (error != null ? ", error=" + error : "") +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers of timed out requests, which can still be received. Answer is matched with request only by first byte,
+ * so late answer would be taken as answer of the next request of the same type and every next answer would be
+ * shifted by one. Late answer is expected during one more response timeout, after that it's considered lost.
+ * Not thread safe, guarded by transport.
+ */
+final class LateAnswers {
+    /**
+     * Time of waiting for late answer in nanoseconds.
+     */
+    private final long window;
+    /**
+     * Expected answers in order of timeout, so the oldest one expires first.
+     */
+    private final ArrayDeque<Late> expected = new ArrayDeque<>();
+
+    /**
+     * @param responseTimeout response timeout in milliseconds.
+     */
+    LateAnswers(int responseTimeout) {
+        this.window = TimeUnit.MILLISECONDS.toNanos(responseTimeout);
+    }
+
+    /**
+     * Expect answer of timed out request.
+     *
+     * @param header first byte of request.
+     */
+    void expect(byte header) {
+        expected.add(new Late(header, System.nanoTime() + window));
+    }
+
+    /**
+     * @param header first byte of received answer.
+     * @return true if answer is late answer of timed out request and must be skipped.
+     */
+    boolean skip(byte header) {
+        long now = System.nanoTime();
+        while (!expected.isEmpty() && expected.peek().expires - now < 0) {
+            expected.poll();
+        }
+        Iterator<Late> iterator = expected.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().header == header) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Late {
+        private final byte header;
+        private final long expires;
+
+        private Late(byte header, long expires) {
+            this.header = header;
+            this.expires = expires;
+        }
+    }
+}
@@ -3,56 +3,93 @@ package ru.ittim.openhab.ledbinding.library;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * MagicHome wifi led controller
  * Created by Timofey on 21.06.2016.
  */
-public class LedController {
+public class LedController implements Closeable {
     //From reverse engineering (Controller bought in May 2016, v1)
-    private final static int DEFAULT_CONTROLLER_PORT = 5577;
+    final static int DEFAULT_CONTROLLER_PORT = 5577;
     private final static Logger logger = LoggerFactory.getLogger(LedController.class);
 
-    private final static byte[] REQUEST_STATE_MSG = {(byte) 0x81, (byte) 0x8a, (byte) 0x8b, (byte) 0x96};
+    final static byte[] REQUEST_STATE_MSG = {(byte) 0x81, (byte) 0x8a, (byte) 0x8b, (byte) 0x96};
     /**
      * in milliseconds
      *
      * @see Socket#setSoTimeout(int)
      */
-    private static final int TIMEOUT = 1000;
+    static final int TIMEOUT = 1000;
+    /**
+     * Time in milliseconds, which command can spend in {@link CommandQueue} and executor in addition to deadlines
+     * of transport.
+     */
+    private static final int AWAIT_MARGIN = 500;
 
     private final String host;
     private final String mac;
     private final String model;
-    private ControllerType type;
-    private PowerState power;
-    private FunctionalModeRgb mode;
-    private ControllerChannels channels = ControllerChannels.fromPercents(0, 0, 0, 0, 0);
+    /**
+     * Last known state: received from controller or set by command. Updated by compare-and-set, so concurrent
+     * updates of different fields are merged.
+     */
+    private final AtomicReference<ControllerState> state = new AtomicReference<>(new ControllerState(
+            ControllerType.UNKNOWN, PowerState.UNKNOWN, FunctionalModeRgb.UNKNOWN, FunctionalModeRgb.DEFAULT_SPEED,
+            ControllerChannels.fromPercents(0, 0, 0, 0, 0)));
 
     /**
      * message exchange with controller
      */
-    private Socket socket;
+    private final ControllerTransport transport;
+    private final CommandQueue queue;
+    private final AsyncLedController async;
+    /**
+     * Wait limit of blocking API in milliseconds.
+     */
+    private final long awaitTimeout;
 
     public LedController(String host, String mac, String model) throws IOException {
+        this(host, mac, model, new SocketTransport(host, DEFAULT_CONTROLLER_PORT, Deadlines.DEFAULT, false));
+    }
+
+    LedController(String host, String mac, String model, ControllerTransport transport) {
+        this(host, mac, model, transport, new CommandQueue(transport, 0, null));
+    }
+
+    LedController(String host, String mac, String model, ControllerTransport transport, CommandQueue queue) {
+        this(host, mac, model, transport, queue, Deadlines.DEFAULT);
+    }
+
+    /**
+     * @param deadlines deadlines of transport, blocking API waits until all phases of request are over.
+     */
+    LedController(String host, String mac, String model, ControllerTransport transport, CommandQueue queue,
+                  Deadlines deadlines) {
+        this.awaitTimeout = (long) deadlines.getConnect() + deadlines.getWrite() + deadlines.getResponse()
+                + AWAIT_MARGIN;
         this.host = host;
         this.mac = mac;
         this.model = model;
-        this.type = ControllerType.UNKNOWN;
-        this.power = PowerState.UNKNOWN;
-        this.mode = FunctionalModeRgb.UNKNOWN;
-
-        socket = new Socket(host, DEFAULT_CONTROLLER_PORT);
-        socket.setSoTimeout(TIMEOUT);
+        this.transport = transport;
+        this.queue = queue;
+        this.async = new AsyncLedController(this, transport, queue);
     }
 
     /**
@@ -71,44 +108,26 @@ public class LedController {
                 .discoveryAddress(args.length > 0 ? args[0] : "192.168.1.255")
                 .build();
         Set<LedController> controllers = discovery.getControllers();
-        controllers.forEach(it -> {
-            try {
-                it.init();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            logger.info("Initialized controller {}", it.toString());
-        });
+        // blocking sockets are used, so commands are started in own (virtual, if supported) threads
+        ExecutorService executor = ControllerExecutors.newBlockingIoExecutor("led-io");
+        ControllerGroup group = new ControllerGroup.ControllerGroupBuilder()
+                .addAll(controllers)
+                .executor(executor)
+                .build();
+        logger.info("Initialized controllers {}", group.init().join());
+        controllers.forEach(it -> logger.info("Initialized controller {}", it.toString()));
         switch (args.length > 1 ? args[1] : "RANDOM") {
             case "ON":
-                controllers.forEach(it -> {
-                    try {
-                        it.turnOn();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    logger.info("Maximum light for {}", it);
-                });
+                logger.info("Maximum light {}", group.turnOn().join());
                 break;
             case "OFF":
-                controllers.forEach(it -> {
-                    try {
-                        it.turnOff();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    logger.info("Turn off {}", it);
-                });
+                logger.info("Turn off {}", group.turnOff().join());
                 break;
             case "RANDOM":
+                logger.info("Turn on {}", group.turnOn().join());
                 final Random random = new Random();
                 Supplier<Integer> r = () -> random.nextInt(100);
                 controllers.forEach(it -> {
-                    try {
-                        it.turnOn();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
                     try {
                         it.setChannels(ControllerChannels.fromPercents(r.get(), r.get(), r.get(), r.get(), r.get()));
                     } catch (IOException e) {
@@ -120,6 +139,8 @@ public class LedController {
             default:
                 throw new RuntimeException("Unsupported operation type " + args[1]);
         }
+        executor.shutdown();
+        discovery.close();
     }
 
     public String getHost() {
@@ -135,15 +156,56 @@ public class LedController {
     }
 
     public ControllerType getType() {
-        return type;
+        return state.get().getType();
     }
 
     public PowerState getPower() {
-        return power;
+        return state.get().getPower();
     }
 
     public FunctionalModeRgb getMode() {
-        return mode;
+        return state.get().getMode();
+    }
+
+    /**
+     * @return snapshot of last known state.
+     */
+    public ControllerState getState() {
+        return state.get();
+    }
+
+    /**
+     * Update last known state atomically.
+     *
+     * @param update new state from current, without side effects, because it can be called several times.
+     * @return new state.
+     */
+    ControllerState updateState(UnaryOperator<ControllerState> update) {
+        return state.updateAndGet(update);
+    }
+
+    /**
+     * @return outbound queue of mode and channel commands with its statistics.
+     */
+    public CommandQueue getCommandQueue() {
+        return queue;
+    }
+
+    /**
+     * Non-blocking view of this controller. Commands of both views share connection and state.
+     *
+     * @return asynchronous API.
+     */
+    public AsyncLedController async() {
+        return async;
+    }
+
+    /**
+     * @return new empty batch of commands, which are written with one write.
+     * @see AsyncLedController#batch()
+     */
+    public CommandBatch batch() {
+        return async.batch();
     }
 
     @Override
@@ -167,24 +229,30 @@ public class LedController {
 
     @Override
     public String toString() {
+        ControllerState state = this.state.get();
         return "LedController{" +
                 "host='" + host + '\'' +
                 ", mac='" + mac + '\'' +
                 ", model='" + model + '\'' +
-                ", type=" + type +
-                ", power=" + power +
-                ", mode=" + mode + "(" + mode.getSpeed() + "-" + mode.getPercentSpeed() + "%)" +
-                ", channels=" + channels +
+                ", type=" + state.getType() +
+                ", power=" + state.getPower() +
+                ", mode=" + state.getMode() + "(" + state.getSpeed() + "-" + state.getPercentSpeed() + "%)" +
+                ", channels=" + state.getChannels() +
                 '}';
     }
 
     public boolean setMode(FunctionalModeRgb mode) {
+        return setMode(mode, state.get().getSpeed());
+    }
+
+    /**
+     * @param mode  mode.
+     * @param speed speed 31 (min speed) - 1(max speed)
+     * @return true, if command is sent.
+     */
+    public boolean setMode(FunctionalModeRgb mode, int speed) {
         try {
-            OutputStream out = socket.getOutputStream();
-            DataOutputStream dos = new DataOutputStream(out);
-            byte[] command = mode.getCommand();
-            dos.write(command);
-            dos.flush();
+            await(async.setMode(mode, speed));
             return true;
         } catch (IOException e) {
             logger.error("Сокет не операбелен", e);
@@ -192,23 +260,17 @@ public class LedController {
         }
     }
 
+    /**
+     * Upload program of custom mode.
+     *
+     * @see AsyncLedController#setCustomProgram(CustomProgram)
+     */
+    public void setCustomProgram(CustomProgram program) throws IOException {
+        await(async.setCustomProgram(program));
+    }
+
     public void setPowerState(PowerState state) throws IOException {
-        OutputStream out = socket.getOutputStream();
-        InputStream in = socket.getInputStream();
-        DataOutputStream dos = new DataOutputStream(out);
-        byte[] command = state.getCommand();
-        dos.write(command);
-        dos.flush();
-        byte[] bytes = new byte[command.length];
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int len;
-        while ((len = in.read(bytes)) > -1) {
-            baos.write(bytes, 0, len);
-            if (baos.size() == command.length) {
-                break;
-            }
-        }
-//        return Arrays.equals(baos.toByteArray(), command);
+        await(async.setPowerState(state));
     }
 
     public void turnOn() throws IOException {
@@ -220,36 +282,30 @@ public class LedController {
     }
 
     public void setRGB(int r, int g, int b) throws IOException {
-        ControllerChannels newChannels = ControllerChannels.fromPercents(
-                r,
-                g,
-                b,
-                channels.getWw(),
-                channels.getCw()
-        );
-        setChannels(newChannels);
+        await(async.setRGB(r, g, b));
     }
 
     public void setCw(int percent) throws IOException {
-        ControllerChannels newChannels = ControllerChannels.fromPercents(
-                channels.getR(),
-                channels.getG(),
-                channels.getB(),
-                channels.getWw(),
-                percent
-        );
-        setChannels(newChannels);
+        await(async.setCw(percent));
     }
 
     public void setWw(int percent) throws IOException {
-        ControllerChannels newChannels = ControllerChannels.fromPercents(
-                channels.getR(),
-                channels.getG(),
-                channels.getB(),
-                percent,
-                channels.getCw()
-        );
-        setChannels(newChannels);
+        await(async.setWw(percent));
+    }
+
+    /**
+     * Set channels by values from 0 to 255 without conversion from percents.
+     */
+    public void setRGBValues(int r, int g, int b) throws IOException {
+        await(async.setRGBValues(r, g, b));
+    }
+
+    public void setCwValue(int value) throws IOException {
+        await(async.setCwValue(value));
+    }
+
+    public void setWwValue(int value) throws IOException {
+        await(async.setWwValue(value));
     }
 
     /**
@@ -272,51 +328,242 @@ public class LedController {
      * response[13] - checksum
      * </pre>
      *
-     * @return true if response parsed and correct, else false
+     * @see ControllerState#parse(byte[])
      */
     public void init() throws IOException {
-        OutputStream out = socket.getOutputStream();
-        InputStream in = socket.getInputStream();
-        DataOutputStream dos = new DataOutputStream(out);
-        dos.write(REQUEST_STATE_MSG);
-        dos.flush();
-        byte[] bytes = new byte[14];
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int len;
-        while ((len = in.read(bytes)) > -1) {
-            baos.write(bytes, 0, len);
-            if (baos.size() >= 14) {
-                break;
+        await(async.init());
+    }
+
+    public ControllerChannels getChannels() {
+        return state.get().getChannels();
+    }
+
+    public void setChannels(ControllerChannels channels) throws IOException {
+        await(async.setChannels(channels));
+    }
+
+    /**
+     * Wait result of transport operation not longer than connect, write and response deadlines together,
+     * so transport reports its own timeout first. Abandoned operation is cancelled.
+     *
+     * @param future operation.
+     * @param <T>    type of result.
+     * @return result of operation.
+     * @throws IOException when operation is failed or timed out.
+     */
+    private <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get(awaitTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting controller");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new SocketTimeoutException("No response from controller in " + awaitTimeout + " ms");
         }
+    }
 
-        if (baos.size() != 14) {
-            throw new RuntimeException("Received response message with incorrect length");
+    /**
+     * Close connection with controller.
+     *
+     * @throws IOException when unable to close connection.
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    public static final class LedControllerBuilder {
+        private String host;
+        private String mac = "";
+        private String model = "";
+        private int port = DEFAULT_CONTROLLER_PORT;
+        /**
+         * Loop for non-blocking connection. If not provided - blocking {@link Socket} is used.
+         */
+        private NioEventLoop eventLoop;
+        /**
+         * Maximum number of mode and channel commands per second, 0 - without limit.
+         */
+        private int maxSendRate;
+        /**
+         * Scheduler for throttled commands. If not provided - shared scheduler is used.
+         * Delayed command is sent by scheduler thread, so blocking controller with send rate requires executor.
+         */
+        private ScheduledExecutorService scheduler;
+        /**
+         * Pool of lazy connections. If provided - connection is opened on first command.
+         */
+        private ConnectionPool connectionPool;
+        /**
+         * Executor for blocking I/O, for example {@link ControllerExecutors#newVirtualThreadPerTaskExecutor()}.
+         * If provided - async commands of blocking controller don't block caller thread.
+         */
+        private Executor executor;
+        /**
+         * Receiver of measurements. If not provided - metrics of connection pool or none.
+         */
+        private ControllerMetrics metrics;
+        /**
+         * Disable Nagle's algorithm of own connection. Pooled connections are configured in pool.
+         */
+        private boolean tcpNoDelay;
+        /**
+         * Timeouts of own connection in milliseconds. Pooled connections are configured in pool.
+         */
+        private int connectTimeout = TIMEOUT;
+        private int writeTimeout = TIMEOUT;
+        private int responseTimeout = TIMEOUT;
+        /**
+         * Circuit breaker of own connection, 0 - disabled. Pooled controllers use breakers of pool.
+         */
+        private int failureThreshold;
+        private long minOpenInterval;
+        private long maxOpenInterval;
+
+        public LedControllerBuilder() {
         }
-        byte[] response = baos.toByteArray();
-        if ((response[0] != -0x7f) || (response[1] != 0x25)) {
-            throw new RuntimeException("Wrong response message structure");
+
+        public static LedControllerBuilder aLedController() {
+            return new LedControllerBuilder();
         }
 
-        this.power = PowerState.get(response[2]);
-        this.mode = FunctionalModeRgb.get(response[3]);
-        this.mode.setSpeed(response[5]);
-        this.type = ControllerType.get(response[12]);
-        this.channels = new ControllerChannels(response[6], response[7], response[8], response[9], response[11]);
+        public LedControllerBuilder host(String host) {
+            this.host = host;
+            return this;
+        }
 
-    }
+        public LedControllerBuilder mac(String mac) {
+            this.mac = mac;
+            return this;
+        }
 
-    public ControllerChannels getChannels() {
-        return channels;
-    }
+        public LedControllerBuilder model(String model) {
+            this.model = model;
+            return this;
+        }
 
-    public void setChannels(ControllerChannels channels) throws IOException {
-        logger.debug("Setup new channels: {}", channels);
-        OutputStream out = socket.getOutputStream();
-        DataOutputStream dos = new DataOutputStream(out);
-        byte[] command = channels.getChannelCommand();
-        dos.write(command);
-        dos.flush();
-        this.channels = channels;
+        public LedControllerBuilder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public LedControllerBuilder eventLoop(NioEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public LedControllerBuilder maxSendRate(int maxSendRate) {
+            this.maxSendRate = maxSendRate;
+            return this;
+        }
+
+        public LedControllerBuilder scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public LedControllerBuilder connectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        public LedControllerBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public LedControllerBuilder metrics(ControllerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public LedControllerBuilder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public LedControllerBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public LedControllerBuilder writeTimeout(int writeTimeout) {
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        public LedControllerBuilder responseTimeout(int responseTimeout) {
+            this.responseTimeout = responseTimeout;
+            return this;
+        }
+
+        /**
+         * Fail commands at once after several failures in a row, probe controller after open interval.
+         *
+         * @param failureThreshold number of failures in a row, which opens breaker.
+         * @param minOpenInterval  first open interval in milliseconds, doubled after every failed probe.
+         * @param maxOpenInterval  maximum open interval in milliseconds.
+         */
+        public LedControllerBuilder circuitBreaker(int failureThreshold, long minOpenInterval, long maxOpenInterval) {
+            this.failureThreshold = failureThreshold;
+            this.minOpenInterval = minOpenInterval;
+            this.maxOpenInterval = maxOpenInterval;
+            return this;
+        }
+
+        public LedController build() throws IOException {
+            if (host == null) {
+                throw new IllegalStateException("Host is mandatory field");
+            }
+            if (connectionPool != null && eventLoop != null) {
+                throw new IllegalStateException("Event loop of pooled controller is configured in pool");
+            }
+            if (executor != null && eventLoop != null) {
+                throw new IllegalStateException("Executor is used only for blocking I/O");
+            }
+            boolean blocking = connectionPool != null ? connectionPool.isBlocking() : eventLoop == null;
+            if (maxSendRate > 0 && blocking && executor == null) {
+                // delayed command would be written by scheduler thread and stop all timers of library
+                throw new IllegalStateException("Send rate of blocking controller requires executor");
+            }
+            if (failureThreshold > 0 && (minOpenInterval <= 0 || maxOpenInterval < minOpenInterval)) {
+                throw new IllegalStateException("Wrong circuit breaker configuration");
+            }
+            String device = host + ":" + port;
+            ControllerTransport transport;
+            Deadlines deadlines;
+            if (connectionPool != null) {
+                transport = connectionPool.transport(host, port);
+                deadlines = connectionPool.getDeadlines();
+            } else {
+                deadlines = Deadlines.of(connectTimeout, writeTimeout, responseTimeout);
+                transport = eventLoop != null
+                        ? eventLoop.connect(host, port, deadlines, tcpNoDelay)
+                        : new SocketTransport(host, port, deadlines, tcpNoDelay);
+                if (failureThreshold > 0) {
+                    transport = new CircuitBreakerTransport(transport,
+                            new CircuitBreaker(failureThreshold, minOpenInterval, maxOpenInterval), device);
+                }
+            }
+            ControllerMetrics metrics = this.metrics != null ? this.metrics
+                    : connectionPool != null ? connectionPool.getMetrics() : ControllerMetrics.NOOP;
+            if (metrics != ControllerMetrics.NOOP) {
+                transport = new MetricsTransport(transport, metrics, device);
+            }
+            if (executor != null) {
+                transport = new ExecutorTransport(transport, executor);
+            }
+            return new LedController(host, mac, model, transport,
+                    new CommandQueue(transport, maxSendRate, scheduler, metrics, device), deadlines);
+        }
     }
 }
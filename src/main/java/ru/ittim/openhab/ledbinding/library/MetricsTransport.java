@@ -0,0 +1,90 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Transport, which reports latency, bytes and errors of every command to {@link ControllerMetrics}.
+ * Used only when metrics are enabled, so controllers without metrics don't pay for measurements.
+ */
+class MetricsTransport implements ControllerTransport {
+    private final ControllerTransport delegate;
+    private final ControllerMetrics metrics;
+    private final String device;
+
+    MetricsTransport(ControllerTransport delegate, ControllerMetrics metrics, String device) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.device = device;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(byte[] frame) {
+        long start = System.nanoTime();
+        // callers see result after it is measured
+        return delegate.send(frame).whenComplete((ignored, e) -> {
+            if (e == null) {
+                metrics.commandWritten(device, System.nanoTime() - start, frame.length);
+            } else {
+                failed(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ByteBuffer[] frames) {
+        long start = System.nanoTime();
+        int bytes = 0;
+        for (ByteBuffer frame : frames) {
+            bytes += frame.remaining();
+        }
+        int length = bytes;
+        return delegate.send(frames).whenComplete((ignored, e) -> {
+            if (e == null) {
+                metrics.batchWritten(device, System.nanoTime() - start, frames.length, length);
+            } else {
+                failed(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+        long start = System.nanoTime();
+        return measure(start, delegate.request(frame, responseLength), frame, responseLength);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+        long start = System.nanoTime();
+        return measure(start, delegate.request(frame, responseLength, decoder), frame, responseLength);
+    }
+
+    private <T> CompletableFuture<T> measure(long start, CompletableFuture<T> request, byte[] frame,
+                                             int responseLength) {
+        return request.whenComplete((response, e) -> {
+            if (e == null) {
+                metrics.responseReceived(device, System.nanoTime() - start, frame.length, responseLength);
+            } else {
+                failed(e);
+            }
+        });
+    }
+
+    private void failed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof SocketTimeoutException) {
+            metrics.timeout(device);
+        } else {
+            metrics.failure(device, cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,267 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single thread selector loop, which multiplexes connections to many controllers.
+ * All channel operations and timers are executed in loop thread, other threads submit tasks with
+ * {@link #execute(Runnable)}.
+ */
+public final class NioEventLoop implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * Timers, accessed only from loop thread.
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final AtomicLong timerSequence = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Create and start loop.
+     *
+     * @param name name of loop thread.
+     * @throws IOException when unable to open selector.
+     */
+    public NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Open non-blocking connection to controller. Connection is established in background,
+     * commands sent before are queued.
+     *
+     * @param host controller address.
+     * @param port controller port.
+     * @param responseTimeout timeout for controller answer in milliseconds.
+     * @return transport for {@link LedController}.
+     * @throws IOException when unable to open channel.
+     */
+    public ControllerTransport connect(String host, int port, int responseTimeout) throws IOException {
+        return connect(host, port, responseTimeout, false);
+    }
+
+    /**
+     * @param tcpNoDelay disable Nagle's algorithm, so small commands aren't delayed by TCP stack.
+     * @see #connect(String, int, int)
+     */
+    public ControllerTransport connect(String host, int port, int responseTimeout, boolean tcpNoDelay)
+            throws IOException {
+        return connect(host, port, Deadlines.of(LedController.TIMEOUT, LedController.TIMEOUT, responseTimeout),
+                tcpNoDelay);
+    }
+
+    /**
+     * @param deadlines limits of connect, write and answer. Connection fails, when connect or write isn't
+     *                  completed in time.
+     * @see #connect(String, int, int, boolean)
+     */
+    ControllerTransport connect(String host, int port, Deadlines deadlines, boolean tcpNoDelay) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        NioTransport transport = new NioTransport(this, channel, deadlines);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        execute(() -> transport.connect(address));
+        return transport;
+    }
+
+    /**
+     * @return true if current thread is loop thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Execute task in loop thread. Task, which is accepted, is run even if loop is closed concurrently.
+     *
+     * @param task task.
+     * @throws IllegalStateException when loop is closed.
+     */
+    public void execute(Runnable task) {
+        if (!running) {
+            throw new IllegalStateException("Event loop is closed");
+        }
+        tasks.add(task);
+        // loop could stop after the check above: task, which isn't taken by final run of tasks, is rejected
+        if (!running && tasks.remove(task)) {
+            throw new IllegalStateException("Event loop is closed");
+        }
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Execute task in loop thread after delay.
+     *
+     * @param task  task.
+     * @param delay delay.
+     * @param unit  unit of delay.
+     * @return handle for cancel task.
+     */
+    public Timer schedule(Runnable task, long delay, TimeUnit unit) {
+        Timer timer = new Timer(task, System.nanoTime() + unit.toNanos(delay), timerSequence.incrementAndGet());
+        if (inEventLoop()) {
+            timers.add(timer);
+        } else {
+            execute(() -> timers.add(timer));
+        }
+        return timer;
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long timeout = runTimers();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timeout > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+                } else {
+                    selector.select();
+                }
+                processKeys();
+                runTasks();
+            } catch (Throwable e) {
+                logger.error("Unexpected error in event loop", e);
+            }
+        }
+        // tasks accepted before close are run, so their writes and requests are failed with connections below
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((NioTransport) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close selector", e);
+        }
+    }
+
+    /**
+     * Run expired timers.
+     *
+     * @return nanoseconds until next timer or 0 if there are no timers.
+     */
+    private long runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null) {
+            if (timer.cancelled) {
+                timers.poll();
+            } else if (timer.deadline - now <= 0) {
+                timers.poll();
+                safeRun(timer.task);
+            } else {
+                return timer.deadline - now;
+            }
+        }
+        return 0;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            safeRun(task);
+        }
+    }
+
+    private void processKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioTransport transport = (NioTransport) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    transport.onConnectable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    transport.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    transport.onReadable();
+                }
+            } catch (CancelledKeyException e) {
+                transport.close();
+            }
+        }
+    }
+
+    private static void safeRun(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.error("Task failed in event loop", e);
+        }
+    }
+
+    /**
+     * Stop loop and close all connections.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Delayed task of loop.
+     */
+    public static final class Timer implements Comparable<Timer> {
+        private final Runnable task;
+        private final long deadline;
+        private final long sequence;
+        private volatile boolean cancelled;
+
+        private Timer(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Cancel task, if it is not executed yet.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            long diff = deadline - o.deadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
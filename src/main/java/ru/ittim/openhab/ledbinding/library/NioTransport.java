@@ -0,0 +1,343 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking transport, served by {@link NioEventLoop}.
+ * Requests are pipelined: next frame is written without waiting for answer of previous one, and every answer
+ * is matched with the oldest pending request of the same type (by first byte, see {@link FrameDecoder}).
+ * Answers are decoded in receive buffer. Unknown bytes, frames with wrong checksum, answers without pending
+ * request and late answers of timed out requests (see {@link LateAnswers}) are skipped.
+ * Fields are accessed only from loop thread.
+ */
+class NioTransport implements ControllerTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final Deadlines deadlines;
+
+    private final ArrayDeque<PendingWrite> writes = new ArrayDeque<>();
+    private final ArrayDeque<PendingResponse<?>> responses = new ArrayDeque<>();
+    /**
+     * Received but not yet consumed bytes, answers are decoded in its buffer.
+     */
+    private final FrameDecoder decoder = new FrameDecoder(256);
+    private final FrameDecoder.FrameLength lengths = this::frameLength;
+    private final LateAnswers late;
+
+    private SelectionKey key;
+    private boolean connected;
+    private IOException failure;
+    /**
+     * Deadline of connect, cancelled when connection is established.
+     */
+    private NioEventLoop.Timer connectTimer;
+    /**
+     * Deadline of the oldest not flushed write. Armed only while writes are waiting, so writes completed
+     * at once don't schedule timers.
+     */
+    private NioEventLoop.Timer writeTimer;
+
+    NioTransport(NioEventLoop loop, SocketChannel channel, Deadlines deadlines) {
+        this.loop = loop;
+        this.channel = channel;
+        this.deadlines = deadlines;
+        this.late = new LateAnswers(deadlines.getResponse());
+    }
+
+    void connect(InetSocketAddress address) {
+        try {
+            connectTimer = loop.schedule(() -> {
+                if (!connected) {
+                    fail(new SocketTimeoutException("Unable to connect in " + deadlines.getConnect() + " ms"));
+                }
+            }, deadlines.getConnect(), TimeUnit.MILLISECONDS);
+            key = channel.register(loop.selector(), 0, this);
+            if (channel.connect(address)) {
+                onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> send(byte[] frame) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        submit(() -> enqueue(new PendingWrite(new ByteBuffer[]{ByteBuffer.wrap(frame)}, result)), result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ByteBuffer[] frames) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        submit(() -> enqueue(new PendingWrite(frames, result)), result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+        return request(frame, responseLength, FrameDecoder.BYTES);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> decoder) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        written.whenComplete((ignored, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            }
+        });
+        submit(() -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            PendingResponse<T> response = new PendingResponse<>(frame[0], responseLength, decoder, result);
+            response.timer = loop.schedule(() -> timeout(response), deadlines.getResponse(), TimeUnit.MILLISECONDS);
+            responses.add(response);
+            enqueue(new PendingWrite(new ByteBuffer[]{ByteBuffer.wrap(frame)}, written));
+        }, result);
+        return result;
+    }
+
+    /**
+     * Execute task in loop thread or fail future, if loop is closed.
+     */
+    private void submit(Runnable task, CompletableFuture<?> future) {
+        try {
+            loop.execute(task);
+        } catch (IllegalStateException e) {
+            future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    private void enqueue(PendingWrite write) {
+        if (failure != null) {
+            write.future.completeExceptionally(failure);
+            return;
+        }
+        writes.add(write);
+        if (connected) {
+            onWritable();
+        } else {
+            armWriteTimer();
+        }
+    }
+
+    private void armWriteTimer() {
+        if (writeTimer == null) {
+            writeTimer = loop.schedule(() -> {
+                writeTimer = null;
+                if (!writes.isEmpty()) {
+                    fail(new SocketTimeoutException("Command isn't written in " + deadlines.getWrite() + " ms"));
+                }
+            }, deadlines.getWrite(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onConnected() {
+        connected = true;
+        connectTimer.cancel();
+        key.interestOps(SelectionKey.OP_READ);
+        onWritable();
+    }
+
+    void onConnectable() {
+        try {
+            if (channel.finishConnect()) {
+                onConnected();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onWritable() {
+        try {
+            PendingWrite write;
+            while ((write = writes.peek()) != null) {
+                channel.write(write.buffers);
+                if (write.buffers[write.buffers.length - 1].hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    armWriteTimer();
+                    return;
+                }
+                writes.poll();
+                write.future.complete(null);
+                if (writeTimer != null) {
+                    // the next write gets its own deadline
+                    writeTimer.cancel();
+                    writeTimer = null;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onReadable() {
+        try {
+            int len = channel.read(decoder.inbound());
+            if (len < 0) {
+                fail(new ClosedChannelException());
+                return;
+            }
+            int length;
+            while ((length = decoder.next(lengths)) > 0) {
+                int offset = decoder.position();
+                byte header = decoder.buffer().get(offset);
+                PendingResponse<?> response = pending(header);
+                if (response != null && late.skip(header)) {
+                    logger.debug("Skip late answer {}", String.format("%02X", header));
+                } else if (response == null) {
+                    logger.debug("Skip answer {} without request", String.format("%02X", header));
+                } else {
+                    responses.remove(response);
+                    response.timer.cancel();
+                    response.complete(decoder.buffer(), offset, length);
+                }
+                decoder.consume(length);
+            }
+            decoder.compact();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * @return length of answer for pending request or of known answer without request, -1 for garbage.
+     */
+    private int frameLength(byte header) {
+        PendingResponse<?> response = pending(header);
+        return response != null ? response.length : FrameDecoder.responseLength(header);
+    }
+
+    /**
+     * @return the oldest request, which waits answer with given first byte.
+     */
+    private PendingResponse<?> pending(byte header) {
+        for (PendingResponse<?> response : responses) {
+            if (response.header == header) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    private void timeout(PendingResponse<?> response) {
+        if (responses.remove(response)) {
+            late.expect(response.header);
+            response.future.completeExceptionally(
+                    new SocketTimeoutException("No response from controller in " + deadlines.getResponse() + " ms"));
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            logger.debug("Connection is failed", e);
+        }
+        closeChannel();
+        if (connectTimer != null) {
+            connectTimer.cancel();
+        }
+        if (writeTimer != null) {
+            writeTimer.cancel();
+            writeTimer = null;
+        }
+        PendingWrite write;
+        while ((write = writes.poll()) != null) {
+            write.future.completeExceptionally(failure);
+        }
+        PendingResponse<?> response;
+        while ((response = responses.poll()) != null) {
+            response.timer.cancel();
+            response.future.completeExceptionally(failure);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close channel", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (loop.inEventLoop()) {
+            fail(new ClosedChannelException());
+        } else {
+            try {
+                loop.execute(() -> fail(new ClosedChannelException()));
+            } catch (IllegalStateException e) {
+                closeChannel();
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        /**
+         * Frames written with one gathering write.
+         */
+        private final ByteBuffer[] buffers;
+        private final CompletableFuture<Void> future;
+
+        private PendingWrite(ByteBuffer[] buffers, CompletableFuture<Void> future) {
+            this.buffers = buffers;
+            this.future = future;
+        }
+    }
+
+    private static final class PendingResponse<T> {
+        /**
+         * First byte of request, the answer starts with the same byte.
+         */
+        private final byte header;
+        private final int length;
+        private final ResponseDecoder<T> decoder;
+        private final CompletableFuture<T> future;
+        private NioEventLoop.Timer timer;
+
+        private PendingResponse(byte header, int length, ResponseDecoder<T> decoder, CompletableFuture<T> future) {
+            this.header = header;
+            this.length = length;
+            this.decoder = decoder;
+            this.future = future;
+        }
+
+        /**
+         * Decode answer in receive buffer.
+         */
+        private void complete(ByteBuffer buffer, int offset, int length) {
+            T value;
+            try {
+                value = decoder.decode(buffer, offset, length);
+            } catch (ProtocolException | RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            future.complete(value);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ru.ittim.openhab.ledbinding.library;
 
+import java.nio.ByteBuffer;
+
 /**
  * Power state of controller
  * Created by Timofey on 23.06.2016.
@@ -9,30 +11,60 @@ public enum PowerState {
     ON(0x23),
     OFF(0x24),;
 
+    /**
+     * Length of command with checksum.
+     */
+    public static final int COMMAND_LENGTH = 4;
+
     private final int id;
 
     PowerState(int id) {
         this.id = id;
     }
 
-    public static PowerState get(int id) {
+    /**
+     * States by low byte of id, for lookup without copy and scan of {@link #values()}.
+     */
+    private static final PowerState[] BY_ID = new PowerState[256];
+
+    static {
         for (PowerState state : values()) {
-            if (state.id == id) {
-                return state;
+            if (state != UNKNOWN) {
+                BY_ID[state.id & 0xFF] = state;
             }
         }
-        return UNKNOWN;
+    }
+
+    public static PowerState get(int id) {
+        PowerState state = BY_ID[id & 0xFF];
+        return state != null && state.id == id ? state : UNKNOWN;
+    }
+
+    /**
+     * @return id, which is sent in commands and state answer.
+     */
+    int getId() {
+        return id;
     }
 
     public byte[] getCommand() {
+        ByteBuffer buffer = ByteBuffer.allocate(COMMAND_LENGTH);
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Write command ({@link #COMMAND_LENGTH} bytes) to buffer.
+     * @param buffer buffer with enough remaining space
+     */
+    public void encode(ByteBuffer buffer) {
         if (this.equals(UNKNOWN)) {
             throw new  UnsupportedOperationException("Can't set UNKNOWN state. Use ON or OFF states.");
         }
-        byte[] bytes = new byte[3];
-        bytes[0] =(byte)0x71;
-        bytes[1] =(byte)id;
-        bytes[2] =(byte)0x0f;
-
-        return Utils.withCheckSum(bytes);
+        int start = buffer.position();
+        buffer.put((byte) 0x71)
+                .put((byte) id)
+                .put((byte) 0x0f);
+        Utils.putCheckSum(buffer, start);
     }
 }
@@ -0,0 +1,23 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of controller answer. Transport calls it with its receive buffer, so answer is decoded in place
+ * without copy. Decoder must not keep reference to buffer and must not change its position.
+ *
+ * @param <T> type of decoded answer.
+ */
+@FunctionalInterface
+public interface ResponseDecoder<T> {
+
+    /**
+     * @param buffer buffer with answer, read with absolute gets.
+     * @param offset index of first byte of answer.
+     * @param length length of answer with checksum.
+     * @return decoded answer.
+     * @throws ProtocolException when answer has wrong structure.
+     */
+    T decode(ByteBuffer buffer, int offset, int length) throws ProtocolException;
+}
@@ -0,0 +1,331 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link ControllerMetrics} without dependencies: counters and {@link LatencyHistogram}s per device and
+ * for whole fleet. Can be registered in platform MBean server as {@link ControllerMetricsMXBean}.
+ */
+public final class SimpleControllerMetrics implements ControllerMetrics, ControllerMetricsMXBean {
+    private static final String DOMAIN = "ru.ittim.openhab.ledbinding";
+
+    private final Map<String, DeviceMetrics> devices = new ConcurrentHashMap<>();
+    private final DeviceMetrics total = new DeviceMetrics();
+    private final LongAdder discoveryRounds = new LongAdder();
+    private volatile long lastDiscovery;
+
+    @Override
+    public void commandWritten(String device, long nanos, int bytes) {
+        device(device).commandWritten(nanos, bytes);
+        total.commandWritten(nanos, bytes);
+    }
+
+    @Override
+    public void batchWritten(String device, long nanos, int frames, int bytes) {
+        device(device).batchWritten(nanos, bytes);
+        total.batchWritten(nanos, bytes);
+    }
+
+    @Override
+    public void responseReceived(String device, long nanos, int bytesSent, int bytesReceived) {
+        device(device).responseReceived(nanos, bytesSent, bytesReceived);
+        total.responseReceived(nanos, bytesSent, bytesReceived);
+    }
+
+    @Override
+    public void timeout(String device) {
+        device(device).timeouts.increment();
+        total.timeouts.increment();
+    }
+
+    @Override
+    public void failure(String device, Throwable error) {
+        device(device).failures.increment();
+        total.failures.increment();
+    }
+
+    @Override
+    public void reconnect(String device) {
+        device(device).reconnects.increment();
+        total.reconnects.increment();
+    }
+
+    @Override
+    public void queueDepth(String device, int depth) {
+        device(device).queueDepth = depth;
+    }
+
+    @Override
+    public void discoveryRound(long nanos, int devices) {
+        discoveryRounds.increment();
+        lastDiscovery = nanos;
+    }
+
+    private DeviceMetrics device(String device) {
+        DeviceMetrics metrics = devices.get(device);
+        return metrics != null ? metrics : devices.computeIfAbsent(device, it -> new DeviceMetrics());
+    }
+
+    /**
+     * @param device {@code host:port} of device.
+     * @return metrics of device or null, if nothing is measured for it yet.
+     */
+    public DeviceMetrics getDevice(String device) {
+        return devices.get(device);
+    }
+
+    /**
+     * @return metrics of all devices together.
+     */
+    public DeviceMetrics getTotal() {
+        return total;
+    }
+
+    /**
+     * Register this metrics in platform MBean server.
+     *
+     * @param name name of metrics, for example name of binding instance.
+     * @return name of registered bean.
+     * @throws JMException when bean with the same name is registered.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=ControllerMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Remove bean registered by {@link #register(String)}.
+     */
+    public void unregister(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Override
+    public String[] getDevices() {
+        return devices.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getCommands() {
+        return total.getCommands();
+    }
+
+    @Override
+    public long getResponses() {
+        return total.getResponses();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return total.getTimeouts();
+    }
+
+    @Override
+    public long getFailures() {
+        return total.getFailures();
+    }
+
+    @Override
+    public long getReconnects() {
+        return total.getReconnects();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return total.getBytesSent();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return total.getBytesReceived();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        long depth = 0;
+        for (DeviceMetrics metrics : devices.values()) {
+            depth += metrics.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getWriteLatencyP50Micros() {
+        return total.writeLatency.getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getWriteLatencyP99Micros() {
+        return total.writeLatency.getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getBatches() {
+        return total.getBatches();
+    }
+
+    @Override
+    public long getBatchLatencyP99Micros() {
+        return total.batchLatency.getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getResponseLatencyP50Micros() {
+        return total.responseLatency.getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getResponseLatencyP99Micros() {
+        return total.responseLatency.getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getResponseLatencyMaxMicros() {
+        return total.responseLatency.getMax(TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long getDiscoveryRounds() {
+        return discoveryRounds.sum();
+    }
+
+    @Override
+    public long getLastDiscoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastDiscovery);
+    }
+
+    @Override
+    public String describe(String device) {
+        DeviceMetrics metrics = devices.get(device);
+        return metrics != null ? metrics.toString() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleControllerMetrics{" +
+                "devices=" + devices.size() +
+                ", total=" + total +
+                ", discoveryRounds=" + discoveryRounds +
+                '}';
+    }
+
+    /**
+     * Counters and latencies of one device.
+     */
+    public static final class DeviceMetrics {
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+        private final LatencyHistogram responseLatency = new LatencyHistogram();
+        private final LatencyHistogram batchLatency = new LatencyHistogram();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder reconnects = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private volatile int queueDepth;
+
+        private DeviceMetrics() {
+        }
+
+        private void commandWritten(long nanos, int bytes) {
+            writeLatency.record(nanos);
+            bytesSent.add(bytes);
+        }
+
+        private void batchWritten(long nanos, int bytes) {
+            batchLatency.record(nanos);
+            bytesSent.add(bytes);
+        }
+
+        private void responseReceived(long nanos, int sent, int received) {
+            responseLatency.record(nanos);
+            bytesSent.add(sent);
+            bytesReceived.add(received);
+        }
+
+        /**
+         * @return time from send to flush of commands without answer.
+         */
+        public LatencyHistogram getWriteLatency() {
+            return writeLatency;
+        }
+
+        /**
+         * @return time from request to answer of state and power commands.
+         */
+        public LatencyHistogram getResponseLatency() {
+            return responseLatency;
+        }
+
+        /**
+         * @return time from send to flush of {@link CommandBatch}es.
+         */
+        public LatencyHistogram getBatchLatency() {
+            return batchLatency;
+        }
+
+        public long getCommands() {
+            return writeLatency.getCount();
+        }
+
+        public long getResponses() {
+            return responseLatency.getCount();
+        }
+
+        public long getBatches() {
+            return batchLatency.getCount();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getReconnects() {
+            return reconnects.sum();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        /**
+         * @return last reported number of commands waiting in queue.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        @Override
+        public String toString() {
+            return "DeviceMetrics{" +
+                    "write=" + writeLatency +
+                    ", response=" + responseLatency +
+                    ", batch=" + batchLatency +
+                    ", timeouts=" + timeouts +
+                    ", failures=" + failures +
+                    ", reconnects=" + reconnects +
+                    ", bytesSent=" + bytesSent +
+                    ", bytesReceived=" + bytesReceived +
+                    ", queueDepth=" + queueDepth +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking transport over {@link Socket}. All operations are executed in caller thread,
+ * so returned futures are always completed.
+ * Connect and whole answer are limited by {@link Deadlines}. Write can't be limited for blocking socket,
+ * but commands are much smaller than send buffer, so write doesn't block.
+ */
+class SocketTransport implements ControllerTransport {
+    private final Socket socket;
+    private final int responseTimeout;
+    /**
+     * Current read timeout of socket, guarded by {@link #lock}.
+     */
+    private int soTimeout;
+
+    /**
+     * Guard for request-response pairs. Without it answer for one thread can be read by another.
+     * Lock is used instead of monitor, because blocking I/O inside monitor pins virtual thread to carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Receive buffer, guarded by {@link #lock}.
+     */
+    private final FrameDecoder decoder = new FrameDecoder(256);
+    /**
+     * Answers of timed out requests, guarded by {@link #lock}.
+     */
+    private final LateAnswers late;
+
+    /**
+     * @param host    controller address.
+     * @param port    controller port.
+     * @param timeout connect and answer timeout in milliseconds.
+     * @throws IOException when unable to connect.
+     */
+    SocketTransport(String host, int port, int timeout) throws IOException {
+        this(host, port, Deadlines.of(timeout, timeout, timeout), false);
+    }
+
+    /**
+     * @param deadlines  connect and answer timeouts.
+     * @param tcpNoDelay disable Nagle's algorithm.
+     */
+    SocketTransport(String host, int port, Deadlines deadlines, boolean tcpNoDelay) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(tcpNoDelay);
+            socket.connect(new InetSocketAddress(host, port), deadlines.getConnect());
+            socket.setSoTimeout(deadlines.getResponse());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        responseTimeout = deadlines.getResponse();
+        soTimeout = responseTimeout;
+        late = new LateAnswers(responseTimeout);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(byte[] frame) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            lock.lock();
+            try {
+                write(frame);
+            } finally {
+                lock.unlock();
+            }
+            result.complete(null);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+        return request(frame, responseLength, FrameDecoder.BYTES);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(byte[] frame, int responseLength, ResponseDecoder<T> responseDecoder) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            T response;
+            lock.lock();
+            try {
+                write(frame);
+                response = read(frame[0], responseLength, responseDecoder);
+            } finally {
+                lock.unlock();
+            }
+            result.complete(response);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void write(byte[] frame) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Read answer, which starts with given byte, and decode it in receive buffer. Stale answers of other types,
+     * late answers of timed out requests, unknown bytes and frames with wrong checksum are skipped, but whole answer
+     * must be received in response timeout.
+     *
+     * @param header first byte of answer.
+     * @param length length of answer.
+     */
+    private <T> T read(byte header, int length, ResponseDecoder<T> responseDecoder) throws IOException {
+        InputStream in = socket.getInputStream();
+        FrameDecoder.FrameLength lengths = it -> it == header ? length : FrameDecoder.responseLength(it);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(responseTimeout);
+        boolean first = true;
+        while (true) {
+            int frameLength;
+            while ((frameLength = decoder.next(lengths)) > 0) {
+                int offset = decoder.position();
+                boolean answer = decoder.buffer().get(offset) == header && !late.skip(header);
+                decoder.consume(frameLength);
+                if (answer) {
+                    return responseDecoder.decode(decoder.buffer(), offset, frameLength);
+                }
+            }
+            decoder.compact();
+            // the first read waits full timeout, next reads wait only the rest of it
+            int timeout = first ? responseTimeout
+                    : (int) TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (timeout <= 0) {
+                late.expect(header);
+                throw new SocketTimeoutException("No response from controller in " + responseTimeout + " ms");
+            }
+            if (timeout != soTimeout) {
+                socket.setSoTimeout(timeout);
+                soTimeout = timeout;
+            }
+            first = false;
+            ByteBuffer inbound = decoder.inbound();
+            int len;
+            try {
+                len = in.read(inbound.array(), inbound.arrayOffset() + inbound.position(), inbound.remaining());
+            } catch (SocketTimeoutException e) {
+                late.expect(header);
+                throw e;
+            }
+            if (len < 0) {
+                throw new IOException("Connection is closed by controller");
+            }
+            inbound.position(inbound.position() + len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
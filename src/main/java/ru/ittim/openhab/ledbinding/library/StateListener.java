@@ -0,0 +1,17 @@
+package ru.ittim.openhab.ledbinding.library;
+
+/**
+ * Receiver of state changes, found by {@link StatePoller}.
+ */
+@FunctionalInterface
+public interface StateListener {
+    /**
+     * Called when state received from controller differs from known state.
+     * Called in transport thread, so it must not block.
+     *
+     * @param controller changed controller.
+     * @param previous   known state before poll.
+     * @param current    state received from controller.
+     */
+    void stateChanged(LedController controller, ControllerState previous, ControllerState current);
+}
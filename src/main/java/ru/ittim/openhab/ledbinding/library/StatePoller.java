@@ -0,0 +1,388 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background polling of controller state. Controller is polled often after its state is changed
+ * and the interval is doubled up to maximum while state stays the same. Number of polls in flight and
+ * number of polls per second are bounded, so large fleet doesn't flood network.
+ * Listeners receive only changed states.
+ * <p>
+ * Polls are started by own executor of poller (virtual threads, if supported), so blocking controllers don't
+ * delay shared scheduler. Direct executor can be passed to builder, if all controllers are non-blocking.
+ */
+public final class StatePoller implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StatePoller.class);
+    /**
+     * Fixed point scale of poll budget.
+     */
+    private static final long TICKS_SCALE = 1_000;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final int maxConcurrency;
+    /**
+     * Polls allowed per tick, multiplied by {@link #TICKS_SCALE}.
+     */
+    private final long pollsPerTick;
+    private final Executor executor;
+    /**
+     * Executor created by poller, it is shut down on close. Null, when executor is passed to builder.
+     */
+    private final ExecutorService ownExecutor;
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Waiting entries ordered by next poll time. Entry is removed while it is polled. Guarded by itself.
+     */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(it -> it.nextPoll));
+    private final Map<LedController, Entry> entries = new IdentityHashMap<>();
+    private int inFlight;
+    private long budget;
+    private final ScheduledFuture<?> ticker;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong latencySum = new AtomicLong();
+    private final AtomicLong latencyMax = new AtomicLong();
+
+    private StatePoller(StatePollerBuilder builder) {
+        this.minInterval = TimeUnit.MILLISECONDS.toNanos(builder.minInterval);
+        this.maxInterval = TimeUnit.MILLISECONDS.toNanos(builder.maxInterval);
+        this.maxConcurrency = builder.maxConcurrency;
+        this.pollsPerTick = builder.maxPollRate * builder.tick;
+        this.ownExecutor = builder.executor == null ? ControllerExecutors.newBlockingIoExecutor("led-poller") : null;
+        this.executor = builder.executor != null ? builder.executor : ownExecutor;
+        this.listeners.addAll(builder.listeners);
+        long now = System.nanoTime();
+        int i = 0;
+        for (LedController controller : builder.controllers) {
+            // first polls are spread over minimal interval
+            add(controller, now + minInterval * i++ / builder.controllers.size());
+        }
+        this.ticker = Utils.SCHEDULER.scheduleWithFixedDelay(this::tick, 0, builder.tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start polling of controller.
+     */
+    public void add(LedController controller) {
+        add(controller, System.nanoTime());
+    }
+
+    private void add(LedController controller, long nextPoll) {
+        synchronized (queue) {
+            if (!entries.containsKey(controller)) {
+                Entry entry = new Entry(controller, nextPoll);
+                entries.put(controller, entry);
+                queue.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Stop polling of controller.
+     */
+    public void remove(LedController controller) {
+        synchronized (queue) {
+            Entry entry = entries.remove(controller);
+            if (entry != null) {
+                queue.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Poll controller soon with minimal interval, for example after local command.
+     */
+    public void wake(LedController controller) {
+        synchronized (queue) {
+            Entry entry = entries.get(controller);
+            if (entry != null) {
+                entry.interval = minInterval;
+                if (queue.remove(entry)) {
+                    entry.nextPoll = System.nanoTime();
+                    queue.add(entry);
+                }
+            }
+        }
+    }
+
+    public void addListener(StateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void tick() {
+        List<Entry> due = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (queue) {
+            budget = Math.min(budget + pollsPerTick, Math.max(pollsPerTick, TICKS_SCALE));
+            while (inFlight < maxConcurrency && budget >= TICKS_SCALE
+                    && !queue.isEmpty() && queue.peek().nextPoll - now <= 0) {
+                due.add(queue.poll());
+                inFlight++;
+                budget -= TICKS_SCALE;
+            }
+        }
+        for (Entry entry : due) {
+            try {
+                executor.execute(() -> poll(entry));
+            } catch (RuntimeException e) {
+                // executor is shut down or rejects task, entry is returned to queue
+                completed(entry, entry.controller.getState(), null, now, e);
+            }
+        }
+    }
+
+    private void poll(Entry entry) {
+        ControllerState previous = entry.controller.getState();
+        long start = System.nanoTime();
+        polls.incrementAndGet();
+        try {
+            entry.controller.async().init().whenComplete((current, e) -> completed(entry, previous, current, start, e));
+        } catch (RuntimeException e) {
+            completed(entry, previous, null, start, e);
+        }
+    }
+
+    private void completed(Entry entry, ControllerState previous, ControllerState current, long start, Throwable e) {
+        long now = System.nanoTime();
+        boolean changed = false;
+        if (e != null) {
+            failures.incrementAndGet();
+            logger.debug("Unable to poll {}", entry.controller, e);
+        } else {
+            long latency = now - start;
+            latencySum.addAndGet(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+            entry.lastSuccess = now;
+            changed = !current.equals(previous);
+        }
+        synchronized (queue) {
+            inFlight--;
+            entry.interval = changed ? minInterval : Math.min(maxInterval, entry.interval * 2);
+            entry.nextPoll = now + entry.interval;
+            if (entries.get(entry.controller) == entry) {
+                queue.add(entry);
+            }
+        }
+        if (changed) {
+            changes.incrementAndGet();
+            for (StateListener listener : listeners) {
+                try {
+                    listener.stateChanged(entry.controller, previous, current);
+                } catch (RuntimeException ex) {
+                    logger.error("State listener is failed for {}", entry.controller, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of sent state requests.
+     */
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     * @return number of failed state requests.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of found changes.
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /**
+     * @return average time between state request and answer.
+     */
+    public long getAverageLatency(TimeUnit unit) {
+        long succeeded = polls.get() - failures.get();
+        return succeeded > 0 ? unit.convert(latencySum.get() / succeeded, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    /**
+     * @return maximum time between state request and answer.
+     */
+    public long getMaxLatency(TimeUnit unit) {
+        return unit.convert(latencyMax.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return maximum age of known state among all controllers (time since last successful poll).
+     */
+    public long getMaxStaleness(TimeUnit unit) {
+        long now = System.nanoTime();
+        long max = 0;
+        synchronized (queue) {
+            for (Entry entry : entries.values()) {
+                max = Math.max(max, now - entry.lastSuccess);
+            }
+        }
+        return unit.convert(max, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return current poll interval of controller or -1, if controller isn't polled.
+     */
+    public long getInterval(LedController controller, TimeUnit unit) {
+        synchronized (queue) {
+            Entry entry = entries.get(controller);
+            return entry != null ? unit.convert(entry.interval, TimeUnit.NANOSECONDS) : -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatePoller{" +
+                "polls=" + polls +
+                ", failures=" + failures +
+                ", changes=" + changes +
+                ", averageLatencyMs=" + getAverageLatency(TimeUnit.MILLISECONDS) +
+                ", maxStalenessMs=" + getMaxStaleness(TimeUnit.MILLISECONDS) +
+                '}';
+    }
+
+    /**
+     * Stop polling. Polls in flight are completed, but not repeated.
+     */
+    @Override
+    public void close() {
+        ticker.cancel(false);
+        synchronized (queue) {
+            entries.clear();
+            queue.clear();
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    private final class Entry {
+        private final LedController controller;
+        private long interval = minInterval;
+        private long nextPoll;
+        private volatile long lastSuccess;
+
+        private Entry(LedController controller, long nextPoll) {
+            this.controller = controller;
+            this.nextPoll = nextPoll;
+            this.lastSuccess = System.nanoTime();
+        }
+    }
+
+    public static final class StatePollerBuilder {
+        private final List<LedController> controllers = new ArrayList<>();
+        private final List<StateListener> listeners = new ArrayList<>();
+        /**
+         * Poll interval after change in milliseconds.
+         */
+        private long minInterval = 1_000;
+        /**
+         * Poll interval of idle controller in milliseconds.
+         */
+        private long maxInterval = 30_000;
+        /**
+         * Maximum number of polls in flight.
+         */
+        private int maxConcurrency = 16;
+        /**
+         * Maximum number of polls per second for whole fleet.
+         */
+        private int maxPollRate = 100;
+        /**
+         * Scheduler resolution in milliseconds.
+         */
+        private long tick = 50;
+        /**
+         * Executor for start polls. If not provided - blocking I/O executor is created and shut down with poller.
+         * Direct executor {@code Runnable::run} is enough for non-blocking transports.
+         */
+        private Executor executor;
+
+        public StatePollerBuilder() {
+        }
+
+        public static StatePollerBuilder aStatePoller() {
+            return new StatePollerBuilder();
+        }
+
+        public StatePollerBuilder add(LedController controller) {
+            this.controllers.add(controller);
+            return this;
+        }
+
+        public StatePollerBuilder addAll(Collection<LedController> controllers) {
+            this.controllers.addAll(controllers);
+            return this;
+        }
+
+        public StatePollerBuilder listener(StateListener listener) {
+            this.listeners.add(listener);
+            return this;
+        }
+
+        public StatePollerBuilder interval(long minInterval, long maxInterval) {
+            this.minInterval = minInterval;
+            this.maxInterval = maxInterval;
+            return this;
+        }
+
+        public StatePollerBuilder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public StatePollerBuilder maxPollRate(int maxPollRate) {
+            this.maxPollRate = maxPollRate;
+            return this;
+        }
+
+        public StatePollerBuilder tick(long tick) {
+            this.tick = tick;
+            return this;
+        }
+
+        public StatePollerBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public StatePoller build() {
+            if (minInterval <= 0 || maxInterval < minInterval) {
+                throw new IllegalStateException("Wrong poll interval");
+            }
+            if (maxConcurrency <= 0 || maxPollRate <= 0 || tick <= 0) {
+                throw new IllegalStateException("Concurrency, poll rate and tick must be positive");
+            }
+            return new StatePoller(this);
+        }
+    }
+}
@@ -1,19 +1,341 @@
 package ru.ittim.openhab.ledbinding.library;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Finder of controllers by known addresses, for networks where broadcast is blocked.
+ * Addresses are single hosts ({@code 192.168.1.10}, {@code host:port}) or CIDR ranges ({@code 192.168.0.0/22}).
+ * All addresses are probed from one selector with bounded number of simultaneous connections: address is
+ * reported only if it accepts connection and answers state request, so other TCP services aren't mistaken
+ * for controllers.
+ * Found controllers use connection pool of finder. Pool, which is created by finder, is closed with finder.
+ */
+public class StaticIpFinder implements ControllerFinder, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StaticIpFinder.class);
 
-public class StaticIpFinder {
-    private final List<String> addresses ;
+    private final List<String> addresses;
+    private final int port;
+    /**
+     * Timeouts in milliseconds.
+     */
+    private final int connectTimeout;
+    private final int responseTimeout;
+    private final int maxConcurrency;
+    private final ConnectionPool connectionPool;
+    /**
+     * Pool is created by finder and closed with it.
+     */
+    private final boolean ownPool;
 
+    /**
+     * Finder with own connection pool, close finder when found controllers aren't needed anymore.
+     */
     public StaticIpFinder(List<String> addresses) {
+        this(addresses, LedController.DEFAULT_CONTROLLER_PORT, 300, LedController.TIMEOUT, 256,
+                new ConnectionPool.ConnectionPoolBuilder().build(), true);
+    }
+
+    private StaticIpFinder(List<String> addresses, int port, int connectTimeout, int responseTimeout,
+                           int maxConcurrency, ConnectionPool connectionPool, boolean ownPool) {
         this.addresses = addresses;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.responseTimeout = responseTimeout;
+        this.maxConcurrency = maxConcurrency;
+        this.connectionPool = connectionPool;
+        this.ownPool = ownPool;
+    }
+
+    /**
+     * Close connection pool, if it was created by finder. Pool passed to builder is left open.
+     */
+    @Override
+    public void close() {
+        if (ownPool) {
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Probe all addresses.
+     *
+     * @return controllers, which answered state request.
+     */
+    @Override
+    public Set<LedController> getControllers() {
+        return new HashSet<>(probe(it -> {
+        }));
+    }
+
+    /**
+     * Probe all addresses and pass every controller to listener as soon as it answers.
+     * Controller is created without connection, with state from its answer.
+     *
+     * @param listener listener of found controllers, called in caller thread.
+     * @return found controllers in order of answers.
+     */
+    public Collection<LedController> probe(Consumer<LedController> listener) {
+        List<InetSocketAddress> targets = targets();
+        List<LedController> found = new ArrayList<>();
+        List<Probe> active = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            int next = 0;
+            while (next < targets.size() || !active.isEmpty()) {
+                while (active.size() < maxConcurrency && next < targets.size()) {
+                    Probe probe = new Probe(targets.get(next++));
+                    if (probe.start(selector)) {
+                        active.add(probe);
+                    }
+                }
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for (Iterator<Probe> iterator = active.iterator(); iterator.hasNext(); ) {
+                    Probe probe = iterator.next();
+                    if (probe.deadline - now <= 0) {
+                        logger.trace("No answer from {}", probe.address);
+                        probe.close();
+                        iterator.remove();
+                    } else {
+                        wait = Math.min(wait, probe.deadline - now);
+                    }
+                }
+                if (active.isEmpty()) {
+                    continue;
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    ControllerState state = probe.handle(key);
+                    if (probe.closed) {
+                        active.remove(probe);
+                    }
+                    if (state != null) {
+                        LedController controller = connectionPool.controller(
+                                probe.address.getHostString(), probe.address.getPort(), "", "");
+                        controller.updateState(it -> state);
+                        logger.info("Found controller {}", probe.address);
+                        found.add(controller);
+                        notify(listener, controller);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            for (Probe probe : active) {
+                probe.close();
+            }
+            throw new RuntimeException("Unable to probe addresses", e);
+        }
+        logger.info("Probed {} addresses in {} ms. Found {} controllers", targets.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), found.size());
+        return Collections.unmodifiableList(found);
+    }
+
+    private void notify(Consumer<LedController> listener, LedController controller) {
+        try {
+            listener.accept(controller);
+        } catch (RuntimeException e) {
+            logger.error("Probe listener is failed for {}", controller, e);
+        }
     }
 
+    private List<InetSocketAddress> targets() {
+        List<InetSocketAddress> targets = new ArrayList<>();
+        for (String address : addresses) {
+            int colon = address.lastIndexOf(':');
+            if (address.contains("/")) {
+                for (InetAddress host : expand(address)) {
+                    targets.add(new InetSocketAddress(host, port));
+                }
+            } else if (colon > 0) {
+                targets.add(InetSocketAddress.createUnresolved(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))));
+            } else {
+                targets.add(InetSocketAddress.createUnresolved(address, port));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Hosts of IPv4 CIDR range, without network and broadcast addresses for ranges larger than two addresses.
+     *
+     * @param cidr range, for example 192.168.0.0/22.
+     * @return addresses of range in ascending order.
+     */
+    static List<InetAddress> expand(String cidr) {
+        String[] parts = cidr.split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Wrong CIDR range " + cidr);
+        }
+        int prefix = Integer.parseInt(parts[1]);
+        byte[] bytes = ipv4(parts[0]);
+        if (prefix < 16 || prefix > 32) {
+            throw new IllegalArgumentException("Prefix of " + cidr + " must be from 16 to 32");
+        }
+        int base = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+        int size = 1 << (32 - prefix);
+        int network = base & (-1 << (32 - prefix));
+        int first = size > 2 ? 1 : 0;
+        int last = size > 2 ? size - 2 : size - 1;
+        List<InetAddress> result = new ArrayList<>(size);
+        for (int i = first; i <= last; i++) {
+            int ip = network + i;
+            try {
+                result.add(InetAddress.getByAddress(new byte[]{
+                        (byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip}));
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] ipv4(String address) {
+        String[] octets = address.split("\\.");
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("Wrong IPv4 address " + address);
+        }
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            int octet = Integer.parseInt(octets[i]);
+            if (octet < 0 || octet > 255) {
+                throw new IllegalArgumentException("Wrong IPv4 address " + address);
+            }
+            bytes[i] = (byte) octet;
+        }
+        return bytes;
+    }
+
+    /**
+     * Connection to one address: connect, send state request, read answer.
+     */
+    private final class Probe {
+        private final InetSocketAddress address;
+        private final ByteBuffer request = ByteBuffer.wrap(LedController.REQUEST_STATE_MSG);
+        private final ByteBuffer response = ByteBuffer.allocate(ControllerState.RESPONSE_LENGTH);
+        private SocketChannel channel;
+        private long deadline;
+        private boolean closed;
+
+        private Probe(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * @return false, if address is refused at once.
+         */
+        private boolean start(Selector selector) {
+            try {
+                InetSocketAddress resolved = address.isUnresolved()
+                        ? new InetSocketAddress(address.getHostString(), address.getPort())
+                        : address;
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+                if (channel.connect(resolved)) {
+                    channel.register(selector, SelectionKey.OP_WRITE, this);
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(responseTimeout);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                logger.trace("Unable to connect to {}", address, e);
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * @return state, when answer is received, otherwise null.
+         */
+        private ControllerState handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(responseTimeout);
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    if (channel.read(response) < 0) {
+                        close();
+                    } else if (!response.hasRemaining()) {
+                        close();
+                        return ControllerState.parse(response.array());
+                    }
+                }
+            } catch (ProtocolException e) {
+                logger.debug("{} isn't controller: {}", address, e.getMessage());
+            } catch (IOException e) {
+                logger.trace("Unable to probe {}", address, e);
+                close();
+            }
+            return null;
+        }
+
+        private void close() {
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.trace("Unable to close channel", e);
+                }
+            }
+        }
+    }
 
     public static final class StaticIpFinderBuilder {
         private List<String> addresses = new ArrayList<>();
+        /**
+         * Port of controllers without port in address.
+         */
+        private int port = LedController.DEFAULT_CONTROLLER_PORT;
+        /**
+         * Timeout for connect in milliseconds.
+         */
+        private int connectTimeout = 300;
+        /**
+         * Timeout for answer on state request in milliseconds.
+         */
+        private int responseTimeout = LedController.TIMEOUT;
+        /**
+         * Maximum number of simultaneous probes.
+         */
+        private int maxConcurrency = 256;
+        /**
+         * Connections of found controllers. If not provided - pool with blocking sockets is created and closed
+         * with finder.
+         */
+        private ConnectionPool connectionPool;
 
         public StaticIpFinderBuilder addAll(List<String> addresses) {
             this.addresses.addAll(addresses);
@@ -30,8 +352,45 @@ public class StaticIpFinder {
             return this;
         }
 
+        public StaticIpFinderBuilder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public StaticIpFinderBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public StaticIpFinderBuilder responseTimeout(int responseTimeout) {
+            this.responseTimeout = responseTimeout;
+            return this;
+        }
+
+        public StaticIpFinderBuilder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public StaticIpFinderBuilder connectionPool(ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
         public StaticIpFinder build() {
-            return new StaticIpFinder(addresses);
+            if (maxConcurrency <= 0) {
+                throw new IllegalStateException("Concurrency must be positive");
+            }
+            for (String address : addresses) {
+                if (address.contains("/")) {
+                    // fail fast on wrong range instead of first probe
+                    expand(address);
+                }
+            }
+            return new StaticIpFinder(new ArrayList<>(addresses), port, connectTimeout, responseTimeout,
+                    maxConcurrency,
+                    connectionPool != null ? connectionPool : new ConnectionPool.ConnectionPoolBuilder().build(),
+                    connectionPool == null);
         }
 
     }
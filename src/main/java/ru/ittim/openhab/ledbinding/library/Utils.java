@@ -1,10 +1,27 @@
 package ru.ittim.openhab.ledbinding.library;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Helper for library
  * Created by Timofey on 24.06.2016.
  */
 class Utils {
+    /**
+     * Shared daemon scheduler for timers of library.
+     */
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "led-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Calc checksum for command and return command with checksum in last byte
      * @param bytes command without checksum
@@ -21,4 +38,44 @@ class Utils {
         res[bytes.length] = checkSum;
         return res;
     }
+
+    /**
+     * Calc checksum for command, which is written to buffer from {@code start} to current position,
+     * and put checksum after command. No objects are allocated.
+     * @param buffer buffer with command
+     * @param start index of first byte of command
+     */
+    static void putCheckSum(ByteBuffer buffer, int start) {
+        byte checkSum = 0x0;
+        for (int i = start; i < buffer.position(); i++) {
+            checkSum += buffer.get(i);
+        }
+        buffer.put(checkSum);
+    }
+
+    /**
+     * Limit time of asynchronous operation.
+     * @param future operation
+     * @param timeout timeout in milliseconds
+     * @param <T> type of result
+     * @return future, which is completed with result of operation or {@link TimeoutException} after timeout
+     */
+    static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timer = SCHEDULER.schedule(
+                () -> result.completeExceptionally(new TimeoutException("Timeout " + timeout + " ms")),
+                timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, e) -> {
+            timer.cancel(false);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
 }
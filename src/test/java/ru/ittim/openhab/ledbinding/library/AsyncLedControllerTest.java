@@ -0,0 +1,155 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLedControllerTest {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().build();
+        loop = new NioEventLoop("led-io");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        simulator.close();
+    }
+
+    private LedController controller() throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .build();
+    }
+
+    @Test
+    void sceneForManyControllers() throws Exception {
+        List<CompletableFuture<ControllerState>> scene = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            AsyncLedController controller = controller().async();
+            scene.add(controller.turnOn()
+                    .thenCompose(it -> controller.setRGB(100, 50, 0))
+                    .thenCompose(it -> controller.init()));
+        }
+        CompletableFuture.allOf(scene.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (CompletableFuture<ControllerState> future : scene) {
+            ControllerState state = future.get();
+            assertEquals(PowerState.ON, state.getPower());
+            assertEquals(ControllerType.RGB, state.getType());
+            assertEquals(100, state.getChannels().getR());
+            assertEquals(0, state.getChannels().getB());
+        }
+        assertEquals(200, simulator.getPowerCommands());
+        assertEquals(2 * 200, simulator.getChannelCommands());
+    }
+
+    @Test
+    void stateIsSharedWithSyncView() throws Exception {
+        LedController controller = controller();
+        ControllerState state = controller.async().setWw(100).get(1, TimeUnit.SECONDS);
+        assertSame(state, controller.getState());
+        assertEquals(100, controller.getChannels().getWw());
+        assertSame(controller, controller.async().sync());
+    }
+
+    @Test
+    void failedConnectionFailsFuture() throws Exception {
+        LedController controller = controller();
+        controller.close();
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> controller.async().init().get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    void concurrentChannelChangesAreMerged() throws Exception {
+        LedController controller = controller();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<CompletableFuture<ControllerState>>> changes = new ArrayList<>();
+            changes.add(executor.submit(() -> {
+                start.await();
+                return controller.async().setRGB(100, 50, 0);
+            }));
+            changes.add(executor.submit(() -> {
+                start.await();
+                return controller.async().setWw(100);
+            }));
+            changes.add(executor.submit(() -> {
+                start.await();
+                return controller.async().setCw(50);
+            }));
+            start.countDown();
+            for (Future<CompletableFuture<ControllerState>> change : changes) {
+                change.get(1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        ControllerChannels expected = ControllerChannels.fromPercents(100, 50, 0, 100, 50);
+        assertEquals(expected, controller.getChannels());
+        assertEquals(expected, controller.async().init().get(1, TimeUnit.SECONDS).getChannels());
+    }
+
+    @Test
+    void modeSpeedBelongsToController() throws Exception {
+        LedController fast = controller();
+        LedController slow = controller();
+        fast.async().setMode(FunctionalModeRgb.SEVEN_COLOR, 1).get(1, TimeUnit.SECONDS);
+        slow.async().setMode(FunctionalModeRgb.SEVEN_COLOR, FunctionalModeRgb.fromPercentSpeed(0))
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals(1, fast.getState().getSpeed());
+        assertEquals(0x1f, slow.getState().getSpeed());
+        assertEquals(0, slow.getState().getPercentSpeed());
+    }
+
+    @Test
+    void syncApiWaitsForConfiguredDeadlines() throws IOException {
+        try (ControllerSimulator slow = new ControllerSimulator.SimulatorBuilder().latency(1_300).build()) {
+            LedController patient = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(slow.getPort(0))
+                    .eventLoop(loop)
+                    .responseTimeout(3_000)
+                    .build();
+            patient.init();
+            assertEquals(PowerState.OFF, patient.getPower());
+            patient.close();
+
+            LedController impatient = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(slow.getPort(0))
+                    .eventLoop(loop)
+                    .responseTimeout(100)
+                    .build();
+            long start = System.nanoTime();
+            assertThrows(SocketTimeoutException.class, impatient::init);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1_000));
+            impatient.close();
+        }
+    }
+}
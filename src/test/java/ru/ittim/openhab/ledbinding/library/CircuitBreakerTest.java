@@ -0,0 +1,113 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void breakerIsProbedAfterOpenInterval() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50, 200);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        // only one probe is let through
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRetryDelay() > 50);
+
+        TimeUnit.MILLISECONDS.sleep(110);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void deadDevicesDontDelayFleet() throws Exception {
+        List<ServerSocket> dead = new ArrayList<>();
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(30).build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .eventLoop(loop)
+                     .responseTimeout(300)
+                     .circuitBreaker(1, 10_000, 10_000)
+                     .build()) {
+            ControllerGroup.ControllerGroupBuilder builder = new ControllerGroup.ControllerGroupBuilder();
+            for (int i = 0; i < 30; i++) {
+                builder.add(pool.controller("127.0.0.1", simulator.getPort(i), "live" + i, ""));
+            }
+            for (int i = 0; i < 5; i++) {
+                // connection is accepted by backlog, but device never answers
+                ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+                dead.add(socket);
+                builder.add(pool.controller("127.0.0.1", socket.getLocalPort(), "dead" + i, ""));
+            }
+            ControllerGroup group = builder.build();
+
+            GroupReport first = group.init().get(5, TimeUnit.SECONDS);
+            assertEquals(30, first.getSucceeded());
+            assertEquals(5, first.getFailed());
+            assertEquals(5, pool.getOfflineDevices());
+            long failures = pool.getFailures();
+
+            GroupReport second = group.init().get(5, TimeUnit.SECONDS);
+            assertEquals(30, second.getSucceeded());
+            assertEquals(5, second.getFailed());
+            // dead devices are rejected by open breaker without waiting for response timeout
+            assertEquals(failures, pool.getFailures());
+            for (GroupReport.MemberResult result : second.getResults()) {
+                if (!result.isSucceeded()) {
+                    assertTrue(result.getError() instanceof ConnectException);
+                }
+            }
+        } finally {
+            for (ServerSocket socket : dead) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void answerHasOverallDeadline() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            Thread chatty = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    // garbage every 50 ms keeps every read shorter than read timeout
+                    for (int i = 0; i < 40; i++) {
+                        socket.getOutputStream().write(0x00);
+                        TimeUnit.MILLISECONDS.sleep(50);
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            chatty.setDaemon(true);
+            chatty.start();
+            SocketTransport transport = new SocketTransport("127.0.0.1", server.getLocalPort(),
+                    Deadlines.of(200, 200, 300), false);
+            long start = System.nanoTime();
+            Throwable error = assertThrows(Exception.class, () -> transport.request(LedController.REQUEST_STATE_MSG,
+                    ControllerState.RESPONSE_LENGTH).join());
+            assertTrue(error.getCause() instanceof SocketTimeoutException);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(600));
+            transport.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.ittim.openhab.ledbinding.library.ControllerChannels.*;
+
+class ColorEngineTest {
+    private final ColorEngine linear = new ColorEngine.ColorEngineBuilder().gamma(1).build();
+
+    @Test
+    void hsvMatchesDoublePath() {
+        int[] expected = new int[3];
+        for (int hue = 0; hue < ColorEngine.HUE_RANGE; hue++) {
+            Effects.hsvToRgb((double) hue / ColorEngine.HUE_RANGE, 200 / 255.0, 180 / 255.0, expected);
+            long packed = linear.hsv(hue, 200, 180);
+            for (int i = R; i <= B; i++) {
+                assertTrue(Math.abs(expected[i] - channel(packed, i)) <= 1, "hue " + hue + " channel " + i);
+            }
+            assertEquals(0, channel(packed, WW));
+        }
+        assertEquals(linear.hsv(10, 255, 255), linear.hsv(10 + ColorEngine.HUE_RANGE, 255, 255));
+    }
+
+    @Test
+    void gammaAndCalibrationAreApplied() {
+        ColorEngine engine = new ColorEngine.ColorEngineBuilder().scale(R, 128).build();
+        assertEquals(0, engine.correct(G, 0));
+        assertEquals(255, engine.correct(G, 255));
+        assertEquals(56, engine.correct(G, 128));
+        assertEquals(128, engine.correct(R, 255));
+        assertEquals(pack(128, 255, 56, 0, 0), engine.rgb(255, 255, 128));
+        assertEquals(pack(10, 20, 30, 0, 0), linear.rgb(10, 20, 30));
+        assertEquals(pack(5, 10, 15, 0, 0), linear.rgb(10, 20, 30, 128));
+    }
+
+    @Test
+    void whiteIsMixedFromTemperature() {
+        assertEquals(pack(0, 0, 0, 200, 0), linear.cct(2700, 200));
+        assertEquals(pack(0, 0, 0, 200, 0), linear.cct(1500, 200));
+        assertEquals(pack(0, 0, 0, 0, 200), linear.cct(6500, 200));
+        long neutral = linear.cct(4000, 255);
+        assertEquals(255, channel(neutral, WW) + channel(neutral, CW));
+        assertTrue(channel(neutral, CW) > 100 && channel(neutral, CW) < 200);
+
+        ColorEngine rgbw = new ColorEngine.ColorEngineBuilder().gamma(1).whiteExtraction(2700).build();
+        assertEquals(pack(100, 50, 0, 100, 0), rgbw.rgb(200, 150, 100));
+        assertThrows(IllegalStateException.class, () -> new ColorEngine.ColorEngineBuilder().whiteExtraction(9000).build());
+    }
+
+    @Test
+    void effectUsesEngine() {
+        int[] channels = new int[5];
+        Effects.hsvRotation(1_000, 255, 255, linear).render(0, channels);
+        assertArrayEquals(new int[]{255, 0, 0, 0, 0}, channels);
+        assertEquals(127, ControllerChannels.fromPercents(50, 0, 0, 0, 0).getRawR() & 0xFF);
+        assertEquals(49, ControllerChannels.of(127, 0, 0, 0, 0).getR());
+    }
+
+    @Test
+    void valuesOutOfRangeAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> linear.correct(R, 256));
+        assertThrows(IllegalArgumentException.class, () -> linear.correct(R, -1));
+        assertThrows(IllegalArgumentException.class, () -> linear.correct(5, 0));
+        assertThrows(IllegalArgumentException.class, () -> linear.rgb(0, 300, 0));
+        assertThrows(IllegalArgumentException.class, () -> linear.rgb(255, 255, 255, 256));
+        assertThrows(IllegalArgumentException.class, () -> linear.hsv(0, 256, 255));
+        assertThrows(IllegalArgumentException.class, () -> linear.cct(4000, 1279));
+        assertThrows(IllegalArgumentException.class, () -> Effects.hsvRotation(1_000, 255, 256, linear));
+    }
+}
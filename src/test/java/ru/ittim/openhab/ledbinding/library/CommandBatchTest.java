@@ -0,0 +1,99 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandBatchTest {
+
+    @Test
+    void sceneIsWrittenAtOnce() throws Exception {
+        SimpleControllerMetrics metrics = new SimpleControllerMetrics();
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             NioEventLoop loop = new NioEventLoop("led-io")) {
+            LedController controller = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(simulator.getPort(0))
+                    .eventLoop(loop)
+                    .metrics(metrics)
+                    .tcpNoDelay(true)
+                    .build();
+            ControllerChannels channels = ControllerChannels.of(10, 20, 30, 40, 50);
+            CommandBatch batch = controller.batch()
+                    .turnOn()
+                    .mode(FunctionalModeRgb.SEVEN_COLOR, 10)
+                    .channels(channels);
+            assertEquals(3, batch.size());
+
+            ControllerState state = batch.send().get(5, TimeUnit.SECONDS);
+            assertEquals(0, batch.size());
+            assertEquals(PowerState.ON, state.getPower());
+            assertEquals(channels, state.getChannels());
+
+            // state answer is sent after all commands of batch are handled
+            ControllerState device = controller.async().init().get(5, TimeUnit.SECONDS);
+            assertEquals(PowerState.ON, device.getPower());
+            assertEquals(channels, device.getChannels());
+            assertEquals(1, simulator.getPowerCommands());
+            assertEquals(1, simulator.getModeCommands());
+            // channels command is rgb frame and white frame
+            assertEquals(2, simulator.getChannelCommands());
+
+            String name = "127.0.0.1:" + simulator.getPort(0);
+            assertEquals(1, metrics.getDevice(name).getBatches());
+            assertEquals(0, metrics.getDevice(name).getCommands());
+            assertEquals(PowerState.COMMAND_LENGTH + FunctionalModeRgb.COMMAND_LENGTH
+                    + ControllerChannels.COMMAND_LENGTH + LedController.REQUEST_STATE_MSG.length,
+                    metrics.getDevice(name).getBytesSent());
+            controller.close();
+        }
+    }
+
+    @Test
+    void blockingTransportJoinsFrames() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build()) {
+            LedController controller = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(simulator.getPort(0))
+                    .build();
+            controller.batch().turnOff().channels(ControllerChannels.of(1, 2, 3, 4, 5)).send()
+                    .get(5, TimeUnit.SECONDS);
+            controller.init();
+
+            assertEquals(PowerState.OFF, controller.getPower());
+            assertEquals(ControllerChannels.of(1, 2, 3, 4, 5), controller.getChannels());
+            controller.close();
+        }
+    }
+
+    @Test
+    void batchReplacesQueuedCommands() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             NioEventLoop loop = new NioEventLoop("led-io")) {
+            LedController controller = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(simulator.getPort(0))
+                    .eventLoop(loop)
+                    .maxSendRate(2)
+                    .build();
+            controller.async().setMode(FunctionalModeRgb.SEVEN_COLOR, 10);
+            // waits for rate limit
+            CompletableFuture<ControllerState> queued = controller.async()
+                    .setMode(FunctionalModeRgb.RED_GRADUAL_CHAGE, 10);
+
+            ControllerState state = controller.batch().mode(FunctionalModeRgb.GREEN_GRADUAL_CHAGE, 5).send()
+                    .get(5, TimeUnit.SECONDS);
+            assertTrue(queued.isDone());
+            assertEquals(FunctionalModeRgb.GREEN_GRADUAL_CHAGE, state.getMode());
+            assertEquals(0, controller.getCommandQueue().getDepth());
+
+            ControllerState device = controller.async().init().get(5, TimeUnit.SECONDS);
+            assertEquals(FunctionalModeRgb.GREEN_GRADUAL_CHAGE, device.getMode());
+            assertEquals(5, device.getSpeed());
+            controller.close();
+        }
+    }
+}
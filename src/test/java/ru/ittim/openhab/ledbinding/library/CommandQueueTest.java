@@ -0,0 +1,111 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandQueueTest {
+
+    /**
+     * Transport, which completes writes only by test.
+     */
+    private static class ManualTransport implements ControllerTransport {
+        private final List<byte[]> frames = new ArrayList<>();
+        private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+        @Override
+        public synchronized CompletableFuture<Void> send(byte[] frame) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            frames.add(frame);
+            writes.add(future);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+            throw new UnsupportedOperationException();
+        }
+
+        synchronized void completeAll() {
+            new ArrayList<>(writes).forEach(it -> it.complete(null));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void pendingCommandsAreCoalesced() {
+        ManualTransport transport = new ManualTransport();
+        CommandQueue queue = new CommandQueue(transport, 0, null);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(queue.offer(CommandQueue.Kind.CHANNELS, new byte[]{(byte) i}));
+        }
+        futures.add(queue.offer(CommandQueue.Kind.MODE, new byte[]{0x61}));
+        assertEquals(1, transport.frames.size());
+
+        transport.completeAll();
+        transport.completeAll();
+        transport.completeAll();
+
+        assertEquals(3, transport.frames.size());
+        assertArrayEquals(new byte[]{49}, transport.frames.get(1));
+        assertArrayEquals(new byte[]{0x61}, transport.frames.get(2));
+        assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+        assertEquals(51, queue.getSubmitted());
+        assertEquals(3, queue.getSent());
+        assertEquals(48, queue.getCoalesced());
+        assertEquals(0, queue.getDropped());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    void sendRateIsLimited() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        CommandQueue queue = new CommandQueue(transport, 10, null);
+        long start = System.nanoTime();
+        queue.offer(CommandQueue.Kind.CHANNELS, new byte[]{1});
+        transport.completeAll();
+        CompletableFuture<Void> second = queue.offer(CommandQueue.Kind.CHANNELS, new byte[]{2});
+        assertEquals(1, transport.frames.size());
+
+        while (transport.frames.size() < 2) {
+            Thread.sleep(5);
+        }
+        transport.completeAll();
+        second.get(1, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(95));
+    }
+
+    @Test
+    void failedCommandsAreDropped() {
+        ManualTransport transport = new ManualTransport();
+        CommandQueue queue = new CommandQueue(transport, 0, null);
+        CompletableFuture<Void> first = queue.offer(CommandQueue.Kind.CHANNELS, new byte[]{1});
+        transport.writes.get(0).completeExceptionally(new IOException("broken"));
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void brokenEncoderDoesntStopQueue() {
+        ManualTransport transport = new ManualTransport();
+        CommandQueue queue = new CommandQueue(transport, 0, null);
+        CompletableFuture<Void> broken = queue.offer(CommandQueue.Kind.MODE,
+                () -> FunctionalModeRgb.UNKNOWN.getCommand());
+        assertTrue(broken.isCompletedExceptionally());
+        assertEquals(1, queue.getDropped());
+
+        CompletableFuture<Void> next = queue.offer(CommandQueue.Kind.CHANNELS, new byte[]{1});
+        transport.completeAll();
+        assertTrue(next.isDone() && !next.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,159 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    @Test
+    void connectionIsOpenedOnFirstCommand() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(3).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().build()) {
+            List<LedController> controllers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                controllers.add(controller(simulator, i, pool));
+            }
+            assertEquals(0, pool.getOpenConnections());
+
+            controllers.get(1).init();
+            controllers.get(1).turnOn();
+            assertEquals(1, pool.getOpenConnections());
+            assertEquals(1, pool.getConnects());
+            assertEquals(PowerState.ON, simulator.getDevices().get(1).getState().getPower());
+            assertEquals(1, simulator.getConnections());
+        }
+    }
+
+    @Test
+    void controllersShareConnection() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().eventLoop(loop).build()) {
+            controller(simulator, 0, pool).init();
+            controller(simulator, 0, pool).init();
+            assertEquals(1, pool.getSize());
+            assertEquals(1, simulator.getConnections());
+        }
+    }
+
+    @Test
+    void reconnectAfterPowerCycle() throws Exception {
+        ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+        int port = simulator.getPort(0);
+        try (NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .eventLoop(loop)
+                     .responseTimeout(200)
+                     .backoff(100, 1_000)
+                     .build()) {
+            LedController controller = controller(simulator, 0, pool);
+            controller.init();
+            simulator.close();
+
+            assertThrows(IOException.class, controller::init);
+            assertEquals(0, pool.getOpenConnections());
+            // address is in backoff, command fails without connect
+            assertThrows(ConnectException.class, controller::init);
+            assertEquals(1, pool.getRejected());
+
+            simulator = new ControllerSimulator.SimulatorBuilder().basePort(port).build();
+            TimeUnit.MILLISECONDS.sleep(150);
+            controller.init();
+            assertEquals(2, pool.getConnects());
+            assertEquals(PowerState.OFF, controller.getPower());
+        } finally {
+            simulator.close();
+        }
+    }
+
+    @Test
+    void idleConnectionIsProbedAndClosed() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .keepAliveInterval(20)
+                     .idleTimeout(200)
+                     .maintenanceInterval(10)
+                     .build()) {
+            controller(simulator, 0, pool).init();
+            TimeUnit.MILLISECONDS.sleep(400);
+
+            assertEquals(0, pool.getOpenConnections());
+            assertEquals(1, pool.getEvictions());
+            assertTrue(pool.getProbes() > 0);
+            assertTrue(simulator.getStateRequests() > 1);
+        }
+    }
+
+    @Test
+    void blockingProbesDontDelayScheduler() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().latency(1_000).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .responseTimeout(5_000)
+                     .keepAliveInterval(20)
+                     .maintenanceInterval(10)
+                     .build()) {
+            controller(simulator, 0, pool).init();
+            long start = System.nanoTime();
+            while (pool.getProbes() == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1)) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertTrue(pool.getProbes() > 0);
+            // probe waits 1 second for answer, shared scheduler stays responsive
+            for (int i = 0; i < 5; i++) {
+                Utils.SCHEDULER.submit(() -> { }).get(500, TimeUnit.MILLISECONDS);
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            // only one probe per connection is in flight
+            assertTrue(pool.getProbes() <= 3);
+        }
+    }
+
+    @Test
+    void numberOfIdleConnectionsIsLimited() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(4).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .maxIdle(2, 50)
+                     .maintenanceInterval(10)
+                     .build()) {
+            for (int i = 0; i < 4; i++) {
+                controller(simulator, i, pool).init();
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertEquals(2, pool.getOpenConnections());
+            assertEquals(2, pool.getEvictions());
+        }
+    }
+
+    @Test
+    void recentlyUsedConnectionsAreNotLimited() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(4).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .maxIdle(0, 10_000)
+                     .maintenanceInterval(10)
+                     .build()) {
+            for (int i = 0; i < 4; i++) {
+                controller(simulator, i, pool).init();
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+            // active fleet is larger than limit of idle connections
+            assertEquals(4, pool.getOpenConnections());
+            assertEquals(0, pool.getEvictions());
+        }
+    }
+
+    private static LedController controller(ControllerSimulator simulator, int device, ConnectionPool pool)
+            throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(device))
+                .connectionPool(pool)
+                .build();
+    }
+}
@@ -0,0 +1,163 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerExecutorsTest {
+
+    @Test
+    void blockingControllersRunInExecutor() throws Exception {
+        ExecutorService executor = ControllerExecutors.newBlockingIoExecutor("led-io");
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(50).latency(20).build()) {
+            List<LedController> controllers = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                controllers.add(new LedController.LedControllerBuilder()
+                        .host(simulator.getHost())
+                        .port(simulator.getPort(i))
+                        .executor(executor)
+                        .build());
+            }
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            List<CompletableFuture<ControllerState>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (LedController controller : controllers) {
+                futures.add(controller.async().init().whenComplete((state, e) -> threads.add(Thread.currentThread())));
+            }
+            // caller isn't blocked by 50 answers with 20 ms latency
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+            assertFalse(threads.contains(Thread.currentThread()));
+            assertEquals(50, simulator.getStateRequests());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void commandsOfControllerAreOrdered() throws Exception {
+        ExecutorService executor = ControllerExecutors.newPlatformThreadExecutor("led-io");
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             LedController controller = new LedController.LedControllerBuilder()
+                     .host(simulator.getHost())
+                     .port(simulator.getPort(0))
+                     .executor(executor)
+                     .build()) {
+            controller.async().turnOn();
+            controller.async().setChannels(ControllerChannels.fromPercents(100, 0, 0, 0, 0));
+            controller.async().turnOff();
+            ControllerState state = controller.async().init().get(1, TimeUnit.SECONDS);
+
+            assertEquals(PowerState.OFF, state.getPower());
+            assertEquals(100, state.getChannels().getR());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failedCommandDoesntStopNextCommands() throws Exception {
+        ExecutorService executor = ControllerExecutors.newPlatformThreadExecutor("led-io");
+        try {
+            ExecutorTransport transport = new ExecutorTransport(new ControllerTransport() {
+                @Override
+                public CompletableFuture<Void> send(byte[] frame) {
+                    throw new IllegalArgumentException("Broken command");
+                }
+
+                @Override
+                public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+                    return CompletableFuture.completedFuture(frame);
+                }
+
+                @Override
+                public void close() {
+                }
+            }, executor);
+
+            CompletableFuture<Void> failed = transport.send(new byte[]{0x71});
+            ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertArrayEquals(new byte[]{0x72}, transport.request(new byte[]{0x72}, 1).get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void virtualThreadsDependOnJdk() {
+        if (ControllerExecutors.isVirtualThreadsSupported()) {
+            ControllerExecutors.newVirtualThreadPerTaskExecutor().shutdown();
+        } else {
+            assertThrows(UnsupportedOperationException.class, ControllerExecutors::newVirtualThreadPerTaskExecutor);
+        }
+    }
+
+    @Test
+    void blockingIoExecutorUsesVirtualThreadsOnJdk21() throws Exception {
+        // set by JDK 21 test task, so the variant fails instead of silently testing platform threads
+        assertEquals(Boolean.getBoolean("led.virtualThreads"), ControllerExecutors.isVirtualThreadsSupported());
+        ExecutorService executor = ControllerExecutors.newBlockingIoExecutor("led-io");
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             LedController controller = new LedController.LedControllerBuilder()
+                     .host(simulator.getHost())
+                     .port(simulator.getPort(0))
+                     .executor(executor)
+                     .build()) {
+            Thread thread = executor.submit(Thread::currentThread).get(1, TimeUnit.SECONDS);
+            if (ControllerExecutors.isVirtualThreadsSupported()) {
+                assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+            } else {
+                assertTrue(thread.isDaemon());
+                assertTrue(thread.getName().startsWith("led-io-"));
+            }
+            assertEquals(PowerState.OFF, controller.async().init().get(1, TimeUnit.SECONDS).getPower());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void executorIsOnlyForBlockingIo() throws IOException {
+        try (NioEventLoop loop = new NioEventLoop("led-io")) {
+            assertThrows(IllegalStateException.class, () -> new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .eventLoop(loop)
+                    .executor(Runnable::run)
+                    .build());
+        }
+    }
+
+    @Test
+    void sendRateOfBlockingControllerRequiresExecutor() throws Exception {
+        assertThrows(IllegalStateException.class, () -> new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .maxSendRate(10)
+                .build());
+        ExecutorService executor = ControllerExecutors.newPlatformThreadExecutor("led-io");
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             LedController controller = new LedController.LedControllerBuilder()
+                     .host(simulator.getHost())
+                     .port(simulator.getPort(0))
+                     .maxSendRate(10)
+                     .executor(executor)
+                     .build()) {
+            controller.async().setRGBValues(10, 20, 30);
+            controller.async().setRGBValues(40, 50, 60).get(1, TimeUnit.SECONDS);
+            assertEquals(60, controller.async().init().get(1, TimeUnit.SECONDS).getChannels().getRawB());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerGroupTest {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().build();
+        loop = new NioEventLoop("led-io");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        simulator.close();
+    }
+
+    @Test
+    void sceneIsAppliedToAllMembers() throws Exception {
+        ControllerGroup.ControllerGroupBuilder builder = new ControllerGroup.ControllerGroupBuilder();
+        for (int i = 0; i < 300; i++) {
+            builder.add(new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(simulator.getPort(0))
+                    .eventLoop(loop)
+                    .build());
+        }
+        ControllerGroup group = builder.maxConcurrency(100).deadline(5_000).build();
+        assertEquals(300, group.init().get(10, TimeUnit.SECONDS).getSucceeded());
+
+        GroupReport report = group.setChannels(ControllerChannels.fromPercents(0, 100, 0, 0, 0))
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(300, report.getSucceeded());
+        assertEquals(0, report.getFailed());
+        // report is completed after write, simulator can still read frames
+        for (int i = 0; i < 100 && simulator.getChannelCommands() < 2 * 300; i++) {
+            sleep(10);
+        }
+        assertEquals(2 * 300, simulator.getChannelCommands());
+        assertTrue(report.getSpread(TimeUnit.MILLISECONDS) < 1_000, report::toString);
+        for (LedController controller : group.getMembers()) {
+            assertEquals(100, controller.getChannels().getG());
+        }
+    }
+
+    @Test
+    void newerMemberCommandWinsOverQueuedGroupFrame() throws Exception {
+        LedController member = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .maxSendRate(5)
+                .build();
+        member.async().setRGBValues(1, 1, 1);
+        // group frame waits for rate limit and is replaced by command of member
+        CompletableFuture<GroupReport> group = new ControllerGroup.ControllerGroupBuilder()
+                .add(member)
+                .build()
+                .setChannels(ControllerChannels.of(0, 255, 0, 0, 0));
+        ControllerState state = member.async().setRGBValues(0, 0, 255).get(2, TimeUnit.SECONDS);
+        assertEquals(1, group.get(2, TimeUnit.SECONDS).getSucceeded());
+
+        assertEquals(ControllerChannels.of(0, 0, 255, 0, 0), state.getChannels());
+        assertEquals(ControllerChannels.of(0, 0, 255, 0, 0), member.getChannels());
+        assertEquals(member.getChannels(), member.async().init().get(1, TimeUnit.SECONDS).getChannels());
+    }
+
+    @Test
+    void modeKeepsSpeedOfMembers() throws Exception {
+        LedController member = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .build();
+        member.async().setMode(FunctionalModeRgb.SEVEN_COLOR, 5).get(1, TimeUnit.SECONDS);
+        ControllerGroup group = new ControllerGroup.ControllerGroupBuilder().add(member).build();
+
+        assertEquals(1, group.setMode(FunctionalModeRgb.RED_GRADUAL_CHAGE).get(1, TimeUnit.SECONDS).getSucceeded());
+
+        ControllerState state = member.async().init().get(1, TimeUnit.SECONDS);
+        assertEquals(FunctionalModeRgb.RED_GRADUAL_CHAGE, state.getMode());
+        assertEquals(5, state.getSpeed());
+    }
+
+    @Test
+    void concurrencyIsBounded() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        ControllerGroup.ControllerGroupBuilder builder = new ControllerGroup.ControllerGroupBuilder();
+        for (int i = 0; i < 20; i++) {
+            builder.add(new LedController("host" + i, "", "", new ControllerTransport() {
+                @Override
+                public CompletableFuture<Void> send(byte[] frame) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                @Override
+                public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return CompletableFuture.supplyAsync(() -> {
+                        sleep(10);
+                        inFlight.decrementAndGet();
+                        return frame;
+                    });
+                }
+
+                @Override
+                public void close() {
+                }
+            }));
+        }
+        GroupReport report = builder.maxConcurrency(3).build().turnOn().get(5, TimeUnit.SECONDS);
+
+        assertEquals(20, report.getSucceeded());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    void deadMemberDoesNotDelayOthers() throws Exception {
+        LedController alive = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .build();
+        LedController dead = new LedController("dead", "", "", new ControllerTransport() {
+            @Override
+            public CompletableFuture<Void> send(byte[] frame) {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        ControllerGroup group = new ControllerGroup.ControllerGroupBuilder()
+                .add(dead)
+                .add(alive)
+                .deadline(100)
+                .build();
+
+        GroupReport report = group.turnOn().get(1, TimeUnit.SECONDS);
+
+        assertEquals(1, report.getSucceeded());
+        assertFalse(report.getResults().get(0).isSucceeded());
+        assertTrue(report.getResults().get(0).getError() instanceof TimeoutException);
+        assertTrue(report.getResults().get(1).isSucceeded());
+        assertEquals(PowerState.ON, report.getResults().get(1).getState().getPower());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
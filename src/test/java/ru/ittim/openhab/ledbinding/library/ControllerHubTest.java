@@ -0,0 +1,144 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerHubTest {
+
+    @Test
+    void clientsShareOneConnection() throws Exception {
+        AtomicInteger changes = new AtomicInteger();
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().eventLoop(loop).build();
+             ControllerHub hub = new ControllerHub.HubBuilder()
+                     .controller(pool.controller("127.0.0.1", simulator.getPort(0), "ACCF23000000", ""))
+                     .stateMaxAge(10_000)
+                     .listener((controller, previous, current) -> changes.incrementAndGet())
+                     .build()) {
+            List<LedController> clients = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                clients.add(client(hub));
+            }
+            clients.get(0).init();
+            clients.get(1).turnOn();
+            clients.get(2).setRGBValues(10, 20, 30);
+            // state changed by other clients is answered from known state
+            clients.get(0).init();
+            clients.get(1).init();
+
+            assertEquals(PowerState.ON, clients.get(0).getPower());
+            assertEquals(20, clients.get(1).getChannels().getRawG());
+            assertEquals(1, simulator.getConnections());
+            assertEquals(1, simulator.getStateRequests());
+            assertEquals(1, simulator.getPowerCommands());
+            assertEquals(1, hub.getDeviceRequests());
+            assertEquals(2, hub.getSharedAnswers());
+            assertTrue(changes.get() >= 2);
+            waitFor(() -> simulator.getDevices().get(0).getState().getChannels().getRawB() == 30);
+
+            assertEquals(3, hub.getClients().size());
+            long frames = 0;
+            for (ControllerHub.ClientStats stats : hub.getClients()) {
+                frames += stats.getFrames();
+                assertTrue(stats.getBytesIn() > 0);
+            }
+            // channel command is rgb frame and white frame
+            assertEquals(6, frames);
+            for (LedController client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    void concurrentStateRequestsAreCoalesced() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().latency(200).build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().eventLoop(loop).build();
+             ControllerHub hub = new ControllerHub.HubBuilder()
+                     .controller(pool.controller("127.0.0.1", simulator.getPort(0), "ACCF23000000", ""))
+                     .stateMaxAge(0)
+                     .build()) {
+            List<CompletableFuture<ControllerState>> answers = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                LedController client = new LedController.LedControllerBuilder()
+                        .host("127.0.0.1")
+                        .port(hub.getPort(0))
+                        .eventLoop(loop)
+                        .build();
+                answers.add(client.async().init());
+            }
+            for (CompletableFuture<ControllerState> answer : answers) {
+                assertEquals(PowerState.OFF, answer.get(2, TimeUnit.SECONDS).getPower());
+            }
+            assertEquals(1, simulator.getStateRequests());
+            assertEquals(4, hub.getSharedAnswers());
+        }
+    }
+
+    @Test
+    void blockingControllerDoesntStopOtherClients() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(2).latency(1_000).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().responseTimeout(5_000).build();
+             ControllerHub hub = new ControllerHub.HubBuilder()
+                     // pool without event loop has blocking socket transport
+                     .controller(pool.controller("127.0.0.1", simulator.getPort(0), "ACCF23000000", ""))
+                     .controller(pool.controller("127.0.0.1", simulator.getPort(1), "ACCF23000001", ""))
+                     .stateMaxAge(10_000)
+                     .build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             LedController slow = new LedController.LedControllerBuilder()
+                     .host("127.0.0.1")
+                     .port(hub.getPort(0))
+                     .eventLoop(loop)
+                     .responseTimeout(5_000)
+                     .build();
+             LedController fast = client(hub, 1)) {
+            fast.init();
+            CompletableFuture<ControllerState> pending = slow.async().init();
+            waitFor(() -> simulator.getStateRequests() == 2);
+
+            // known state of other controller is answered while the first one waits 1 second for answer
+            long requests = simulator.getStateRequests();
+            fast.init();
+            assertFalse(pending.isDone());
+            assertEquals(requests, simulator.getStateRequests());
+            assertEquals(PowerState.OFF, pending.get(5, TimeUnit.SECONDS).getPower());
+        }
+    }
+
+    @Test
+    void builderIsValidated() {
+        assertThrows(IllegalStateException.class, () -> new ControllerHub.HubBuilder().build());
+    }
+
+    private static LedController client(ControllerHub hub) throws IOException {
+        return client(hub, 0);
+    }
+
+    private static LedController client(ControllerHub hub, int device) throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(hub.getPort(device))
+                .responseTimeout(5_000)
+                .build();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,113 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerSimulatorTest {
+
+    @Test
+    void answersDiscoveryForAllDevices() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .devices(3)
+                .discoveryPort(0)
+                .build();
+             DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(1000);
+            byte[] request = DiscoveryFinder.DISCOVERY_DATA.getBytes(StandardCharsets.US_ASCII);
+            socket.send(new DatagramPacket(request, request.length,
+                    new InetSocketAddress("127.0.0.1", simulator.getDiscoveryPort())));
+            Set<String> answers = new HashSet<>();
+            for (int i = 0; i < 3; i++) {
+                DatagramPacket packet = new DatagramPacket(new byte[256], 256);
+                socket.receive(packet);
+                answers.add(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII));
+            }
+            for (ControllerSimulator.SimulatedDevice device : simulator.getDevices()) {
+                assertTrue(answers.contains("127.0.0.1," + device.getMac() + "," + device.getModel()));
+            }
+            assertEquals(1, simulator.getDiscoveryRequests());
+        }
+    }
+
+    @Test
+    void devicesKeepOwnState() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(2).build();
+             LedController first = controller(simulator, 0, null);
+             LedController second = controller(simulator, 1, null)) {
+            first.turnOn();
+            first.setChannels(ControllerChannels.fromPercents(100, 0, 0, 0, 0));
+            second.init();
+            first.init();
+
+            assertEquals(PowerState.ON, first.getPower());
+            assertEquals(100, first.getChannels().getR());
+            assertEquals(PowerState.OFF, second.getPower());
+            assertEquals(first.getState(), simulator.getDevices().get(0).getState());
+        }
+    }
+
+    @Test
+    void answerIsDelayed() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .latency(50)
+                .jitter(10)
+                .build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             LedController controller = controller(simulator, 0, loop)) {
+            long start = System.nanoTime();
+            controller.async().init().get(1, TimeUnit.SECONDS);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        }
+    }
+
+    @Test
+    void lostAnswerTimesOut() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().loss(1).build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             LedController controller = controller(simulator, 0, loop)) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> controller.async().init().get(2, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+            assertEquals(1, simulator.getLostAnswers());
+        }
+    }
+
+    @Test
+    void slowReaderReceivesAllFrames() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .slowReader(9, 1)
+                .build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             LedController controller = controller(simulator, 0, loop)) {
+            CompletableFuture<ControllerState> last = null;
+            for (int i = 0; i <= 100; i += 10) {
+                last = controller.async().setRGB(i, 0, 0);
+            }
+            last.get(2, TimeUnit.SECONDS);
+            controller.async().init().get(2, TimeUnit.SECONDS);
+            assertEquals(100, simulator.getDevices().get(0).getState().getChannels().getR());
+        }
+    }
+
+    private static LedController controller(ControllerSimulator simulator, int device, NioEventLoop loop)
+            throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(device))
+                .eventLoop(loop)
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomProgramTest {
+    private final CustomProgram program = new CustomProgram.CustomProgramBuilder()
+            .step(255, 0, 0)
+            .step(0, 255, 0)
+            .step(0, 0, 255)
+            .transition(CustomProgram.Transition.JUMP)
+            .speed(10)
+            .build();
+
+    @Test
+    void programIsUploadedInOneFrame() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().build()) {
+            LedController controller = new LedController.LedControllerBuilder()
+                    .host("127.0.0.1")
+                    .port(simulator.getPort(0))
+                    .build();
+            controller.setCustomProgram(program);
+            controller.init();
+
+            assertEquals(program, simulator.getDevices().get(0).getProgram());
+            assertEquals(1, simulator.getModeCommands());
+            assertEquals(FunctionalModeRgb.CUSTOM, controller.getMode());
+            assertEquals(10, controller.getState().getSpeed());
+            controller.close();
+        }
+    }
+
+    @Test
+    void commandIsValidated() throws ProtocolException {
+        byte[] command = program.getCommand();
+        assertEquals(CustomProgram.COMMAND_LENGTH, command.length);
+        assertEquals(program, CustomProgram.decode(ByteBuffer.wrap(command), 0, command.length));
+        assertEquals(0x00ff00, program.getStep(1));
+
+        byte[] broken = command.clone();
+        broken[66] = 0x40;
+        broken[69] += 0x40 - 0x3b;
+        assertThrows(ProtocolException.class, () -> CustomProgram.decode(ByteBuffer.wrap(broken), 0, broken.length));
+        command[5]++;
+        assertThrows(ProtocolException.class, () -> CustomProgram.decode(ByteBuffer.wrap(command), 0, command.length));
+
+        CustomProgram.CustomProgramBuilder builder = new CustomProgram.CustomProgramBuilder();
+        assertThrows(IllegalStateException.class, builder::build);
+        assertThrows(IllegalArgumentException.class, () -> builder.step(1, 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> builder.step(256, 0, 0));
+        for (int i = 0; i < CustomProgram.MAX_STEPS; i++) {
+            builder.step(i, i, i);
+        }
+        assertThrows(IllegalStateException.class, () -> builder.step(0, 0, 0));
+        assertThrows(IllegalStateException.class, () -> builder.speed(0).build());
+    }
+}
@@ -0,0 +1,115 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceRegistryTest {
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("led-registry");
+        file = directory.resolve("devices.csv");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void savedDevicesAreLoadedWithState() throws IOException {
+        ControllerState state = new ControllerState(ControllerType.RGB, PowerState.ON, FunctionalModeRgb.NONE,
+                FunctionalModeRgb.DEFAULT_SPEED, ControllerChannels.of(1, 2, 3, 4, 250));
+        try (DeviceRegistry registry = new DeviceRegistry.DeviceRegistryBuilder().file(file).build()) {
+            LedController controller = registry.register(new DiscoveredDevice("10.0.0.7", "ACCF23000001", "model"));
+            controller.updateState(it -> state);
+        }
+
+        long start = System.nanoTime();
+        try (DeviceRegistry registry = new DeviceRegistry.DeviceRegistryBuilder().file(file).build()) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            LedController controller = registry.getController("ACCF23000001");
+            assertEquals("10.0.0.7", controller.getHost());
+            assertEquals("model", controller.getModel());
+            assertEquals(state, controller.getState());
+            assertEquals(Collections.singleton(controller), registry.getControllers());
+        }
+    }
+
+    @Test
+    void brokenLinesAreSkipped() throws IOException {
+        Files.write(file, Arrays.asList("# comment", "ACCF23000001,10.0.0.7", "ACCF23000002,10.0.0.8,m,UNKNOWN,ON,NONE,31,0"),
+                StandardCharsets.UTF_8);
+        try (DeviceRegistry registry = new DeviceRegistry.DeviceRegistryBuilder().file(file).build()) {
+            assertEquals(1, registry.size());
+            assertNull(registry.getController("ACCF23000001"));
+            assertEquals(PowerState.ON, registry.getController("ACCF23000002").getPower());
+        }
+    }
+
+    @Test
+    void movedDeviceIsReconciledByMac() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .devices(2)
+                .discoveryPort(0)
+                .build();
+             DiscoveryFinder discovery = new DiscoveryFinder.DiscoveryFinderBuilder()
+                     .discoveryAddress(simulator.getHost())
+                     .discoveryPort(simulator.getDiscoveryPort())
+                     .scanTimeout(200)
+                     .attempts(1)
+                     .build()) {
+            String moved = simulator.getDevices().get(0).getMac();
+            Files.write(file, Collections.singletonList(moved + ",10.0.0.7," + simulator.getDevices().get(0).getModel()
+                    + ",RGB,OFF,NONE,31,ff00000000"), StandardCharsets.UTF_8);
+            CompletableFuture<LedController> movedController = new CompletableFuture<>();
+            // discovery on start waits until saved address is checked
+            CountDownLatch started = new CountDownLatch(1);
+            try (DeviceRegistry registry = new DeviceRegistry.DeviceRegistryBuilder()
+                    .file(file)
+                    .discovery(discovery)
+                    .executor(task -> new Thread(() -> {
+                        try {
+                            started.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        task.run();
+                    }).start())
+                    .listener((previous, current) -> {
+                        if (previous != null) {
+                            movedController.complete(current);
+                        }
+                    })
+                    .build()) {
+                // saved address is available before discovery
+                assertEquals("10.0.0.7", registry.getController(moved).getHost());
+                started.countDown();
+
+                LedController controller = movedController.get(2, TimeUnit.SECONDS);
+                assertEquals(simulator.getHost(), controller.getHost());
+                assertEquals(255, controller.getChannels().getRawR());
+                assertEquals(2, registry.refresh().get(2, TimeUnit.SECONDS).size());
+                assertEquals(2, registry.size());
+                assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+                        .contains(moved + "," + simulator.getHost()));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscoveryFinderTest {
+
+    @Test
+    void devicesArePassedAsAnswersArrive() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .devices(3)
+                .discoveryPort(0)
+                .build();
+             DiscoveryFinder finder = new DiscoveryFinder.DiscoveryFinderBuilder()
+                     .discoveryAddress(simulator.getHost())
+                     .discoveryPort(simulator.getDiscoveryPort())
+                     .scanTimeout(500)
+                     .attempts(2)
+                     .build()) {
+            List<DiscoveredDevice> found = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            long start = System.nanoTime();
+            Collection<DiscoveredDevice> devices = finder.discover(it -> {
+                found.add(it);
+                times.add(System.nanoTime() - start);
+            });
+
+            assertEquals(3, found.size());
+            assertEquals(found, new ArrayList<>(devices));
+            assertEquals(2, simulator.getDiscoveryRequests());
+            assertTrue(times.get(2) < TimeUnit.MILLISECONDS.toNanos(250));
+            for (ControllerSimulator.SimulatedDevice device : simulator.getDevices()) {
+                assertTrue(devices.contains(new DiscoveredDevice(simulator.getHost(), device.getMac(), device.getModel())));
+            }
+        }
+    }
+
+    @Test
+    void controllersAreCreatedWithoutConnection() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder()
+                .devices(2)
+                .discoveryPort(0)
+                .build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().build()) {
+            Set<LedController> controllers = new DiscoveryFinder.DiscoveryFinderBuilder()
+                    .discoveryAddresses(simulator.getHost(), simulator.getHost())
+                    .discoveryPort(simulator.getDiscoveryPort())
+                    .scanTimeout(100)
+                    .attempts(1)
+                    .connectionPool(pool)
+                    .build()
+                    .getControllers();
+
+            assertEquals(2, controllers.size());
+            assertEquals(2, simulator.getDiscoveryRequests());
+            assertEquals(0, simulator.getConnections());
+            assertEquals(0, pool.getOpenConnections());
+        }
+    }
+
+    @Test
+    void ownPoolIsClosedWithFinder() throws Exception {
+        ConnectionPool shared = new ConnectionPool.ConnectionPoolBuilder().build();
+        DiscoveryFinder external = new DiscoveryFinder.DiscoveryFinderBuilder()
+                .discoveryAddress("127.0.0.1")
+                .connectionPool(shared)
+                .build();
+        DiscoveryFinder own = new DiscoveryFinder.DiscoveryFinderBuilder()
+                .discoveryAddress("127.0.0.1")
+                .build();
+        external.close();
+        own.close();
+
+        ExecutionException closed = assertThrows(ExecutionException.class, () -> own.getConnectionPool()
+                .transport("127.0.0.1", 1).request(LedController.REQUEST_STATE_MSG, 14).get());
+        assertTrue(closed.getCause() instanceof ConnectException);
+        assertTrue(closed.getCause().getMessage().contains("closed"));
+        ExecutionException refused = assertThrows(ExecutionException.class, () -> shared
+                .transport("127.0.0.1", 1).request(LedController.REQUEST_STATE_MSG, 14).get());
+        assertFalse(refused.getCause().getMessage().contains("closed"));
+        shared.close();
+    }
+
+    @Test
+    void parseIgnoresRestOfBuffer() {
+        byte[] buffer = new byte[256];
+        byte[] answer = "192.168.1.10,ACCF23000001,HF-LPB100-ZJ200".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(answer, 0, buffer, 0, answer.length);
+
+        DiscoveredDevice device = DiscoveredDevice.parse(buffer, answer.length);
+        assertEquals("HF-LPB100-ZJ200", device.getModel());
+        assertEquals("ACCF23000001", device.getMac());
+        assertNull(DiscoveredDevice.parse(buffer, 12));
+    }
+}
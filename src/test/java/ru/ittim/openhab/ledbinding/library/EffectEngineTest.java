@@ -0,0 +1,173 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EffectEngineTest {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+    private EffectEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().devices(20).build();
+        loop = new NioEventLoop("led-io");
+        engine = new EffectEngine.EffectEngineBuilder().fps(50).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        engine.close();
+        loop.close();
+        simulator.close();
+    }
+
+    @Test
+    void fadeEndsWithTargetChannels() throws Exception {
+        List<LedController> controllers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            controllers.add(controller(i));
+        }
+        Effect fade = Effects.fade(ControllerChannels.fromPercents(0, 0, 0, 0, 0),
+                ControllerChannels.fromPercents(100, 50, 0, 0, 100), 200, Easing.EASE_IN_OUT);
+
+        engine.play(fade, controllers).getDone().get(2, TimeUnit.SECONDS);
+
+        for (ControllerSimulator.SimulatedDevice device : simulator.getDevices()) {
+            assertEquals(ControllerChannels.fromPercents(100, 50, 0, 0, 100), device.getState().getChannels());
+        }
+        assertTrue(engine.getSent() >= 20 * 5, "sent " + engine.getSent());
+        assertEquals(0, engine.getFailed());
+        assertTrue(engine.getAverageJitter(TimeUnit.MILLISECONDS) < 20);
+    }
+
+    @Test
+    void slowControllerSkipsFrames() throws Exception {
+        // controller accepts 10 commands per second, effect is played with 50 frames per second
+        LedController controller = new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .maxSendRate(10)
+                .build();
+        Effect fade = Effects.fade(ControllerChannels.fromPercents(0, 0, 0, 0, 0),
+                ControllerChannels.fromPercents(0, 0, 100, 0, 0), 300, Easing.LINEAR);
+
+        engine.play(fade, Collections.singletonList(controller)).getDone().get(5, TimeUnit.SECONDS);
+
+        assertTrue(engine.getDropped() > 0);
+        assertTrue(engine.getSent() <= 6, "sent " + engine.getSent());
+        assertEquals(100, simulator.getDevices().get(0).getState().getChannels().getB());
+    }
+
+    @Test
+    void endlessEffectIsCancelled() throws Exception {
+        EffectEngine.Playback playback = engine.play(Effects.hsvRotation(100, 1, 1),
+                Collections.singletonList(controller(0)));
+        TimeUnit.MILLISECONDS.sleep(100);
+        playback.cancel();
+
+        assertThrows(CancellationException.class, () -> playback.getDone().get());
+        assertTrue(engine.getSent() > 0);
+    }
+
+    @Test
+    void failedFramesAreRetried() throws Exception {
+        // two frames fail, for example connection is broken and reconnected
+        LedController flaky = flaky(2);
+        Effect fade = Effects.fade(ControllerChannels.fromPercents(0, 0, 0, 0, 0),
+                ControllerChannels.fromPercents(0, 100, 0, 0, 0), 100, Easing.LINEAR);
+
+        engine.play(fade, Collections.singletonList(flaky)).getDone().get(2, TimeUnit.SECONDS);
+
+        assertEquals(2, engine.getFailed());
+        assertEquals(100, flaky.getState().getChannels().getG());
+    }
+
+    @Test
+    void controllerIsLeftOutAfterFailuresInRow() throws Exception {
+        try (EffectEngine engine = new EffectEngine.EffectEngineBuilder().fps(100).failureThreshold(3).build()) {
+            LedController dead = flaky(Integer.MAX_VALUE);
+            LedController alive = controller(0);
+            Effect fade = Effects.fade(ControllerChannels.fromPercents(0, 0, 0, 0, 0),
+                    ControllerChannels.fromPercents(0, 0, 100, 0, 0), 100, Easing.LINEAR);
+
+            engine.play(fade, Arrays.asList(dead, alive)).getDone().get(2, TimeUnit.SECONDS);
+
+            assertEquals(3, engine.getFailed());
+            assertEquals(100, simulator.getDevices().get(0).getState().getChannels().getB());
+        }
+    }
+
+    @Test
+    void effectFrames() {
+        int[] channels = new int[5];
+        Effect fade = Effects.fade(ControllerChannels.fromPercents(0, 0, 0, 0, 0),
+                ControllerChannels.fromPercents(100, 100, 100, 100, 100), 100, Easing.LINEAR);
+        assertTrue(fade.render(TimeUnit.MILLISECONDS.toNanos(50), channels));
+        assertEquals(128, channels[0]);
+        assertFalse(fade.render(TimeUnit.MILLISECONDS.toNanos(100), channels));
+        assertEquals(255, channels[4]);
+
+        Effect hsv = Effects.hsvRotation(600, 1, 1);
+        hsv.render(0, channels);
+        assertArrayEquals(new int[]{255, 0, 0, 0, 0}, channels);
+        hsv.render(TimeUnit.MILLISECONDS.toNanos(200), channels);
+        assertArrayEquals(new int[]{0, 255, 0, 0, 0}, channels);
+
+        Effect breathing = Effects.breathing(ControllerChannels.fromPercents(100, 0, 0, 0, 0), 1000);
+        breathing.render(0, channels);
+        assertEquals(0, channels[0]);
+        breathing.render(TimeUnit.MILLISECONDS.toNanos(500), channels);
+        assertEquals(255, channels[0]);
+    }
+
+    /**
+     * @param failures number of the first sends, which fail.
+     */
+    private static LedController flaky(int failures) {
+        AtomicInteger sends = new AtomicInteger();
+        return new LedController("flaky", "", "", new ControllerTransport() {
+            @Override
+            public CompletableFuture<Void> send(byte[] frame) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                if (sends.incrementAndGet() <= failures) {
+                    future.completeExceptionally(new IOException("Connection reset"));
+                } else {
+                    future.complete(null);
+                }
+                return future;
+            }
+
+            @Override
+            public CompletableFuture<byte[]> request(byte[] frame, int responseLength) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private LedController controller(int device) throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(device))
+                .eventLoop(loop)
+                .build();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FleetChannelsTest {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().devices(3).build();
+        loop = new NioEventLoop("led-io");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        simulator.close();
+    }
+
+    @Test
+    void rawValuesDontDrift() {
+        ControllerChannels channels = ControllerChannels.of(1, 2, 3, 254, 255);
+
+        assertEquals(1, channels.getRawR());
+        assertEquals(254, channels.getRawWw());
+        assertEquals(channels, ControllerChannels.fromPacked(channels.getPacked()));
+        long packed = ControllerChannels.withChannel(channels.getPacked(), ControllerChannels.G, 200);
+        assertEquals(200, ControllerChannels.channel(packed, ControllerChannels.G));
+        assertEquals(255, ControllerChannels.channel(packed, ControllerChannels.CW));
+
+        ByteBuffer expected = ByteBuffer.allocate(ControllerChannels.COMMAND_LENGTH);
+        channels.encode(expected);
+        ByteBuffer actual = ByteBuffer.allocate(ControllerChannels.COMMAND_LENGTH);
+        ControllerChannels.encode(actual, channels.getPacked());
+        assertArrayEquals(expected.array(), actual.array());
+        assertThrows(IllegalArgumentException.class, () -> ControllerChannels.of(256, 0, 0, 0, 0));
+    }
+
+    @Test
+    void channelsAreChangedInPlace() throws Exception {
+        FleetChannels fleet = new FleetChannels(3);
+        LedController controller = controller(1);
+        int id = fleet.add(controller);
+        assertEquals(id, fleet.add(controller));
+
+        fleet.setChannel(id, ControllerChannels.R, 17);
+        fleet.setChannel(id, ControllerChannels.WW, 128);
+        fleet.send(id).get(1, TimeUnit.SECONDS);
+
+        ControllerState state = controller.async().init().get(1, TimeUnit.SECONDS);
+        assertEquals(17, state.getChannels().getRawR());
+        assertEquals(128, state.getChannels().getRawWw());
+        assertThrows(IndexOutOfBoundsException.class, () -> fleet.get(1));
+    }
+
+    @Test
+    void rawSettersKeepOtherChannels() throws Exception {
+        LedController controller = controller(2);
+        controller.setRGBValues(10, 20, 30);
+        controller.setCwValue(251);
+
+        ControllerChannels channels = controller.async().init().get(1, TimeUnit.SECONDS).getChannels();
+        assertEquals(ControllerChannels.of(10, 20, 30, 0, 251), channels);
+    }
+
+    private LedController controller(int device) throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(device))
+                .eventLoop(loop)
+                .build();
+    }
+}
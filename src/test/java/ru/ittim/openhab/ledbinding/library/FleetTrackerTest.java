@@ -0,0 +1,195 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FleetTrackerTest {
+
+    @Test
+    void onlyChangesAreApplied() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        try (DatagramSocket devices = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().build()) {
+            // fake devices answer every request with current list of answers
+            AtomicReference<List<String>> answers = new AtomicReference<>(
+                    Arrays.asList("127.0.0.1,AA,HF-LPB100", "127.0.0.1,BB,HF-LPB100"));
+            Thread responder = new Thread(() -> {
+                byte[] buffer = new byte[256];
+                try {
+                    while (true) {
+                        DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                        devices.receive(request);
+                        for (String answer : answers.get()) {
+                            byte[] data = answer.getBytes(StandardCharsets.US_ASCII);
+                            devices.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+                        }
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+
+            FleetTracker tracker = new FleetTracker.FleetTrackerBuilder()
+                    .discoveryAddress("127.0.0.1")
+                    .discoveryPort(devices.getLocalPort())
+                    .interval(50)
+                    .jitter(10)
+                    .missedRounds(2)
+                    .connectionPool(pool)
+                    .listener(new FleetTracker.FleetListener() {
+                        @Override
+                        public void added(LedController controller) {
+                            events.add("added " + controller.getMac());
+                        }
+
+                        @Override
+                        public void moved(LedController previous, LedController current) {
+                            events.add("moved " + current.getMac() + " " + current.getHost());
+                        }
+
+                        @Override
+                        public void removed(LedController controller) {
+                            events.add("removed " + controller.getMac());
+                        }
+                    })
+                    .build();
+            try {
+                assertEquals("added AA", events.poll(2, TimeUnit.SECONDS));
+                assertEquals("added BB", events.poll(2, TimeUnit.SECONDS));
+                LedController first = tracker.getController("AA");
+
+                // the same answers in next rounds don't change membership
+                long round = tracker.getRounds();
+                while (tracker.getRounds() < round + 3) {
+                    Thread.sleep(10);
+                }
+                assertNull(events.poll());
+                assertSame(first, tracker.getController("AA"));
+
+                answers.set(Arrays.asList("127.0.0.2,AA,HF-LPB100"));
+                assertEquals("moved AA 127.0.0.2", events.poll(2, TimeUnit.SECONDS));
+                assertEquals("removed BB", events.poll(2, TimeUnit.SECONDS));
+                assertEquals(1, tracker.size());
+                assertEquals("127.0.0.2", tracker.getController("AA").getHost());
+                assertEquals(0, pool.getOpenConnections());
+            } finally {
+                tracker.close();
+            }
+        }
+    }
+
+    @Test
+    void refreshDoesntCloseRound() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        try (DatagramSocket devices = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().build()) {
+            // slow device answers in 100 ms
+            Thread responder = new Thread(() -> {
+                byte[] buffer = new byte[256];
+                try {
+                    while (true) {
+                        DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                        devices.receive(request);
+                        Thread.sleep(100);
+                        byte[] data = "127.0.0.1,AA,HF-LPB100".getBytes(StandardCharsets.US_ASCII);
+                        devices.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+
+            FleetTracker tracker = new FleetTracker.FleetTrackerBuilder()
+                    .discoveryAddress("127.0.0.1")
+                    .discoveryPort(devices.getLocalPort())
+                    .interval(60_000)
+                    .jitter(0)
+                    .missedRounds(2)
+                    .connectionPool(pool)
+                    .listener(new FleetTracker.FleetListener() {
+                        @Override
+                        public void added(LedController controller) {
+                            events.add("added " + controller.getMac());
+                        }
+
+                        @Override
+                        public void removed(LedController controller) {
+                            events.add("removed " + controller.getMac());
+                        }
+                    })
+                    .build();
+            try {
+                assertEquals("added AA", events.poll(2, TimeUnit.SECONDS));
+                // several refreshes in a row, for example network change events
+                for (int i = 0; i < 5; i++) {
+                    tracker.refresh();
+                    Thread.sleep(5);
+                }
+                assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+                assertEquals(1, tracker.getRounds());
+                assertNotNull(tracker.getController("AA"));
+            } finally {
+                tracker.close();
+            }
+        }
+    }
+
+    @Test
+    void ownPoolIsClosedWithTracker() throws Exception {
+        try (DatagramSocket device = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"))) {
+            Thread responder = new Thread(() -> {
+                byte[] buffer = new byte[256];
+                try {
+                    while (true) {
+                        DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                        device.receive(request);
+                        byte[] data = "127.0.0.1,AA,HF-LPB100".getBytes(StandardCharsets.US_ASCII);
+                        device.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+            FleetTracker tracker = new FleetTracker.FleetTrackerBuilder()
+                    .discoveryAddress("127.0.0.1")
+                    .discoveryPort(device.getLocalPort())
+                    .interval(50)
+                    .jitter(10)
+                    .build();
+            long start = System.nanoTime();
+            while (tracker.size() == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+                Thread.sleep(10);
+            }
+            LedController controller = tracker.getController("AA");
+            tracker.close();
+
+            ConnectException error = assertThrows(ConnectException.class, controller::init);
+            assertTrue(error.getMessage().contains("closed"));
+        }
+    }
+
+    @Test
+    void jitterMustBeLessThanInterval() {
+        assertThrows(IllegalStateException.class, () -> new FleetTracker.FleetTrackerBuilder()
+                .discoveryAddress("127.0.0.1")
+                .interval(100)
+                .jitter(100)
+                .build());
+    }
+}
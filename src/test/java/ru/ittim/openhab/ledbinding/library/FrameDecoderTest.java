@@ -0,0 +1,72 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDecoderTest {
+    private final byte[] stateResponse = Utils.withCheckSum(new byte[]{
+            (byte) 0x81, 0x25, 0x23, 0x61, 0x00, 0x1f, 0x10, 0x20, 0x30, 0x40, 0x01, 0x50, (byte) 0xf0});
+
+    @Test
+    void decoderResynchronizesAfterGarbage() throws ProtocolException {
+        FrameDecoder decoder = new FrameDecoder(64);
+        byte[] broken = stateResponse.clone();
+        broken[13]++;
+        decoder.inbound().put(new byte[]{0x00, 0x7f}).put(broken).put(stateResponse, 0, 5);
+
+        assertEquals(0, decoder.next(FrameDecoder::responseLength));
+        decoder.compact();
+        decoder.inbound().put(stateResponse, 5, stateResponse.length - 5);
+
+        int length = decoder.next(FrameDecoder::responseLength);
+        assertEquals(ControllerState.RESPONSE_LENGTH, length);
+        ControllerState state = FrameDecoder.decodeState(decoder.buffer(), decoder.position(), length);
+        decoder.consume(length);
+        assertEquals(0, decoder.next(FrameDecoder::responseLength));
+
+        assertEquals(ControllerType.RGB, state.getType());
+        assertEquals(PowerState.ON, state.getPower());
+        assertEquals(FunctionalModeRgb.NONE, state.getMode());
+        assertEquals(0x1f, state.getSpeed());
+        assertEquals(ControllerChannels.of(0x10, 0x20, 0x30, 0x40, 0x50), state.getChannels());
+    }
+
+    @Test
+    void customProgramIsDecoded() throws ProtocolException {
+        // answer of device, which plays uploaded program
+        byte[] response = Utils.withCheckSum(new byte[]{
+                (byte) 0x81, 0x25, 0x23, 0x60, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, (byte) 0xf0});
+
+        ControllerState state = ControllerState.parse(response);
+        assertEquals(FunctionalModeRgb.CUSTOM, state.getMode());
+        assertEquals(0x10, state.getSpeed());
+        assertEquals(FunctionalModeRgb.CUSTOM,
+                FrameDecoder.decodeState(ByteBuffer.wrap(response), 0, response.length).getMode());
+    }
+
+    @Test
+    void wrongChecksumIsRejected() {
+        byte[] broken = stateResponse.clone();
+        broken[6]++;
+        assertThrows(ProtocolException.class, () -> ControllerState.parse(broken));
+        assertThrows(ProtocolException.class, () -> FrameDecoder.decodeState(ByteBuffer.wrap(stateResponse), 0, 13));
+    }
+
+    @Test
+    void lookupsKeepIds() {
+        for (PowerState state : PowerState.values()) {
+            if (state != PowerState.UNKNOWN) {
+                assertEquals(state, PowerState.get(state.getCommand()[1]));
+            }
+        }
+        assertEquals(FunctionalModeRgb.SEVEN_COLOR_CROSS_JUMP, FunctionalModeRgb.get(0x38));
+        assertEquals(FunctionalModeRgb.UNKNOWN, FunctionalModeRgb.get(0x138));
+        assertEquals(ControllerType.RGB, ControllerType.get((byte) 0xf0));
+        assertEquals(ControllerType.UNKNOWN, ControllerType.get(0x00));
+        assertEquals(PowerState.UNKNOWN, PowerState.get(-1));
+    }
+}
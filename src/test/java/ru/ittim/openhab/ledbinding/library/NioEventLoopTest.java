@@ -0,0 +1,205 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioEventLoopTest {
+    private static final int CONTROLLERS = 500;
+
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().build();
+        loop = new NioEventLoop("led-io");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        simulator.close();
+    }
+
+    @Test
+    void oneThreadServesManyControllers() throws Exception {
+        List<ControllerTransport> transports = new ArrayList<>();
+        for (int i = 0; i < CONTROLLERS; i++) {
+            transports.add(loop.connect("127.0.0.1", simulator.getPort(0), 5_000));
+        }
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>();
+        for (ControllerTransport transport : transports) {
+            responses.add(transport.request(new byte[]{(byte) 0x81, (byte) 0x8a, (byte) 0x8b, (byte) 0x96}, 14)
+                    .whenComplete((r, e) -> threads.add(Thread.currentThread().getName())));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (CompletableFuture<byte[]> response : responses) {
+            assertEquals(14, response.get().length);
+            assertEquals((byte) 0x81, response.get()[0]);
+        }
+        assertEquals(CONTROLLERS, simulator.getConnections());
+        assertEquals(CONTROLLERS, simulator.getStateRequests());
+        assertEquals(1, threads.size());
+        assertTrue(threads.contains("led-io"));
+    }
+
+    @Test
+    void controllerCommandsOverEventLoop() throws Exception {
+        LedController controller = new LedController.LedControllerBuilder()
+                .host("127.0.0.1")
+                .port(simulator.getPort(0))
+                .eventLoop(loop)
+                .build();
+        controller.init();
+        assertEquals(PowerState.OFF, controller.getPower());
+        assertEquals(ControllerType.RGB, controller.getType());
+
+        controller.turnOn();
+        controller.setChannels(ControllerChannels.fromPercents(100, 0, 50, 0, 100));
+        controller.init();
+        assertEquals(PowerState.ON, controller.getPower());
+        assertEquals(100, controller.getChannels().getR());
+        assertEquals(100, controller.getChannels().getCw());
+        controller.close();
+    }
+
+    @Test
+    void requestsArePipelined() throws Exception {
+        try (ControllerSimulator slow = new ControllerSimulator.SimulatorBuilder().latency(50).build();
+             LedController controller = new LedController.LedControllerBuilder()
+                     .host("127.0.0.1")
+                     .port(slow.getPort(0))
+                     .eventLoop(loop)
+                     .build()) {
+            List<CompletableFuture<ControllerState>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                futures.add(i % 2 == 0 ? controller.async().turnOn() : controller.async().init());
+                controller.async().setChannels(ControllerChannels.fromPercents(i, 0, 0, 0, 0));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.SECONDS);
+
+            // 20 round trips with 50 ms latency take 1 second without pipelining
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(PowerState.ON, controller.getPower());
+            assertEquals(10, slow.getStateRequests());
+            assertEquals(10, slow.getPowerCommands());
+        }
+    }
+
+    @Test
+    void strayBytesAreSkipped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            ControllerTransport transport = loop.connect("127.0.0.1", server.getLocalPort(), 1_000);
+            CompletableFuture<byte[]> state = transport.request(LedController.REQUEST_STATE_MSG, 14);
+            try (Socket socket = server.accept()) {
+                byte[] request = new byte[4];
+                new DataInputStream(socket.getInputStream()).readFully(request);
+                OutputStream out = socket.getOutputStream();
+                // garbage, stale power echo and then state answer
+                out.write(new byte[]{0x00, 0x0f, 0x71, 0x23, 0x0f, (byte) 0xa3});
+                out.write(Utils.withCheckSum(new byte[]{(byte) 0x81, 0x25, 0x23, 0x61, 0x00, 0x1f,
+                        (byte) 0xff, 0x00, 0x00, 0x00, 0x01, 0x00, (byte) 0xf0}));
+                out.flush();
+
+                byte[] answer = state.get(1, TimeUnit.SECONDS);
+                assertEquals(PowerState.ON, ControllerState.parse(answer).getPower());
+            }
+        }
+    }
+
+    @Test
+    void lateAnswerIsSkipped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            ControllerTransport transport = loop.connect("127.0.0.1", server.getLocalPort(), 100);
+            CompletableFuture<byte[]> timedOut = transport.request(LedController.REQUEST_STATE_MSG, 14);
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                byte[] request = new byte[4];
+                in.readFully(request);
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> timedOut.get(1, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+
+                CompletableFuture<byte[]> state = transport.request(LedController.REQUEST_STATE_MSG, 14);
+                in.readFully(request);
+                OutputStream out = socket.getOutputStream();
+                // answer of timed out request comes before answer of the next one
+                out.write(stateAnswer(0x23));
+                out.write(stateAnswer(0x24));
+                out.flush();
+
+                assertEquals(PowerState.OFF, ControllerState.parse(state.get(1, TimeUnit.SECONDS)).getPower());
+                transport.close();
+            }
+        }
+    }
+
+    static byte[] stateAnswer(int power) {
+        return Utils.withCheckSum(new byte[]{(byte) 0x81, 0x25, (byte) power, 0x61, 0x00, 0x1f,
+                (byte) 0xff, 0x00, 0x00, 0x00, 0x01, 0x00, (byte) 0xf0});
+    }
+
+    @Test
+    void timerIsExecutedInLoop() throws Exception {
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        loop.schedule(() -> thread.complete(Thread.currentThread().getName()), 10, TimeUnit.MILLISECONDS);
+        assertEquals("led-io", thread.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void closeCompletesAllAcceptedCommands() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            NioEventLoop loop = new NioEventLoop("led-io-" + round);
+            ControllerTransport transport = loop.connect(simulator.getHost(), simulator.getPort(0), 1_000);
+            List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+            Thread sender = new Thread(() -> {
+                // requests are sent until loop is closed, the last ones race with close
+                for (int i = 0; i < 10_000; i++) {
+                    CompletableFuture<byte[]> future = transport.request(LedController.REQUEST_STATE_MSG,
+                            ControllerState.RESPONSE_LENGTH);
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                    if (future.isCompletedExceptionally()) {
+                        return;
+                    }
+                }
+            });
+            sender.start();
+            TimeUnit.MILLISECONDS.sleep(5);
+            loop.close();
+            sender.join(5_000);
+
+            synchronized (futures) {
+                for (CompletableFuture<byte[]> future : futures) {
+                    try {
+                        future.get(2, TimeUnit.SECONDS);
+                    } catch (ExecutionException e) {
+                        // failed by close
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimpleControllerMetricsTest {
+
+    @Test
+    void commandsAreMeasured() throws Exception {
+        SimpleControllerMetrics metrics = new SimpleControllerMetrics();
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().latency(5).build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             LedController controller = new LedController.LedControllerBuilder()
+                     .host(simulator.getHost())
+                     .port(simulator.getPort(0))
+                     .eventLoop(loop)
+                     .metrics(metrics)
+                     .build()) {
+            controller.async().init().get(1, TimeUnit.SECONDS);
+            controller.async().turnOn().get(1, TimeUnit.SECONDS);
+            controller.async().setChannels(ControllerChannels.fromPercents(10, 20, 30, 40, 50)).get(1, TimeUnit.SECONDS);
+
+            String device = simulator.getHost() + ":" + simulator.getPort(0);
+            SimpleControllerMetrics.DeviceMetrics stats = metrics.getDevice(device);
+            assertEquals(2, stats.getResponses());
+            assertEquals(1, stats.getCommands());
+            assertEquals(4 + 4 + ControllerChannels.COMMAND_LENGTH, stats.getBytesSent());
+            assertEquals(ControllerState.RESPONSE_LENGTH + PowerState.COMMAND_LENGTH, stats.getBytesReceived());
+            assertTrue(stats.getResponseLatency().getPercentile(50, TimeUnit.MILLISECONDS) >= 4);
+            assertEquals(0, stats.getQueueDepth());
+            assertEquals(1, metrics.getDevices().length);
+            assertEquals(device, metrics.getDevices()[0]);
+        }
+    }
+
+    @Test
+    void timeoutsAndReconnectsAreCounted() throws Exception {
+        SimpleControllerMetrics metrics = new SimpleControllerMetrics();
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().loss(1).build();
+             NioEventLoop loop = new NioEventLoop("led-io");
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder()
+                     .eventLoop(loop)
+                     .responseTimeout(50)
+                     .backoff(1, 1)
+                     .metrics(metrics)
+                     .build()) {
+            LedController controller = new LedController.LedControllerBuilder()
+                    .host(simulator.getHost())
+                    .port(simulator.getPort(0))
+                    .connectionPool(pool)
+                    .build();
+            assertThrows(ExecutionException.class, () -> controller.async().init().get(1, TimeUnit.SECONDS));
+            Thread.sleep(5);
+            assertThrows(ExecutionException.class, () -> controller.async().init().get(1, TimeUnit.SECONDS));
+
+            assertEquals(2, metrics.getTimeouts());
+            assertEquals(1, metrics.getReconnects());
+        }
+    }
+
+    @Test
+    void metricsAreVisibleInJmx() throws Exception {
+        SimpleControllerMetrics metrics = new SimpleControllerMetrics();
+        metrics.discoveryRound(TimeUnit.MILLISECONDS.toNanos(1500), 3);
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DiscoveryRounds"));
+            assertEquals(1500L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LastDiscoveryMillis"));
+        } finally {
+            metrics.unregister(name);
+        }
+    }
+
+    @Test
+    void percentilesAreBounded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 10));
+        }
+        long p50 = histogram.getPercentile(50, TimeUnit.MICROSECONDS);
+        assertTrue(p50 >= 500 && p50 <= 500 * 5 / 4, "p50 " + p50);
+        assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+        assertEquals(100, histogram.getCount());
+    }
+}
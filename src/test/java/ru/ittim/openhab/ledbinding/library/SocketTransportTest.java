@@ -0,0 +1,40 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SocketTransportTest {
+
+    @Test
+    void lateAnswerIsSkipped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             SocketTransport transport = new SocketTransport("127.0.0.1", server.getLocalPort(), 100);
+             Socket socket = server.accept()) {
+            CompletableFuture<byte[]> timedOut = transport.request(LedController.REQUEST_STATE_MSG, 14);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> timedOut.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+
+            OutputStream out = socket.getOutputStream();
+            // answer of timed out request comes before answer of the next one
+            out.write(NioEventLoopTest.stateAnswer(0x23));
+            out.write(NioEventLoopTest.stateAnswer(0x24));
+            out.flush();
+            byte[] answer = transport.request(LedController.REQUEST_STATE_MSG, 14).get(1, TimeUnit.SECONDS);
+            assertEquals(PowerState.OFF, ControllerState.parse(answer).getPower());
+
+            byte[] requests = new byte[8];
+            new DataInputStream(socket.getInputStream()).readFully(requests);
+        }
+    }
+}
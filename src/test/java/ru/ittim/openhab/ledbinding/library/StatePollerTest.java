@@ -0,0 +1,130 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatePollerTest {
+    private ControllerSimulator simulator;
+    private NioEventLoop loop;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        simulator = new ControllerSimulator.SimulatorBuilder().devices(100).build();
+        loop = new NioEventLoop("led-io");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        loop.close();
+        simulator.close();
+    }
+
+    @Test
+    void externalChangeIsPublished() throws Exception {
+        LedController controller = controller(0);
+        controller.init();
+        CompletableFuture<ControllerState> changed = new CompletableFuture<>();
+        try (StatePoller poller = new StatePoller.StatePollerBuilder()
+                .add(controller)
+                .interval(20, 1_000)
+                .tick(5)
+                .listener((it, previous, current) -> changed.complete(current))
+                .build()) {
+            // light is changed by another client, for example by phone
+            controller(0).turnOn();
+
+            ControllerState current = changed.get(1, TimeUnit.SECONDS);
+            assertEquals(PowerState.ON, current.getPower());
+            assertEquals(PowerState.ON, controller.getPower());
+            assertEquals(1, poller.getChanges());
+            assertEquals(20, poller.getInterval(controller, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void idleControllerIsPolledRarely() throws Exception {
+        LedController controller = controller(0);
+        controller.init();
+        List<ControllerState> changes = new ArrayList<>();
+        try (StatePoller poller = new StatePoller.StatePollerBuilder()
+                .add(controller)
+                .interval(10, 80)
+                .tick(5)
+                .listener((it, previous, current) -> changes.add(current))
+                .build()) {
+            TimeUnit.MILLISECONDS.sleep(500);
+            // 10 + 20 + 40 + 80 + 80 ... instead of 50 polls with fixed interval
+            assertTrue(poller.getPolls() < 12, "polls " + poller.getPolls());
+            assertEquals(80, poller.getInterval(controller, TimeUnit.MILLISECONDS));
+            assertTrue(changes.isEmpty());
+            assertTrue(poller.getMaxStaleness(TimeUnit.MILLISECONDS) <= 200);
+        }
+    }
+
+    @Test
+    void pollRateIsBounded() throws Exception {
+        List<LedController> controllers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            controllers.add(controller(i));
+        }
+        try (StatePoller poller = new StatePoller.StatePollerBuilder()
+                .addAll(controllers)
+                .interval(10, 10_000)
+                .maxPollRate(200)
+                .maxConcurrency(4)
+                .tick(10)
+                .build()) {
+            TimeUnit.MILLISECONDS.sleep(300);
+            assertTrue(poller.getPolls() <= 62, "polls " + poller.getPolls());
+            assertTrue(poller.getPolls() >= 20, "polls " + poller.getPolls());
+            assertEquals(0, poller.getFailures());
+            assertTrue(poller.getMaxLatency(TimeUnit.MILLISECONDS) < 1_000);
+        }
+    }
+
+    @Test
+    void blockingPollsDontDelayScheduler() throws Exception {
+        try (ControllerSimulator slow = new ControllerSimulator.SimulatorBuilder().devices(4).latency(1_000).build()) {
+            List<LedController> controllers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                // controller without event loop uses blocking socket transport
+                controllers.add(new LedController.LedControllerBuilder()
+                        .host(slow.getHost())
+                        .port(slow.getPort(i))
+                        .responseTimeout(5_000)
+                        .build());
+            }
+            try (StatePoller poller = new StatePoller.StatePollerBuilder()
+                    .addAll(controllers)
+                    .interval(10, 1_000)
+                    .tick(5)
+                    .build()) {
+                TimeUnit.MILLISECONDS.sleep(50);
+                // polls wait 1 second for answers, shared scheduler stays responsive
+                for (int i = 0; i < 5; i++) {
+                    Utils.SCHEDULER.submit(() -> { }).get(500, TimeUnit.MILLISECONDS);
+                    TimeUnit.MILLISECONDS.sleep(50);
+                }
+                assertTrue(poller.getPolls() >= 4, "polls " + poller.getPolls());
+                assertEquals(0, poller.getFailures());
+            }
+        }
+    }
+
+    private LedController controller(int device) throws IOException {
+        return new LedController.LedControllerBuilder()
+                .host(simulator.getHost())
+                .port(simulator.getPort(device))
+                .eventLoop(loop)
+                .build();
+    }
+}
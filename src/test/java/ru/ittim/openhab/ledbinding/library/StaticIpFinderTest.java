@@ -0,0 +1,84 @@
+package ru.ittim.openhab.ledbinding.library;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticIpFinderTest {
+
+    @Test
+    void rangeIsProbedConcurrently() throws IOException {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().latency(20).build();
+             ConnectionPool pool = new ConnectionPool.ConnectionPoolBuilder().build()) {
+            StaticIpFinder finder = new StaticIpFinder.StaticIpFinderBuilder()
+                    // 1022 loopback addresses, only 127.0.0.1 is listened by simulator
+                    .add("127.0.0.0/22")
+                    .port(simulator.getPort(0))
+                    .connectionPool(pool)
+                    .build();
+            long start = System.nanoTime();
+            Set<LedController> controllers = finder.getControllers();
+
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertEquals(1, controllers.size());
+            LedController controller = controllers.iterator().next();
+            assertEquals("127.0.0.1", controller.getHost());
+            assertEquals(ControllerType.RGB, controller.getType());
+            assertEquals(0, pool.getOpenConnections());
+        }
+    }
+
+    @Test
+    void onlyControllersAreReported() throws Exception {
+        try (ControllerSimulator simulator = new ControllerSimulator.SimulatorBuilder().devices(2).build();
+             ServerSocket silent = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+             ServerSocket chatty = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = chatty.accept()) {
+                    socket.getOutputStream().write("HTTP/1.1 400 Bad\r\n\r\n".getBytes());
+                } catch (IOException ignored) {
+                }
+            });
+            server.start();
+            StaticIpFinder finder = new StaticIpFinder.StaticIpFinderBuilder()
+                    .add("127.0.0.1:" + simulator.getPort(0))
+                    .add("127.0.0.1:" + silent.getLocalPort())
+                    .add("127.0.0.1:" + chatty.getLocalPort())
+                    .add("localhost:" + simulator.getPort(1))
+                    .responseTimeout(200)
+                    .build();
+            List<LedController> streamed = new ArrayList<>();
+            Collection<LedController> found = finder.probe(streamed::add);
+
+            assertEquals(2, found.size());
+            assertEquals(streamed, new ArrayList<>(found));
+            LedController controller = found.iterator().next();
+            controller.init();
+            finder.close();
+            // controllers of finder's own pool are released with finder
+            assertThrows(IOException.class, controller::init);
+            server.join(1_000);
+        }
+    }
+
+    @Test
+    void cidrRangeIsExpanded() {
+        List<InetAddress> hosts = StaticIpFinder.expand("192.168.1.77/30");
+        assertEquals(2, hosts.size());
+        assertEquals("192.168.1.77", hosts.get(0).getHostAddress());
+        assertEquals("192.168.1.78", hosts.get(1).getHostAddress());
+        assertEquals(1022, StaticIpFinder.expand("10.0.4.0/22").size());
+        assertEquals(1, StaticIpFinder.expand("10.0.0.1/32").size());
+        assertThrows(IllegalArgumentException.class, () -> StaticIpFinder.expand("10.0.0.0/8"));
+    }
+}
@@ -2,6 +2,7 @@ package ru.ittim.openhab.ledbinding.library;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,5 +18,25 @@ class UtilsTest {
         assertArrayEquals(bytes, initialArr);
     }
 
+    @Test
+    public void putCheckSumTest(){
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put((byte) 0x55);
+        buffer.put("Test".getBytes());
+        Utils.putCheckSum(buffer, 1);
+        assertEquals(6, buffer.position());
+        assertEquals(-96, buffer.get(5));
+    }
+
+    @Test
+    public void encodeCommandsTest(){
+        assertArrayEquals(new byte[]{0x71, 0x23, 0x0f, (byte) 0xa3}, PowerState.ON.getCommand());
+        assertArrayEquals(new byte[]{0x61, 0x25, 0x1f, 0x0f, (byte) 0xb4}, FunctionalModeRgb.SEVEN_COLOR.getCommand());
+        byte[] expected = new byte[18];
+        System.arraycopy(Utils.withCheckSum(new byte[]{0x31, (byte) 0xff, 0, 0, 0, 0, (byte) 0xf0, 0x0f}), 0, expected, 0, 9);
+        System.arraycopy(Utils.withCheckSum(new byte[]{0x31, 0, 0, 0, 0, (byte) 0xff, 0x0f, 0x0f}), 0, expected, 9, 9);
+        assertArrayEquals(expected, ControllerChannels.fromPercents(100, 0, 0, 0, 100).getChannelCommand());
+    }
+
 
 }
\ No newline at end of file